@@ -0,0 +1,568 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.display.DisplayManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.view.Display;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dev.lexip.logcat.ingest.Backfill;
+import dev.lexip.logcat.ingest.LogcatReader;
+import dev.lexip.logcat.ingest.MergingReader;
+import dev.lexip.logcat.ingest.OverloadPolicy;
+import dev.lexip.logcat.ingest.SourceFilter;
+import dev.lexip.logcat.ingest.TailOverlap;
+import dev.lexip.logcat.metrics.PipelineMetrics;
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogTime;
+import dev.lexip.logcat.process.ProcSource;
+import dev.lexip.logcat.process.ProcessResolver;
+import dev.lexip.logcat.session.SessionReader;
+import dev.lexip.logcat.session.SessionWriter;
+import dev.lexip.logcat.store.IntList;
+import dev.lexip.logcat.store.LevelIndex;
+import dev.lexip.logcat.store.LogStore;
+import dev.lexip.logcat.store.RepeatCollapser;
+import dev.lexip.logcat.store.TimeIndex;
+import dev.lexip.logcat.store.TraceCoalescer;
+import dev.lexip.logcat.store.TrigramIndex;
+
+/**
+ * Foreground service that owns the only logcat reader and the log store, so capturing survives rotations and
+ * keeps going while no activity is visible.
+ * On start, the lines logcat already buffered are loaded in one go (see Backfill) before tailing continues from the
+ * newest of them. The reader thread fills the ingestion buffer, a HandlerThread parses the lines into the store.
+ * Activities bind to the service and attach as consumers while they are started; consumers get told on the main
+ * thread when rows got appended or changed, at most once per ingested batch.
+ */
+public final class CaptureService extends Service {
+
+    /**
+     * Gets notified on the main thread
+     */
+    interface Consumer {
+        /** Rows got appended, evicted or changed since the last call */
+        void onRowsChanged();
+        /** Process names got resolved */
+        void onProcessesChanged();
+    }
+
+    final class LocalBinder extends Binder {
+        CaptureService getService() {
+            return CaptureService.this;
+        }
+    }
+
+    static final String ACTION_STOP = "dev.lexip.logcat.action.STOP_CAPTURE";
+
+    private static final String CHANNEL_ID = "capture";
+    private static final int NOTIFICATION_ID = 1;
+    // Capacity of the ingestion buffer of each logcat process
+    private static final int INGEST_BUFFER_CAPACITY = 16384;
+    // How long a line of one buffer waits for older lines of the other buffers, logcat flushes them about as often
+    private static final long MERGE_WINDOW_MILLIS = 50;
+    // Keep at most 200k lines or 64 MB of logs in memory
+    private static final int STORE_MAX_ROWS = 200_000;
+    private static final long STORE_MAX_BYTES = 64L * 1024 * 1024;
+    // Pids whose process name is kept, a device rarely runs more processes at once
+    private static final int PROCESS_CACHE_SIZE = 1024;
+    // Recorded sessions: 8 MB segments, at most 256 MB or 7 days on storage
+    private static final long SESSION_SEGMENT_BYTES = 8L * 1024 * 1024;
+    private static final long SESSION_MAX_BYTES = 256L * 1024 * 1024;
+    private static final long SESSION_MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    // Lines of the existing logcat buffer to load on start, more would not fit into the store anyway
+    private static final int BACKFILL_MAX_LINES = STORE_MAX_ROWS;
+    // Lines parsed before the ingest thread yields to other messages of its looper
+    private static final int INGEST_BATCH_LINES = 2048;
+    // Polling delay while the buffer is empty, it doubles up to the maximum as long as nothing arrives
+    private static final long INGEST_IDLE_MIN_MILLIS = 8;
+    private static final long INGEST_IDLE_MAX_MILLIS = 64;
+
+    private final LocalBinder binder = new LocalBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Consumer> consumers = new ArrayList<Consumer>();
+    private final AtomicBoolean rowsChangedPending = new AtomicBoolean();
+
+    private long startNanos;
+    private HandlerThread ingestThread;
+    private Handler ingestHandler;
+    private long ingestIdleMillis = INGEST_IDLE_MIN_MILLIS;
+    private MergingReader logcatReader;
+    // Set by onDestroy(), a task already running on the ingest thread must not start logcat anymore (guarded by logcatReader)
+    private boolean destroyed;
+    private volatile SourceFilter sourceFilter = SourceFilter.NONE;
+    private int parsedLines;
+    // Lines stored with the newest timestamp, logcat restarts there (ingest thread only)
+    private TailOverlap tail = new TailOverlap();
+    // Set until the first line logged after the backfill got stored (ingest thread only)
+    private boolean awaitingLive = true;
+    private LogStore logStore;
+    private RepeatCollapser repeatCollapser;
+    private TraceCoalescer traceCoalescer;
+    // Rows that changed in place since the consumers last looked (e.g. a repeated crash), guarded by itself
+    private final IntList updatedRows = new IntList();
+    private LevelIndex levelIndex;
+    private TimeIndex timeIndex;
+    private TrigramIndex searchIndex;
+    private ProcessResolver processResolver;
+    private PipelineMetrics metrics;
+    // Only touched on the ingest thread, the reader is handed to the main thread
+    private SessionWriter sessionWriter;
+    private volatile SessionReader sessionReader;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        startNanos = System.nanoTime();
+
+        // Frames are expected at the refresh rate of the display
+        Display display = ((DisplayManager) getSystemService(Context.DISPLAY_SERVICE)).getDisplay(Display.DEFAULT_DISPLAY);
+        metrics = new PipelineMetrics(Math.round(1_000_000_000.0 / (display != null ? display.getRefreshRate() : 60)));
+
+        logStore = new LogStore(STORE_MAX_ROWS, STORE_MAX_BYTES);
+        // Fold a line that repeats one of the last rows into that row instead of showing it again
+        repeatCollapser = new RepeatCollapser(logStore, RepeatCollapser.WINDOW_DEFAULT);
+        traceCoalescer = new TraceCoalescer(logStore, repeatCollapser);
+        logStore.addListener(new LogStore.Listener() {
+            @Override
+            public void onAppended(int row) {
+            }
+
+            @Override
+            public void onEvicted(int firstRow) {
+            }
+
+            @Override
+            public void onUpdated(int row) {
+                synchronized (updatedRows) {
+                    // A line repeating quickly updates the same row many times per batch, rebinding it once is enough
+                    if (updatedRows.size() == 0 || updatedRows.get(updatedRows.size() - 1) != row)
+                        updatedRows.add(row);
+                }
+            }
+        });
+        levelIndex = new LevelIndex(logStore);
+        timeIndex = new TimeIndex(logStore);
+        searchIndex = new TrigramIndex(logStore);
+
+        // Resolve the pids of new rows to process names in the background
+        processResolver = new ProcessResolver(logStore, new ProcSource(), PROCESS_CACHE_SIZE, ContextCompat.getMainExecutor(this), new ProcessResolver.Listener() {
+            @Override
+            public void onProcessesChanged() {
+                for (int i = 0; i < consumers.size(); i++)
+                    consumers.get(i).onProcessesChanged();
+            }
+        });
+
+        // Separate threads continuously read the "logcat" of each buffer into their bounded ingestion buffers,
+        // they stay real-time under load by dropping low priority lines, the drops show up as a marker row
+        logcatReader = new MergingReader(INGEST_BUFFER_CAPACITY, OverloadPolicy.MODE_DROP_BY_PRIORITY, MERGE_WINDOW_MILLIS, new LogcatReader.Listener() {
+            @Override
+            public void onStopped(IOException error) {
+                Log.e("LogcatReader", "logcat stopped", error);
+            }
+        });
+
+        // Parse the lines on a background looper, the UI only renders what ended up in the store
+        ingestThread = new HandlerThread("Ingest", Process.THREAD_PRIORITY_DEFAULT);
+        ingestThread.start();
+        ingestHandler = new Handler(ingestThread.getLooper());
+        ingestHandler.post(backfillTask);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            stopForeground(true);
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        startForeground(NOTIFICATION_ID, buildNotification());
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        synchronized (logcatReader) {
+            destroyed = true;
+            logcatReader.stop();
+        }
+        processResolver.shutdown();
+        ingestHandler.removeCallbacksAndMessages(null);
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                SessionReader reader = closeSession();
+                if (reader != null)
+                    reader.close();
+            }
+        });
+        ingestThread.quitSafely();
+        mainHandler.removeCallbacksAndMessages(null);
+        consumers.clear();
+        super.onDestroy();
+    }
+
+    private Notification buildNotification() {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && manager.getNotificationChannel(CHANNEL_ID) == null)
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, getString(R.string.capture_channel), NotificationManager.IMPORTANCE_LOW));
+
+        PendingIntent open = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        PendingIntent stop = PendingIntent.getService(this, 0, new Intent(this, CaptureService.class).setAction(ACTION_STOP), PendingIntent.FLAG_UPDATE_CURRENT);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_baseline_filter_alt_24)
+                .setContentTitle(getString(R.string.capture_running))
+                .setContentIntent(open)
+                .addAction(0, getString(R.string.capture_stop), stop)
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+    }
+
+    /**
+     * Loads what logcat buffered before the start and then starts tailing from the newest loaded line
+     */
+    private final Runnable backfillTask = new Runnable() {
+        @Override
+        public void run() {
+            Backfill loaded = new Backfill(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+            java.lang.Process process = null;
+            try {
+                process = new ProcessBuilder(sourceFilter.toDumpCommand(BACKFILL_MAX_LINES)).redirectErrorStream(true).start();
+                loaded.load(process.getInputStream(), traceCoalescer, logStore);
+                tail = loaded.getTail();
+                metrics.onBackfilled(loaded.getLines(), System.nanoTime() - startNanos);
+                Log.i("Backfill", loaded.getLines() + " lines: read " + loaded.getReadNanos() / 1_000_000L + " ms, parse "
+                        + loaded.getParseNanos() / 1_000_000L + " ms, load " + loaded.getLoadNanos() / 1_000_000L + " ms");
+            }
+            catch (IOException e) {
+                Log.e("Backfill", "Cannot load the buffered lines", e);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finally {
+                if (process != null)
+                    process.destroy();
+            }
+            notifyRowsChanged();
+
+            tail.restart();
+            if (startReader(sourceFilter, formatSince(tail.getLastTimeMillis())))
+                ingestHandler.post(ingestTask);
+        }
+    };
+
+    /**
+     * Drains the ingestion buffers on the ingest thread, merging the lines of all buffers by time
+     */
+    private final Runnable ingestTask = new Runnable() {
+        @Override
+        public void run() {
+            int count = 0;
+            long nowMillis = System.currentTimeMillis();
+            while (count < INGEST_BATCH_LINES) {
+                // Parsing happens while merging, the sample includes the comparison with the other buffers
+                LogEntry logEntry;
+                if (++parsedLines % PipelineMetrics.PARSE_SAMPLE_INTERVAL == 0) {
+                    long start = System.nanoTime();
+                    logEntry = logcatReader.next(nowMillis);
+                    metrics.onParsed(System.nanoTime() - start);
+                }
+                else
+                    logEntry = logcatReader.next(nowMillis);
+                if (logEntry == null)
+                    break;
+                // Tailing starts with the lines of the newest stored millisecond again
+                if (tail.skip(logEntry))
+                    continue;
+                if (awaitingLive) {
+                    awaitingLive = false;
+                    metrics.onLive(System.nanoTime() - startNanos);
+                }
+                traceCoalescer.append(logEntry);
+                tail.noteStored(logEntry);
+                count++;
+            }
+
+            // Store stack traces that are complete
+            boolean flushed = traceCoalescer.flushIdle(System.nanoTime());
+            if (count > 0) {
+                metrics.onProcessed(count);
+                processResolver.requestScan();
+            }
+            if (count > 0 || flushed)
+                notifyRowsChanged();
+
+            if (count == INGEST_BATCH_LINES) {
+                ingestIdleMillis = INGEST_IDLE_MIN_MILLIS;
+                ingestHandler.post(this);
+            }
+            else {
+                ingestIdleMillis = count > 0 ? INGEST_IDLE_MIN_MILLIS : Math.min(ingestIdleMillis * 2, INGEST_IDLE_MAX_MILLIS);
+                ingestHandler.postDelayed(this, ingestIdleMillis);
+            }
+        }
+    };
+
+    private void notifyRowsChanged() {
+        if (rowsChangedPending.getAndSet(true))
+            return;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                rowsChangedPending.set(false);
+                for (int i = 0; i < consumers.size(); i++)
+                    consumers.get(i).onRowsChanged();
+            }
+        });
+    }
+
+    /**
+     * Starts telling a consumer about changes (main thread only)
+     */
+    void attach(Consumer consumer) {
+        if (!consumers.contains(consumer))
+            consumers.add(consumer);
+    }
+
+    /**
+     * Stops telling a consumer about changes, the store keeps filling (main thread only)
+     */
+    void detach(Consumer consumer) {
+        consumers.remove(consumer);
+    }
+
+    /**
+     * Moves the rows that changed in place since the last call to the passed list
+     */
+    void drainUpdatedRows(IntList out) {
+        synchronized (updatedRows) {
+            for (int i = 0; i < updatedRows.size(); i++)
+                out.add(updatedRows.get(i));
+            updatedRows.clear();
+        }
+    }
+
+    /**
+     * @return Returns the System.nanoTime() capturing started at
+     */
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    LogStore getStore() {
+        return logStore;
+    }
+
+    LevelIndex getLevelIndex() {
+        return levelIndex;
+    }
+
+    TimeIndex getTimeIndex() {
+        return timeIndex;
+    }
+
+    TrigramIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    ProcessResolver getProcessResolver() {
+        return processResolver;
+    }
+
+    PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    int getOverloadMode() {
+        return logcatReader.getOverloadMode();
+    }
+
+    void setOverloadMode(int mode) {
+        logcatReader.setOverloadMode(mode);
+    }
+
+    void setCollapseWindow(final int window) {
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (window != repeatCollapser.getWindow())
+                    repeatCollapser.setWindow(window);
+            }
+        });
+    }
+
+    /**
+     * Updates the metrics' rates and gauges (main thread only)
+     */
+    void sampleMetrics(long nowNanos) {
+        metrics.sample(nowNanos, logcatReader.getLinesRead(), logcatReader.size(), logcatReader.getDroppedTotal(),
+                logStore.getMemoryBytes(), levelIndex.getMemoryBytes() + searchIndex.getMemoryBytes() + timeIndex.getMemoryBytes());
+    }
+
+    SourceFilter getSourceFilter() {
+        return sourceFilter;
+    }
+
+    /**
+     * Restarts the logcat processes if the part of the filter that logcat can apply itself changed
+     */
+    void setSourceFilter(final SourceFilter wanted) {
+        if (wanted.equals(sourceFilter))
+            return;
+        sourceFilter = wanted;
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Drop the lines the old processes read ahead, the new ones continue at the last stored line
+                logcatReader.stop();
+                traceCoalescer.flush();
+                tail.restart();
+                startReader(wanted, formatSince(tail.getLastTimeMillis()));
+                notifyRowsChanged();
+            }
+        });
+    }
+
+    /**
+     * Starts reading logcat unless the service got destroyed meanwhile (ingest thread only)
+     * @return Returns whether the reader got started
+     */
+    private boolean startReader(SourceFilter filter, String since) {
+        synchronized (logcatReader) {
+            if (destroyed)
+                return false;
+            logcatReader.start(filter, since);
+            return true;
+        }
+    }
+
+    /**
+     * @return Returns the "MM-DD HH:MM:SS.mmm" timestamp that logcat -T expects or null if there is no time
+     */
+    private static String formatSince(long millis) {
+        if (millis == 0)
+            return null;
+        StringBuilder sb = new StringBuilder();
+        new LogTime(TimeZone.getDefault()).appendTimestamp(sb, millis);
+        return sb.toString();
+    }
+
+    /**
+     * @return Returns the reader of the session that is being recorded or null
+     */
+    SessionReader getSessionReader() {
+        return sessionReader;
+    }
+
+    /**
+     * Starts or stops recording the session to storage
+     * @param callback Gets called on the main thread once the session started (or failed to) or stopped
+     */
+    void setRecording(final boolean recording, final Runnable callback) {
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                SessionReader stopped = null;
+                if (recording && sessionWriter == null) {
+                    try {
+                        sessionWriter = new SessionWriter(logStore, new File(getFilesDir(), "sessions"), SESSION_SEGMENT_BYTES,
+                                SESSION_MAX_BYTES, SESSION_MAX_AGE_MILLIS);
+                        sessionReader = new SessionReader(sessionWriter.getSessionDir());
+                    }
+                    catch (IOException e) {
+                        Log.e("SessionWriter", "Cannot record the session", e);
+                    }
+                }
+                else if (!recording)
+                    stopped = closeSession();
+                final SessionReader closing = stopped;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.run();
+                        // The main thread might have read from it until now
+                        if (closing != null)
+                            closing.close();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Writes the buffered part of the session to storage
+     */
+    void flushSession() {
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (sessionWriter != null)
+                    sessionWriter.flush();
+            }
+        });
+    }
+
+    /**
+     * Stops recording (ingest thread only)
+     * @return Returns the reader of the session, which the caller has to close, or null if there was none
+     */
+    private SessionReader closeSession() {
+        if (sessionWriter == null)
+            return null;
+        sessionWriter.close();
+        if (sessionWriter.getError() != null)
+            Log.e("SessionWriter", "Recording stopped", sessionWriter.getError());
+        sessionWriter = null;
+        SessionReader reader = sessionReader;
+        sessionReader = null;
+        return reader;
+    }
+}
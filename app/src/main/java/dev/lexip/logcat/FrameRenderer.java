@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat;
+
+import android.view.Choreographer;
+
+/**
+ * Renders changes of the store on the UI thread at most once per frame, no matter how often they get reported.
+ * Frames are only requested while there are changes, an idle log does not wake the Choreographer.
+ */
+final class FrameRenderer implements Choreographer.FrameCallback {
+
+    interface Consumer {
+        /** Called at the start of every frame, consecutive frames follow each other until onIdle() */
+        void onFrame(long frameTimeNanos);
+        /** Called in frames after invalidate() */
+        void onRender();
+        /** Called when a frame found nothing to render, no frames follow until the next invalidate() */
+        void onIdle();
+    }
+
+    private final Consumer consumer;
+    private boolean running;
+    private boolean invalid;
+    private boolean posted;
+
+    FrameRenderer(Consumer consumer) {
+        this.consumer = consumer;
+    }
+
+    void start() {
+        if (running)
+            return;
+        running = true;
+        if (invalid)
+            post();
+    }
+
+    void stop() {
+        running = false;
+        posted = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    /**
+     * Renders with the next frame
+     */
+    void invalidate() {
+        invalid = true;
+        if (running)
+            post();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        posted = false;
+        if (!running)
+            return;
+        // Also called for the frame after the last rendered one, its gap includes the time that one took
+        consumer.onFrame(frameTimeNanos);
+        if (!invalid) {
+            consumer.onIdle();
+            return;
+        }
+        invalid = false;
+        consumer.onRender();
+        // One more frame, so a slow render still counts towards the dropped frames
+        post();
+    }
+
+    private void post() {
+        if (posted)
+            return;
+        posted = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
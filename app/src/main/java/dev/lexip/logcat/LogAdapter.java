@@ -0,0 +1,544 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.graphics.drawable.GradientDrawable;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.constraintlayout.widget.ConstraintLayout;
+import androidx.core.content.res.ResourcesCompat;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.TimeZone;
+import java.util.concurrent.Future;
+
+import dev.lexip.logcat.filter.FilterEngine;
+import dev.lexip.logcat.filter.FilterQuery;
+import dev.lexip.logcat.filter.FilterResult;
+import dev.lexip.logcat.parse.LogBuffer;
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+import dev.lexip.logcat.parse.LogTime;
+import dev.lexip.logcat.process.ProcessResolver;
+import dev.lexip.logcat.session.SessionReader;
+import dev.lexip.logcat.session.SessionRecord;
+import dev.lexip.logcat.store.IntList;
+import dev.lexip.logcat.store.LogStore;
+
+/**
+ * Virtualized list of logcat reports. Only the visible rows are bound and their views get recycled.
+ * The adapter only keeps the numbers of the visible rows, everything else is read from the {@link LogStore}.
+ * With a {@link SessionReader}, evicted rows stay in the list and are read back from the session files.
+ * Texts are measured and highlighted in the background by a {@link TextLayoutCache}, binding only assigns the layout.
+ */
+final class LogAdapter extends RecyclerView.Adapter<LogAdapter.EntryHolder> {
+
+    private static final float RADIUS = 100;
+    private static final float[] ROUND_ALL = {RADIUS, RADIUS, RADIUS, RADIUS, RADIUS, RADIUS, RADIUS, RADIUS};
+    private static final float[] ROUND_TOP = {RADIUS, RADIUS, RADIUS, RADIUS, 0, 0, 0, 0};
+    private static final float[] ROUND_BOTTOM = {0, 0, 0, 0, RADIUS, RADIUS, RADIUS, RADIUS};
+    // Lines of a stack trace that are shown until it gets expanded
+    private static final int COLLAPSED_TRACE_LINES = 4;
+    private static final float[] ROUND_NONE = {0, 0, 0, 0, 0, 0, 0, 0};
+    // Older rows that get paged in at once, and how many archived rows the engine checks for them at most
+    private static final int PAGE_ROWS = 500;
+    private static final int PAGE_SCAN_ROWS = 20_000;
+    // Newest rows that get laid out ahead while the list follows the end
+    private static final int PREFETCH_ROWS = 32;
+
+    private final LogStore store;
+    private final IntList visibleRows = new IntList(1024);
+    // Rows below this one have already been checked against the filter
+    private int syncedRow;
+    private final LogTime logTime = new LogTime(TimeZone.getDefault());
+    private final StringBuilder textBuilder = new StringBuilder();
+    private final LayoutInflater inflater;
+    private final int strokeMargin;
+
+    // Resolved once instead of for every single row
+    private final int verboseColor, debugColor, infoColor, warnColor, errorColor, fatalColor, otherColor;
+    private final int selectionColor;
+    private final int highlightColor;
+    private final Typeface typeface;
+    // Created with the first view, whose text metrics all layouts share
+    private TextLayoutCache layouts;
+
+    private FilterQuery query = new FilterQuery(FilterQuery.ALL_LEVELS, "");
+    private SessionReader sessionReader;
+    // Set while the engine looks for older rows to page in
+    private boolean pagingIn;
+    private final SessionRecord record = new SessionRecord();
+    private final StoredRow stored = new StoredRow();
+    private ProcessResolver processResolver;
+
+    LogAdapter(Context context, LogStore store) {
+        this.store = store;
+        inflater = LayoutInflater.from(context);
+        strokeMargin = Math.round(3 * context.getResources().getDisplayMetrics().density);
+        verboseColor = ResourcesCompat.getColor(context.getResources(), R.color.verbose, context.getTheme());
+        debugColor = ResourcesCompat.getColor(context.getResources(), R.color.debug, context.getTheme());
+        infoColor = ResourcesCompat.getColor(context.getResources(), R.color.info, context.getTheme());
+        warnColor = ResourcesCompat.getColor(context.getResources(), R.color.warning, context.getTheme());
+        errorColor = ResourcesCompat.getColor(context.getResources(), R.color.error, context.getTheme());
+        fatalColor = ResourcesCompat.getColor(context.getResources(), R.color.fatal, context.getTheme());
+        otherColor = ResourcesCompat.getColor(context.getResources(), R.color.fg, context.getTheme());
+        selectionColor = ResourcesCompat.getColor(context.getResources(), R.color.selection, context.getTheme());
+        highlightColor = ResourcesCompat.getColor(context.getResources(), R.color.highlight, context.getTheme());
+        typeface = ResourcesCompat.getFont(context, R.font.robotomono_regular);
+    }
+
+    /**
+     * Catches up with the store: drops evicted rows and shows new rows that match the current filter
+     * @return Returns the number of rows that got added to the list
+     */
+    int refresh() {
+        int firstRow = store.getFirstRow();
+        int endRow = store.getEndRow();
+
+        // Evicted rows are still readable from the session
+        int evicted = sessionReader != null ? 0 : visibleRows.lowerBound(firstRow);
+        if (evicted > 0) {
+            visibleRows.removeFirst(evicted);
+            notifyItemRangeRemoved(0, evicted);
+        }
+
+        int oldCount = visibleRows.size();
+        for (int row = Math.max(syncedRow, firstRow); row < endRow; row++) {
+            // The ingest thread may evict the row at any time
+            synchronized (store) {
+                if (store.isRetained(row) && matches(row))
+                    visibleRows.add(row);
+            }
+        }
+        syncedRow = endRow;
+
+        int added = visibleRows.size() - oldCount;
+        if (added > 0) {
+            notifyItemRangeInserted(oldCount, added);
+            // The previous last row might have to be connected to the new ones
+            if (oldCount > 0)
+                notifyItemChanged(oldCount - 1);
+        }
+        return added;
+    }
+
+    /**
+     * Lays out the newest rows in the background, so scrolling to the end does not have to measure them
+     * @param count Number of rows at the end of the list that are new, e.g. the result of refresh()
+     */
+    void prefetchNewest(int count) {
+        if (layouts == null)
+            return;
+        String highlight = query.getText();
+        for (int i = visibleRows.size() - Math.min(count, Math.min(PREFETCH_ROWS, visibleRows.size())); i < visibleRows.size(); i++) {
+            int row = visibleRows.get(i);
+            if (stored.read(store, row))
+                layouts.get(row, buildText(stored), highlight);
+        }
+    }
+
+    /**
+     * Stops laying out texts in the background, the adapter must not be used afterwards
+     */
+    void release() {
+        if (layouts != null)
+            layouts.shutdown();
+    }
+
+    /**
+     * @return Returns the position of the first shown row at or after the passed one, or the item count
+     */
+    int getPosition(int row) {
+        return visibleRows.lowerBound(row);
+    }
+
+    /**
+     * @return Returns the row up to which the store has been checked against the filter
+     */
+    int getSyncedRow() {
+        return syncedRow;
+    }
+
+    /**
+     * Shows the rows of a filter result that got computed in the background
+     * @param result Result of the latest query
+     */
+    void showResult(FilterResult result) {
+        query = result.getQuery();
+        visibleRows.clear();
+        for (int row : result.getRows())
+            visibleRows.add(row);
+        // Rows appended during the evaluation are checked by the following refresh
+        syncedRow = result.getEndRow();
+        refresh();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Changes the query without a precomputed result, only meant for a store that is (nearly) empty
+     */
+    void setQuery(FilterQuery query) {
+        this.query = query;
+        visibleRows.clear();
+        syncedRow = 0;
+        refresh();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Reads rows that got evicted from the store back from a session, or stops doing so
+     * @param sessionReader Reader of the session the store is written to, or null
+     */
+    void setSessionReader(SessionReader sessionReader) {
+        this.sessionReader = sessionReader;
+        if (sessionReader == null)
+            refresh();
+    }
+
+    /**
+     * Shows the process name of each row next to its pid
+     * @param processResolver Resolver that knows the names, or null to only show pids
+     */
+    void setProcessResolver(ProcessResolver processResolver) {
+        this.processResolver = processResolver;
+    }
+
+    /**
+     * Puts archived rows that match the current filter in front of the list once the engine found them
+     * @param engine Engine whose thread reads the session
+     */
+    void pageInOlder(FilterEngine engine) {
+        if (sessionReader == null || pagingIn)
+            return;
+        int endRow = visibleRows.size() > 0 ? visibleRows.get(0) : store.getFirstRow();
+        pagingIn = true;
+        engine.pageIn(sessionReader, query, endRow, PAGE_ROWS, PAGE_SCAN_ROWS, new FilterEngine.PageCallback() {
+            @Override
+            public void onPage(FilterQuery pagedQuery, int pagedEndRow, int[] rows) {
+                pagingIn = false;
+                // The list changed meanwhile, the user pages in again when reaching the top
+                if (pagedQuery != query || sessionReader == null || rows.length == 0
+                        || (visibleRows.size() > 0 ? visibleRows.get(0) : store.getFirstRow()) != pagedEndRow)
+                    return;
+                IntList merged = new IntList(rows.length + visibleRows.size());
+                for (int row : rows)
+                    merged.add(row);
+                for (int i = 0; i < visibleRows.size(); i++)
+                    merged.add(visibleRows.get(i));
+                visibleRows.clear();
+                for (int i = 0; i < merged.size(); i++)
+                    visibleRows.add(merged.get(i));
+                notifyItemRangeInserted(0, rows.length);
+            }
+        });
+    }
+
+    /**
+     * Rebinds a row whose content changed, e.g. because another occurrence got folded into it
+     */
+    void notifyRowChanged(int row) {
+        int position = visibleRows.lowerBound(row);
+        if (position < visibleRows.size() && visibleRows.get(position) == row)
+            notifyItemChanged(position);
+    }
+
+    private boolean matches(int row) {
+        return query.matches(store, row);
+    }
+
+    @Override
+    public int getItemCount() {
+        return visibleRows.size();
+    }
+
+    @NonNull
+    @Override
+    public EntryHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        EntryHolder holder = new EntryHolder(inflater.inflate(R.layout.item_log_entry, parent, false));
+        holder.text.setTypeface(typeface);
+        if (layouts == null)
+            layouts = new TextLayoutCache(TextViewCompat.getTextMetricsParams(holder.text), highlightColor);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull EntryHolder holder, int position) {
+        int row = visibleRows.get(position);
+        int flags;
+        byte level;
+        if (stored.read(store, row)) {
+            flags = stored.flags;
+            level = stored.level;
+            holder.setLayout(layouts.get(row, buildText(stored), query.getText()));
+        }
+        else if (sessionReader != null && sessionReader.read(row, record)) {
+            flags = record.getFlags();
+            level = record.getLevel();
+            holder.setLayout(layouts.get(row, buildText(record), query.getText()));
+        }
+        else {
+            // Evicted after the last refresh, the row disappears with the next one
+            holder.setLayout(null);
+            holder.text.setText(null);
+            return;
+        }
+        boolean frame = (flags & LogStore.FLAG_FRAME) != 0;
+        boolean nextIsFrame = position + 1 < visibleRows.size() && (getFlags(visibleRows.get(position + 1)) & LogStore.FLAG_FRAME) != 0;
+
+        holder.shape.setColor(getTypeColor(LogEntry.levelChar(level)));
+
+        // Visually connect related entries by only rounding the corners at the very start and the very end of the report group (e.g. "*Exception.. ..at.. ..at.. ..at..")
+        boolean connectTop = frame;
+        boolean connectBottom = nextIsFrame && (frame || (flags & LogStore.FLAG_EXCEPTION) != 0);
+        if (connectTop && connectBottom)
+            holder.shape.setCornerRadii(ROUND_NONE);
+        else if (connectTop)
+            holder.shape.setCornerRadii(ROUND_BOTTOM);
+        else if (connectBottom)
+            holder.shape.setCornerRadii(ROUND_TOP);
+        else
+            holder.shape.setCornerRadii(ROUND_ALL);
+        holder.setStrokeMargins(connectTop ? 0 : strokeMargin, connectBottom ? 0 : strokeMargin);
+
+        // Highlight selected and special entries (e.g. "------- beginning of crash")
+        if ((flags & (LogStore.FLAG_SELECTED | LogStore.FLAG_MARKER)) != 0)
+            holder.itemView.setBackgroundColor(selectionColor);
+        else
+            holder.itemView.setBackground(null);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull EntryHolder holder) {
+        // The row scrolled away before its layout was needed
+        holder.setLayout(null);
+    }
+
+    /**
+     * @return Returns the flags of a retained row or 0 if it got evicted
+     */
+    private int getFlags(int row) {
+        synchronized (store) {
+            return store.isRetained(row) ? store.getFlags(row) : 0;
+        }
+    }
+
+    /**
+     * Builds the text of a row like "05-23 11:50:59.123 1234 1256 com.example D Tag:\nMessage"
+     */
+    private String buildText(StoredRow row) {
+        StringBuilder sb = textBuilder;
+        sb.setLength(0);
+        int flags = row.flags;
+        if ((flags & LogStore.FLAG_MARKER) != 0) {
+            sb.append(LogParser.MARKER_PREFIX);
+        }
+        // Stack trace lines and continuations only show their text, the header is the same as in the report above
+        else if ((flags & (LogStore.FLAG_FRAME | LogStore.FLAG_CONTINUATION)) == 0) {
+            appendHeader(sb, row.time, row.pid, row.tid, row.level, row.tag, row.occurrences, row.lastTime, row.buffer);
+        }
+        int messageStart = sb.length();
+        sb.append(row.message);
+        collapseTrace(sb, messageStart, flags);
+        return sb.toString();
+    }
+
+    /**
+     * Builds the text of a row that got read back from the session
+     */
+    private String buildText(SessionRecord record) {
+        StringBuilder sb = textBuilder;
+        sb.setLength(0);
+        int flags = record.getFlags();
+        if ((flags & LogStore.FLAG_MARKER) != 0) {
+            sb.append(LogParser.MARKER_PREFIX);
+        }
+        else if ((flags & (LogStore.FLAG_FRAME | LogStore.FLAG_CONTINUATION)) == 0) {
+            appendHeader(sb, record.getTimeMillis(), record.getPid(), record.getTid(), record.getLevel(),
+                    record.getTag(), record.getOccurrences(), record.getLastTimeMillis(), LogBuffer.DEFAULT);
+        }
+        int messageStart = sb.length();
+        sb.append(record.getMessage());
+        // Archived traces cannot be expanded
+        collapseTrace(sb, messageStart, flags);
+        return sb.toString();
+    }
+
+    private void appendHeader(StringBuilder sb, long time, int pid, int tid, byte level, String tag, int occurrences, long lastTime,
+                              byte buffer) {
+        if (time != 0) {
+            logTime.appendTimestamp(sb, time);
+            sb.append(' ');
+        }
+        if (pid >= 0)
+            sb.append(pid).append(' ');
+        if (tid >= 0)
+            sb.append(tid).append(' ');
+        String process = pid > 0 && processResolver != null ? processResolver.getName(pid) : null;
+        if (process != null)
+            sb.append(process).append(' ');
+        // Only rows of separately read buffers know their buffer
+        if (buffer != LogBuffer.DEFAULT)
+            sb.append('[').append(LogBuffer.nameOf(buffer)).append("] ");
+        sb.append(LogEntry.levelChar(level)).append(' ').append(tag).append(':');
+        if (occurrences > 1) {
+            sb.append(" (").append(occurrences).append("x, last ");
+            logTime.appendTimestamp(sb, lastTime);
+            sb.append(')');
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * Collapsed traces only show their first lines
+     */
+    private static void collapseTrace(StringBuilder sb, int messageStart, int flags) {
+        if ((flags & (LogStore.FLAG_TRACE | LogStore.FLAG_EXPANDED)) == LogStore.FLAG_TRACE) {
+            int lines = 0;
+            for (int i = messageStart; i < sb.length(); i++) {
+                if (sb.charAt(i) == '\n' && ++lines == COLLAPSED_TRACE_LINES) {
+                    int hidden = 1;
+                    for (int j = i + 1; j < sb.length(); j++) {
+                        if (sb.charAt(j) == '\n')
+                            hidden++;
+                    }
+                    sb.setLength(i);
+                    sb.append("\n\t... ").append(hidden).append(" more lines");
+                    break;
+                }
+            }
+        }
+    }
+
+    private int getTypeColor(char type) {
+        switch (type) {
+            case 'V': return verboseColor;
+            case 'D': return debugColor;
+            case 'I': return infoColor;
+            case 'W': return warnColor;
+            case 'E': return errorColor;
+            case 'F': return fatalColor;
+            default: return otherColor; // Others (e.g. "--- beginning of crash" reports)
+        }
+    }
+
+    /**
+     * Copy of a retained row, read with a single acquisition of the store's lock: the ingest thread evicts rows
+     * concurrently, so a row can disappear between two calls of the store
+     */
+    private static final class StoredRow {
+        int flags;
+        byte level;
+        long time;
+        long lastTime;
+        int pid;
+        int tid;
+        String tag;
+        int occurrences;
+        byte buffer;
+        final StringBuilder message = new StringBuilder();
+
+        /**
+         * @return Returns false if the row is not retained (anymore)
+         */
+        boolean read(LogStore store, int row) {
+            synchronized (store) {
+                if (!store.isRetained(row))
+                    return false;
+                flags = store.getFlags(row);
+                level = store.getLevel(row);
+                time = store.getTime(row);
+                lastTime = store.getLastTime(row);
+                pid = store.getPid(row);
+                tid = store.getTid(row);
+                tag = store.getTag(row);
+                occurrences = store.getOccurrences(row);
+                buffer = store.getBuffer(row);
+                message.setLength(0);
+                store.appendMessage(row, message);
+                return true;
+            }
+        }
+    }
+
+    final class EntryHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final View stroke;
+        final GradientDrawable shape;
+        final AppCompatTextView text;
+        // Layout of the bound row, skipped in the background once the holder shows another row
+        Future<PrecomputedTextCompat> layout;
+
+        EntryHolder(@NonNull View itemView) {
+            super(itemView);
+            stroke = itemView.findViewById(R.id.entryStroke);
+            text = itemView.findViewById(R.id.entryText);
+            shape = new GradientDrawable();
+            stroke.setBackground(shape);
+            itemView.setOnClickListener(this);
+            text.setOnClickListener(this);
+        }
+
+        void setLayout(Future<PrecomputedTextCompat> layout) {
+            if (this.layout != layout)
+                layouts.skip(this.layout);
+            this.layout = layout;
+            text.setTextFuture(layout);
+        }
+
+        void setStrokeMargins(int top, int bottom) {
+            ConstraintLayout.LayoutParams lp = (ConstraintLayout.LayoutParams) stroke.getLayoutParams();
+            if (lp.topMargin == top && lp.bottomMargin == bottom)
+                return;
+            lp.topMargin = top;
+            lp.bottomMargin = bottom;
+            stroke.setLayoutParams(lp);
+        }
+
+        @Override
+        public void onClick(View v) {
+            int position = getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION)
+                return;
+            int row = visibleRows.get(position);
+            boolean trace;
+            synchronized (store) {
+                if (!store.isRetained(row))
+                    return;
+                // Tapping a trace expands or collapses it
+                int flags = store.getFlags(row);
+                trace = (flags & LogStore.FLAG_TRACE) != 0;
+                if (trace)
+                    store.setFlags(row, LogStore.FLAG_EXPANDED, (flags & LogStore.FLAG_EXPANDED) == 0);
+                else
+                    store.setFlags(row, LogStore.FLAG_SELECTED, true);
+            }
+            if (trace)
+                notifyItemChanged(position);
+            else
+                itemView.setBackgroundColor(selectionColor);
+        }
+    }
+}
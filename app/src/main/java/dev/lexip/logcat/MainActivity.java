@@ -17,81 +17,156 @@
 
 package dev.lexip.logcat;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.constraintlayout.widget.ConstraintLayout;
 import androidx.constraintlayout.widget.ConstraintSet;
-import androidx.core.content.res.ResourcesCompat;
-
-import android.graphics.Typeface;
-import android.graphics.drawable.GradientDrawable;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.util.TypedValue;
 import android.view.View;
-import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
-import android.widget.ScrollView;
+import android.widget.Spinner;
 import android.widget.Switch;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.firebase.analytics.FirebaseAnalytics;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import dev.lexip.logcat.filter.FilterEngine;
+import dev.lexip.logcat.filter.FilterQuery;
+import dev.lexip.logcat.filter.FilterResult;
+import dev.lexip.logcat.ingest.SourceFilter;
+import dev.lexip.logcat.metrics.PipelineMetrics;
+import dev.lexip.logcat.parse.LogBuffer;
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogTime;
+import dev.lexip.logcat.process.ProcessResolver;
+import dev.lexip.logcat.store.IntList;
+import dev.lexip.logcat.store.LogStore;
+import dev.lexip.logcat.store.RepeatCollapser;
 
 public class MainActivity extends AppCompatActivity {
 
+    // Wait for a typing pause before filtering
+    private static final long FILTER_DEBOUNCE_MILLIS = 250;
+    private static final long METRICS_SAMPLE_MILLIS = 1000;
+    // Rows that piled up while the activity was in the background are filtered in the background above this count
+    private static final int CATCH_UP_ROWS = 20_000;
+    // Buffers that get read separately, logcat's default ones
+    private static final String[] SPLIT_BUFFERS = {"main", "system", "crash", "events", "radio"};
+
     private FirebaseAnalytics mFirebaseAnalytics;
-    private ArrayList<String> rawlog;
-    private ArrayList<Object[]> log;
-    private String filterString;
-    private ArrayList<ConstraintLayout> verboseEntries;
-    private ArrayList<ConstraintLayout> debugEntries;
-    private ArrayList<ConstraintLayout> infoEntries;
-    private ArrayList<ConstraintLayout> warnEntries;
-    private ArrayList<ConstraintLayout> errorEntries;
-    private ArrayList<ConstraintLayout> fatalEntries;
-    private ArrayList<ConstraintLayout> otherEntries;
+    // Service that captures the logs, null until it is connected
+    private CaptureService capture;
+    private boolean started;
+    private LogStore logStore;
+    private FrameRenderer frameRenderer;
+    // Rows that changed in place since the last frame (e.g. a repeated crash)
+    private final IntList updatedRows = new IntList();
+    private FilterEngine filterEngine;
+    // Rendering waits for a filter result that covers the rows that arrived in the background
+    private boolean catchingUp;
+    private ProcessResolver processResolver;
+    private PipelineMetrics metrics;
+    private final PerformanceTraces performanceTraces = new PerformanceTraces();
+    private final Handler metricsHandler = new Handler(Looper.getMainLooper());
+    private TextView metricsOverlay;
+    private LogAdapter logAdapter;
+    private RecyclerView logList;
     private boolean autoscroll;
     private FloatingActionButton floatingAutoscrollBtn;
-    private LinearLayout ll;
+    private TimelineView timeline;
+    // Newest second the timeline shows
+    private long timelineSecond = -1;
+    // Time to jump to once the pending filter result is shown, -1 if none
+    private long pendingJumpMillis = -1;
+    private final LogTime logTime = new LogTime(TimeZone.getDefault());
+
+    private final ServiceConnection captureConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            onCaptureConnected(((CaptureService.LocalBinder) service).getService());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            if (started)
+                stopRendering();
+            capture = null;
+        }
+    };
+
+    private final CaptureService.Consumer captureConsumer = new CaptureService.Consumer() {
+        @Override
+        public void onRowsChanged() {
+            frameRenderer.invalidate();
+        }
+
+        @Override
+        public void onProcessesChanged() {
+            logAdapter.notifyItemRangeChanged(0, logAdapter.getItemCount());
+            // New processes of the filtered app have to be picked up
+            FilterQuery query = readFilterQuery();
+            if (query.hasPids())
+                filterEngine.submit(query);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        log = new ArrayList<Object[]>();
-        verboseEntries = new ArrayList<ConstraintLayout>();
-        debugEntries = new ArrayList<ConstraintLayout>();
-        infoEntries = new ArrayList<ConstraintLayout>();
-        warnEntries = new ArrayList<ConstraintLayout>();
-        errorEntries = new ArrayList<ConstraintLayout>();
-        fatalEntries = new ArrayList<ConstraintLayout>();
-        otherEntries = new ArrayList<ConstraintLayout>();
-        filterString = "";
-
         // Obtain the FirebaseAnalytics instance.
         mFirebaseAnalytics = FirebaseAnalytics.getInstance(this);
 
+        metricsOverlay = findViewById(R.id.metricsOverlay);
+        metricsOverlay.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                dumpMetrics();
+            }
+        });
+
+        // Initialize the log list, its adapter is set once the capture service is connected
+        logList = findViewById(R.id.logList);
+        logList.setLayoutManager(new LinearLayoutManager(this));
+        // Rows are only appended or rebound, animating them would just waste frames
+        logList.setItemAnimator(null);
+
         // Initialize autoscroll
         autoscroll = true;
-        ScrollView sv = findViewById(R.id.scrollView);
-        sv.setOnScrollChangeListener(new View.OnScrollChangeListener() {
+        logList.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onScrollChange(View v, int scrollX, int scrollY, int oldScrollX, int oldScrollY) {
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
 
-                // Enable autoscroll when the scrollview is at the very bottom and show the floating activation button otherwise
-                if ((((View) sv.getChildAt(sv.getChildCount() - 1)).getBottom() - (sv.getHeight() + sv.getScrollY())) < 300) {
+                // Enable autoscroll when the list is at the very bottom and show the floating activation button otherwise
+                if (!recyclerView.canScrollVertically(1)) {
                     autoscroll = true;
                     findViewById(R.id.floatingLayout).setVisibility(View.GONE);
                 }
@@ -99,66 +174,65 @@ public class MainActivity extends AppCompatActivity {
                     findViewById(R.id.floatingLayout).setVisibility(View.VISIBLE);
 
                 // Disable autoscroll as soon as the user scrolls up
-                if(oldScrollY>scrollY) {
+                if(dy<0) {
                     autoscroll= false;
+
+                    // Page in recorded rows that no longer fit into memory when reaching the top
+                    if (!recyclerView.canScrollVertically(-1) && logAdapter != null)
+                        logAdapter.pageInOlder(filterEngine);
                 }
             }
         });
 
-        // Start a separate thread that continuously reads the "logcat"
-        new Thread() {
-            public void run() {
-                try {
-                    rawlog = new ArrayList<String>();
-                    Process process = Runtime.getRuntime().exec("logcat");
-                    BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    while (true) {
-                        String line = br.readLine();
-                        if (line == null) {
-                            Thread.sleep(500);
-                        } else
-                            rawlog.add(line);
-                    }
-                }
-                catch (IOException|InterruptedException e) {
-                    Log.e(this.getName(),"IOExeption while reading logcat");
-                    e.printStackTrace();
-                }
+        // Render the rows the capture service stored at most once per frame
+        frameRenderer = new FrameRenderer(new FrameRenderer.Consumer() {
+            @Override
+            public void onFrame(long frameTimeNanos) {
+                metrics.onFrame(frameTimeNanos);
             }
-        }.start();
 
-        // Start a separate thread that processes all the logcat reports read by the previous thread with a slight cooldown
-        new Thread() {
-            public void run() {
-                while (true) {
-                    try { Thread.sleep(11); }
-                    catch (InterruptedException ignored) {}
-                    MainActivity.this.runOnUiThread(new Runnable() {
-                        public void run() {
-                            if(!rawlog.isEmpty()) {
-                                String line = rawlog.get(0);
-                                addEntry(getEntryCategory(line), polishContent(line));
-                                rawlog.remove(0);
-                            }
-                            else if(autoscroll)
-                                ((ScrollView)findViewById(R.id.scrollView)).fullScroll(View.FOCUS_DOWN);
-                        }
-                    });
-                }
+            @Override
+            public void onRender() {
+                showNewRows();
+            }
+
+            @Override
+            public void onIdle() {
+                // The time until the next change is not a dropped frame
+                metrics.onFramesStopped();
+            }
+        });
+
+        // Show or hide the metrics overlay when long-pressing the title, tapping the overlay writes the metrics to a file
+        findViewById(R.id.tvTitle).setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                metricsOverlay.setVisibility(metricsOverlay.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE);
+                updateMetricsOverlay();
+                return true;
             }
-        }.start();
+        });
 
         // Initialize floating button for autoscroll
         floatingAutoscrollBtn = findViewById(R.id.floatingAutoscrollBtn);
         floatingAutoscrollBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                ((ScrollView)findViewById(R.id.scrollView)).fullScroll(View.FOCUS_DOWN);
+                scrollToBottom();
                 autoscroll = true;
                 findViewById(R.id.floatingLayout).setVisibility(View.GONE);
             }
         });
 
+        // Tapping the timeline jumps to that second
+        timeline = findViewById(R.id.timeline);
+        timeline.setListener(new TimelineView.Listener() {
+            @Override
+            public void onTimeTapped(long timeMillis) {
+                jumpTo(timeMillis);
+            }
+        });
+
         // Initialize filter stuff
         ((ImageView) findViewById(R.id.filterIcon)).setOnClickListener(new View.OnClickListener() {
             @Override
@@ -184,7 +258,8 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                applyFilter();
+                if (filterEngine != null)
+                    filterEngine.submit(readFilterQuery());
             }
 
             @Override
@@ -192,293 +267,368 @@ public class MainActivity extends AppCompatActivity {
 
             }
         });
+
+        // Capturing runs in a service that outlives this activity (e.g. when rotating or in the background)
+        Intent intent = new Intent(this, CaptureService.class);
+        ContextCompat.startForegroundService(this, intent);
+        bindService(intent, captureConnection, Context.BIND_AUTO_CREATE);
     }
 
     /**
-     * Applies the filters in separate thread
+     * Shows what the capture service stored so far and renders its changes from now on
      */
-    private void applyFilter(){
-        new Thread() {
-            public void run() {
-                MainActivity.this.runOnUiThread(new Runnable() {
-                    public void run() {
-                        // Process Checkboxes
-                        if (((CheckBox) findViewById(R.id.verboseCheck)).isChecked())
-                            setTypeVisibility('V', View.VISIBLE);
-                        else
-                            setTypeVisibility('V', View.GONE);
-
-                        if (((CheckBox) findViewById(R.id.debugCheck)).isChecked())
-                            setTypeVisibility('D', View.VISIBLE);
-                        else
-                            setTypeVisibility('D', View.GONE);
-
-                        if (((CheckBox) findViewById(R.id.infoCheck)).isChecked())
-                            setTypeVisibility('I', View.VISIBLE);
-                        else
-                            setTypeVisibility('I', View.GONE);
-
-                        if (((CheckBox) findViewById(R.id.warnCheck)).isChecked())
-                            setTypeVisibility('W', View.VISIBLE);
-                        else
-                            setTypeVisibility('W', View.GONE);
-
-                        if (((CheckBox) findViewById(R.id.errorCheck)).isChecked())
-                            setTypeVisibility('E', View.VISIBLE);
-                        else
-                            setTypeVisibility('E', View.GONE);
-
-                        if (((CheckBox) findViewById(R.id.fatalCheck)).isChecked())
-                            setTypeVisibility('F', View.VISIBLE);
-                        else
-                            setTypeVisibility('F', View.GONE);
-                        findViewById(R.id.filterLayout).setVisibility(View.GONE);
-
-                        filterString = ((EditText)findViewById(R.id.searchBar)).getText().toString();
-                        // Show/Hide the search bar
-                        ConstraintSet cs = new ConstraintSet();
-                        cs.clone((ConstraintLayout)findViewById(R.id.constraintLayout));
-                        if(((Switch)findViewById(R.id.searchbarSwitch)).isChecked()) {
-                            findViewById(R.id.searchBar).setVisibility(View.VISIBLE);
-                            cs.connect(R.id.scrollView,ConstraintSet.TOP,ConstraintSet.PARENT_ID,ConstraintSet.TOP,dpToPixel(82));
-                        } else {
-                            findViewById(R.id.searchBar).setVisibility(View.GONE);
-                            cs.connect(R.id.scrollView,ConstraintSet.TOP,ConstraintSet.PARENT_ID,ConstraintSet.TOP,dpToPixel(48));
-                            filterString = "";
-                        }
-                        cs.applyTo((ConstraintLayout)findViewById(R.id.constraintLayout));
-
-                        if(filterString.isEmpty())
-                            return;
-
-                        // Process search input
-                        for(int i=0; i<log.size();i++){
-                            if(log.get(i)[1].toString().replaceAll(" ","").contains(filterString))
-                                ((ConstraintLayout)log.get(i)[0]).setVisibility(View.VISIBLE);
-                            else
-                                ((ConstraintLayout)log.get(i)[0]).setVisibility(View.GONE);
-                        }
-                    }
-                });
+    private void onCaptureConnected(CaptureService service) {
+        capture = service;
+        logStore = capture.getStore();
+        metrics = capture.getMetrics();
+        processResolver = capture.getProcessResolver();
+        ((Spinner)findViewById(R.id.overloadSpinner)).setSelection(capture.getOverloadMode());
+
+        logAdapter = new LogAdapter(this, logStore);
+        logAdapter.setProcessResolver(processResolver);
+        logAdapter.setSessionReader(capture.getSessionReader());
+        logList.setAdapter(logAdapter);
+
+        // Evaluate filters in the background and publish each result to the list in one step
+        filterEngine = new FilterEngine(logStore, capture.getLevelIndex(), capture.getSearchIndex(), capture.getTimeIndex(), ContextCompat.getMainExecutor(this), new FilterEngine.Callback() {
+            @Override
+            public void onFilterResult(FilterResult result) {
+                metrics.onFiltered(result.getElapsedNanos());
+                catchingUp = false;
+                logAdapter.showResult(result);
+                onScreenShown();
+                if (pendingJumpMillis >= 0) {
+                    jumpTo(pendingJumpMillis);
+                    pendingJumpMillis = -1;
+                }
+                else if(autoscroll)
+                    scrollToBottom();
             }
-        }.start();
+        }, FILTER_DEBOUNCE_MILLIS);
+        // A store that filled up before (e.g. prior to a rotation) is filtered in the background
+        if (logStore.size() > CATCH_UP_ROWS) {
+            catchingUp = true;
+            filterEngine.submitNow(readFilterQuery());
+        }
+        else
+            logAdapter.setQuery(readFilterQuery());
+
+        if (started)
+            startRendering();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        started = true;
+        if (capture != null)
+            startRendering();
+    }
+
+    @Override
+    protected void onStop() {
+        started = false;
+        if (capture != null) {
+            stopRendering();
+            capture.flushSession();
+        }
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (capture != null) {
+            filterEngine.shutdown();
+            logAdapter.release();
+            capture = null;
+        }
+        unbindService(captureConnection);
+        // Leaving for good ends the capture, a recreation (e.g. rotation) keeps it going
+        if (isFinishing())
+            stopService(new Intent(this, CaptureService.class));
+        super.onDestroy();
     }
 
     /**
-     * Cleans up a logcat string by replacing annoying spaces and linebreaks
-     * @param input String of one or more logcat report(s)
-     * @return Returns the same but polished Logcat String
+     * Attaches to the capture service and catches up with the rows it stored in the meantime
      */
-    private String polishContent(String input){
-        input = input.replace(": ",": \n");
-        if(input.contains(": \n\tat"))
-            input = input.replace(": \tat ",": at\n");
-        while(input.contains("  "))
-            input = input.replace("  "," ");
-        input = input.replace(" :",":");
-        input = input.replace("\n\t","\n");
-
-        return input;
+    private void startRendering() {
+        capture.attach(captureConsumer);
+        frameRenderer.start();
+        metricsHandler.postDelayed(metricsSampler, METRICS_SAMPLE_MILLIS);
+
+        // Checking a large backlog row by row would block the UI thread, the filter engine does it in the background
+        updatedRows.clear();
+        capture.drainUpdatedRows(updatedRows);
+        updatedRows.clear();
+        if (!catchingUp && logStore.getEndRow() - logAdapter.getSyncedRow() > CATCH_UP_ROWS) {
+            catchingUp = true;
+            filterEngine.submitNow(readFilterQuery());
+        }
+        else
+            frameRenderer.invalidate();
     }
 
     /**
-     * Specifies the category of a string that contains one logcat report
-     * @param input Logcat String
-     * @return Returns the category of the logcat report like "Debug", "Error", etc.
+     * Stops rendering while the activity is not visible, the capture service keeps storing rows
      */
-    private char getEntryCategory(String input) {
-        // Filter out special entries like "--- beginning of main" etc.
-        if (input.startsWith("-"))
-            return 'X';
-
-        input = input.substring(31);
-        if(!input.isEmpty())
-            return input.charAt(0);
-        return 'X';
+    private void stopRendering() {
+        capture.detach(captureConsumer);
+        frameRenderer.stop();
+        metricsHandler.removeCallbacks(metricsSampler);
+        metrics.onFramesStopped();
+        performanceTraces.finish(metrics);
     }
 
     /**
-     * Adds a passed logcat report to the UI by generating and adding all required components
-     * @param type Category of the report (like "Debug" or "Error")
-     * @param content One logcat string/report
+     * Shows rows that got appended or changed since the last frame
      */
-    private void addEntry(char type, String content) {
-        LinearLayout ll = (LinearLayout) findViewById(R.id.linearLayout);
-
-        // Create ConstraintLayout
-        ConstraintLayout cl = new ConstraintLayout(this);
-        cl.setLayoutParams(new ConstraintLayout.LayoutParams(ConstraintLayout.LayoutParams.MATCH_PARENT, ConstraintLayout.LayoutParams.WRAP_CONTENT));
-        cl.setId(ConstraintLayout.generateViewId());
-        cl.setClickable(true);
-        cl.setDefaultFocusHighlightEnabled(true);
-        cl.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                cl.setBackgroundColor(ResourcesCompat.getColor(getResources(),R.color.selection,getTheme()));
-            }
-        });
+    private void showNewRows() {
+        capture.drainUpdatedRows(updatedRows);
+        // The pending filter result covers these rows
+        if (catchingUp) {
+            updatedRows.clear();
+            return;
+        }
+        int added = logAdapter.refresh();
+        metrics.onRendered(added);
+        if (logStore.size() > 0) {
+            metrics.onDisplayed(logStore.getTime(logStore.getEndRow() - 1), System.currentTimeMillis());
+            onScreenShown();
+        }
+        for (int i = 0; i < updatedRows.size(); i++)
+            logAdapter.notifyRowChanged(updatedRows.get(i));
+        updatedRows.clear();
+
+        // The timeline changes once per second at most
+        long lastSecond = capture.getTimeIndex().getLastSecond();
+        if (lastSecond != timelineSecond) {
+            timelineSecond = lastSecond;
+            timeline.update(capture.getTimeIndex());
+        }
+
+        // Stick to the bottom once per frame
+        if(autoscroll) {
+            logAdapter.prefetchNewest(added);
+            scrollToBottom();
+        }
+    }
 
-        // Highlight special entries starting with "-" (e.g. "------- beginning of crash")
-        if(content.startsWith("-"))
-            cl.setBackgroundColor(ResourcesCompat.getColor(getResources(),R.color.selection,getTheme()));
+    /**
+     * Records the time from the service start to the first rows on screen
+     */
+    private void onScreenShown() {
+        if (!metrics.hasFirstScreen() && logAdapter.getItemCount() > 0)
+            metrics.onFirstScreen(System.nanoTime() - capture.getStartNanos());
+    }
 
-        // Generate "Stroke"
-        View stroke = new View(this);
-        GradientDrawable shape =  new GradientDrawable();
+    private final Runnable metricsSampler = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            capture.sampleMetrics(now);
+            performanceTraces.onSample(metrics, now);
+            updateMetricsOverlay();
+            metricsHandler.postDelayed(this, METRICS_SAMPLE_MILLIS);
+        }
+    };
+
+    private void updateMetricsOverlay() {
+        if (metrics == null || metricsOverlay.getVisibility() != View.VISIBLE)
+            return;
+        StringBuilder sb = new StringBuilder(512);
+        metrics.appendReport(sb);
+        sb.setLength(sb.length() - 1);
+        metricsOverlay.setText(sb);
+    }
 
-            // Visually connect related entries by only rounding the corners at the very start and the very end of the report group (e.g. "*Exception.. ..at.. ..at.. ..at..") and removing redundant parts of the following reports
+    /**
+     * Writes the current metrics to a file in the app's external files directory
+     */
+    private void dumpMetrics() {
+        if (metrics == null)
+            return;
+        File dir = getExternalFilesDir(null);
+        File file = new File(dir != null ? dir : getFilesDir(), "metrics-" + System.currentTimeMillis() + ".txt");
+        StringBuilder sb = new StringBuilder(512);
+        metrics.appendReport(sb);
+        try {
+            Writer writer = new FileWriter(file);
             try {
-                if (content.contains("Exception") && rawlog.get(1).contains("\tat")) {
-                    shape.setCornerRadii(new float[]{100, 100, 100, 100, 0, 0, 0, 0});
-                }
-                else if (content.contains(": \nat") && !rawlog.get(1).contains("\tat")) {
-                    shape.setCornerRadii(new float[]{0, 0, 0, 0, 100, 100, 100, 100});
-                    content = content.substring(content.indexOf("at"));
-                }
-                else if (content.contains(": \nat"))
-                    content = content.substring(content.indexOf("at"));
-
-                else if (!content.contains(": \nat"))
-                    shape.setCornerRadii(new float[]{100, 100, 100, 100, 100, 100, 100, 100});
-            } catch(IndexOutOfBoundsException e){
-                if(content.contains(": \nat")) {
-                    shape.setCornerRadii(new float[]{0, 0, 0, 0, 100, 100, 100, 100});
-                    content = content.substring(content.indexOf("at"));
-                }
-                else
-                    shape.setCornerRadii(new float[]{100, 100, 100, 100, 100, 100, 100, 100});
+                writer.write(sb.toString());
             }
-
-        stroke.setBackground(shape);
-        stroke.setId(View.generateViewId());
-        stroke.setLayoutParams(new ViewGroup.MarginLayoutParams(dpToPixel(8), 0));
-        cl.addView(stroke);
-        switch (type) {  // Set the type-based stroke color, maintain the the corresponding arraylist and apply the filters
-            case 'V': // Verbose
-                shape.setColor(ResourcesCompat.getColor(getResources(), R.color.verbose, getTheme()));
-                verboseEntries.add(cl);
-                if(!((CheckBox)findViewById(R.id.verboseCheck)).isChecked())
-                    cl.setVisibility(View.GONE);
-                break;
-            case 'D': // Debug
-                shape.setColor(ResourcesCompat.getColor(getResources(), R.color.debug, getTheme()));
-                debugEntries.add(cl);
-                if(!((CheckBox)findViewById(R.id.debugCheck)).isChecked())
-                    cl.setVisibility(View.GONE);
-                break;
-            case 'I': // Info
-                shape.setColor(ResourcesCompat.getColor(getResources(), R.color.info, getTheme()));
-                infoEntries.add(cl);
-                if(!((CheckBox)findViewById(R.id.infoCheck)).isChecked())
-                    cl.setVisibility(View.GONE);
-                break;
-            case 'W': // Warning
-                shape.setColor(ResourcesCompat.getColor(getResources(), R.color.warning, getTheme()));
-                warnEntries.add(cl);
-                if(!((CheckBox)findViewById(R.id.warnCheck)).isChecked())
-                    cl.setVisibility(View.GONE);
-                break;
-            case 'E': // Error
-                shape.setColor(ResourcesCompat.getColor(getResources(), R.color.error, getTheme()));
-                errorEntries.add(cl);
-                if(!((CheckBox)findViewById(R.id.errorCheck)).isChecked())
-                    cl.setVisibility(View.GONE);
-                break;
-            case 'F': // Fatal
-                shape.setColor(ResourcesCompat.getColor(getResources(), R.color.fatal, getTheme()));
-                fatalEntries.add(cl);
-                if(!((CheckBox)findViewById(R.id.fatalCheck)).isChecked())
-                    cl.setVisibility(View.GONE);
-                break;
-            default: // Others (e.g. "--- beginning of crash" reports)
-                shape.setColor(ResourcesCompat.getColor(getResources(), R.color.fg, getTheme()));
-                otherEntries.add(cl);
-                break;
-        }
-        // Do not show new entries that do not match the filter string
-        if(!filterString.isEmpty() && !content.contains(filterString))
-            cl.setVisibility(View.GONE);
-
-        // Generate TextView
-        TextView tv = new TextView(this);
-        tv.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
-        tv.setId(TextView.generateViewId());
-        Typeface tf = ResourcesCompat.getFont(this, R.font.robotomono_regular);
-        tv.setTextSize(12);
-        tv.setTypeface(tf);
-        tv.setText(content);
-        tv.setLongClickable(true);
-        tv.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                cl.setBackgroundColor(ResourcesCompat.getColor(getResources(),R.color.selection,getTheme()));
+            finally {
+                writer.close();
             }
-        });
-        cl.addView(tv);
+            Toast.makeText(this, getString(R.string.metrics_dumped, file.getPath()), Toast.LENGTH_SHORT).show();
+        }
+        catch (IOException e) {
+            Log.e("Metrics", "Cannot write " + file, e);
+            Toast.makeText(this, R.string.metrics_dump_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Scrolls to the first shown row logged at or after the passed time and stops following new rows
+     */
+    private void jumpTo(long timeMillis) {
+        if (capture == null || logAdapter.getItemCount() == 0)
+            return;
+        int position = logAdapter.getPosition(capture.getTimeIndex().findRow(timeMillis));
+        autoscroll = false;
+        findViewById(R.id.floatingLayout).setVisibility(View.VISIBLE);
+        ((LinearLayoutManager) logList.getLayoutManager()).scrollToPositionWithOffset(Math.min(position, logAdapter.getItemCount() - 1), 0);
+    }
+
+    private void scrollToBottom() {
+        if (logAdapter.getItemCount() > 0)
+            logList.scrollToPosition(logAdapter.getItemCount() - 1);
+    }
+
+    /**
+     * Applies the filter settings, the matching rows are computed by the filter engine
+     */
+    private void applyFilter(){
+        findViewById(R.id.filterLayout).setVisibility(View.GONE);
 
-        // Set constraint connections
+        // Show/Hide the search bar
         ConstraintSet cs = new ConstraintSet();
-        cs.clone(cl);
-        cs.connect(stroke.getId(),ConstraintSet.LEFT,ConstraintSet.PARENT_ID,ConstraintSet.LEFT,dpToPixel(5));
-        cs.connect(stroke.getId(),ConstraintSet.TOP,ConstraintSet.PARENT_ID,ConstraintSet.TOP,dpToPixel(3));
-        cs.connect(stroke.getId(),ConstraintSet.BOTTOM,ConstraintSet.PARENT_ID,ConstraintSet.BOTTOM,dpToPixel(3));
-        cs.connect(tv.getId(),ConstraintSet.RIGHT,stroke.getId(),ConstraintSet.RIGHT,dpToPixel(5));
-        cs.connect(tv.getId(),ConstraintSet.LEFT,stroke.getId(),ConstraintSet.LEFT,dpToPixel(20));
-        cs.connect(tv.getId(),ConstraintSet.TOP,ConstraintSet.PARENT_ID,ConstraintSet.TOP,dpToPixel(5));
-        cs.connect(tv.getId(),ConstraintSet.BOTTOM,ConstraintSet.PARENT_ID,ConstraintSet.BOTTOM,dpToPixel(5));
+        cs.clone((ConstraintLayout)findViewById(R.id.constraintLayout));
+        if(((Switch)findViewById(R.id.searchbarSwitch)).isChecked()) {
+            findViewById(R.id.searchBar).setVisibility(View.VISIBLE);
+            cs.connect(R.id.logList,ConstraintSet.TOP,ConstraintSet.PARENT_ID,ConstraintSet.TOP,dpToPixel(102));
+        } else {
+            findViewById(R.id.searchBar).setVisibility(View.GONE);
+            cs.connect(R.id.logList,ConstraintSet.TOP,ConstraintSet.PARENT_ID,ConstraintSet.TOP,dpToPixel(68));
+        }
+        cs.applyTo((ConstraintLayout)findViewById(R.id.constraintLayout));
+
+        if (capture == null)
+            return;
+        capture.setOverloadMode(((Spinner)findViewById(R.id.overloadSpinner)).getSelectedItemPosition());
+        capture.setCollapseWindow(((Switch)findViewById(R.id.collapseSwitch)).isChecked() ? RepeatCollapser.WINDOW_DEFAULT : 0);
+        capture.setSourceFilter(readSourceFilter());
+        applySession();
+        // A single time is jumped to once the rows of the new filter are shown
+        String time = ((EditText)findViewById(R.id.timeFilter)).getText().toString();
+        pendingJumpMillis = time.indexOf('-') < 0 ? logTime.parseTimeOfDay(time, getNewestTime()) : -1;
+        filterEngine.submitNow(readFilterQuery());
+    }
 
-        try {
-            if (content.contains("Exception") && rawlog.get(1).contains("\tat"))
-                cs.connect(stroke.getId(), ConstraintSet.BOTTOM, ConstraintSet.PARENT_ID, ConstraintSet.BOTTOM, 0);
-            else if(content.startsWith("at") && rawlog.get(1).contains("\tat")) {
-                cs.connect(stroke.getId(), ConstraintSet.TOP, ConstraintSet.PARENT_ID, ConstraintSet.TOP, 0);
-                cs.connect(stroke.getId(), ConstraintSet.BOTTOM, ConstraintSet.PARENT_ID, ConstraintSet.BOTTOM, 0);
+    /**
+     * Starts or stops recording the session to storage
+     */
+    private void applySession(){
+        final boolean wanted = ((Switch)findViewById(R.id.sessionSwitch)).isChecked();
+        if (wanted == (capture.getSessionReader() != null))
+            return;
+        if (!wanted)
+            logAdapter.setSessionReader(null);
+        capture.setRecording(wanted, new Runnable() {
+            @Override
+            public void run() {
+                if (capture == null)
+                    return;
+                logAdapter.setSessionReader(capture.getSessionReader());
+                if (wanted && capture.getSessionReader() == null)
+                    ((Switch)findViewById(R.id.sessionSwitch)).setChecked(false);
             }
-            else if(content.startsWith("at"))
-                cs.connect(stroke.getId(), ConstraintSet.TOP, ConstraintSet.PARENT_ID, ConstraintSet.TOP, 0);
-        } catch(IndexOutOfBoundsException ignored) {
-            if(content.startsWith("at"))
-                cs.connect(stroke.getId(), ConstraintSet.TOP, ConstraintSet.PARENT_ID, ConstraintSet.TOP, 0);
-        }
+        });
+    }
 
-        cs.applyTo(cl);
-        ll.addView(cl);
+    /**
+     * @return Returns the part of the filter settings that logcat can apply itself
+     */
+    private SourceFilter readSourceFilter(){
+        // Each buffer gets a logcat process of its own, the lines are merged by time
+        String[] buffers = ((Switch)findViewById(R.id.splitBuffersSwitch)).isChecked() ? SPLIT_BUFFERS : null;
+        if (!((Switch)findViewById(R.id.sourceFilterSwitch)).isChecked())
+            return buffers != null ? new SourceFilter(LogEntry.LEVEL_VERBOSE, -1, buffers) : SourceFilter.NONE;
+        // Logcat can only be limited to a single process. The search text stays in the app, "-e" does not match tags
+        int[] pids = readAppPids();
+        int pid = pids != null && pids.length == 1 ? pids[0] : -1;
+        return new SourceFilter(SourceFilter.minLevelOf(readFilterQuery().getLevelMask()), pid, buffers);
+    }
 
-        log.add(new Object[]{cl,content});
+    /**
+     * Reads the filter settings from the checkboxes and the search bar
+     * @return Query describing the settings
+     */
+    private FilterQuery readFilterQuery(){
+        int levelMask = 0;
+        if (((CheckBox) findViewById(R.id.verboseCheck)).isChecked())
+            levelMask |= FilterQuery.levelBit(LogEntry.LEVEL_VERBOSE);
+        if (((CheckBox) findViewById(R.id.debugCheck)).isChecked())
+            levelMask |= FilterQuery.levelBit(LogEntry.LEVEL_DEBUG);
+        if (((CheckBox) findViewById(R.id.infoCheck)).isChecked())
+            levelMask |= FilterQuery.levelBit(LogEntry.LEVEL_INFO);
+        if (((CheckBox) findViewById(R.id.warnCheck)).isChecked())
+            levelMask |= FilterQuery.levelBit(LogEntry.LEVEL_WARN);
+        if (((CheckBox) findViewById(R.id.errorCheck)).isChecked())
+            levelMask |= FilterQuery.levelBit(LogEntry.LEVEL_ERROR);
+        if (((CheckBox) findViewById(R.id.fatalCheck)).isChecked())
+            levelMask |= FilterQuery.levelBit(LogEntry.LEVEL_FATAL);
+
+        String filterString = "";
+        if(((Switch)findViewById(R.id.searchbarSwitch)).isChecked())
+            filterString = ((EditText)findViewById(R.id.searchBar)).getText().toString();
+        long[] range = readTimeRange();
+        return new FilterQuery(levelMask, filterString, readAppPids(), range[0], range[1], readBufferMask());
+    }
 
-        // Scroll to the (new) bottom if enabled
-        if(autoscroll)
-            ((ScrollView)findViewById(R.id.scrollView)).fullScroll(View.FOCUS_DOWN);
+    /**
+     * @return Returns the mask of the buffers listed like "crash,system", all buffers if none is listed
+     */
+    private int readBufferMask(){
+        int mask = 0;
+        for (String name : ((EditText)findViewById(R.id.bufferFilter)).getText().toString().split("[,\\s]+")) {
+            byte buffer = LogBuffer.of(name.trim().toLowerCase(Locale.ROOT));
+            if (buffer != LogBuffer.DEFAULT)
+                mask |= LogBuffer.bit(buffer);
+        }
+        return mask != 0 ? mask : LogBuffer.ALL;
     }
 
-    private void setTypeVisibility(char type, int visibility){
-        ArrayList targetArrayList;
-        switch (type) {
-            case 'V': // Verbose
-                targetArrayList = verboseEntries;
-                break;
-            case 'D': // Debug
-                targetArrayList = debugEntries;
-                break;
-            case 'I': // Info
-                targetArrayList = infoEntries;
-                break;
-            case 'W': // Warning
-                targetArrayList = warnEntries;
-                break;
-            case 'E': // Error
-                targetArrayList = errorEntries;
-                break;
-            case 'F': // Fatal
-                targetArrayList = fatalEntries;
-                break;
-            default: // Others (e.g. "--- beginning of crash" reports)
-                targetArrayList = otherEntries;
-                break;
+    /**
+     * @return Returns the bounds of a time range like "14:03-14:05" or "14:03-", unbounded if there is none
+     */
+    private long[] readTimeRange(){
+        long[] range = {Long.MIN_VALUE, Long.MAX_VALUE};
+        String time = ((EditText)findViewById(R.id.timeFilter)).getText().toString();
+        int dash = time.indexOf('-');
+        if (dash < 0)
+            return range;
+        long newest = getNewestTime();
+        long from = logTime.parseTimeOfDay(time.substring(0, dash), newest);
+        String end = time.substring(dash + 1).trim();
+        long to = end.isEmpty() ? Long.MAX_VALUE : logTime.parseTimeOfDay(end, newest);
+        if (from >= 0 && to >= 0) {
+            range[0] = from;
+            // The end is inclusive, "14:05" still includes the lines of that minute
+            if (to != Long.MAX_VALUE)
+                to += end.indexOf('.') >= 0 ? 1 : end.indexOf(':') == end.lastIndexOf(':') ? 60_000 : 1000;
+            range[1] = to;
         }
+        return range;
+    }
 
-        for (int i=0; i<targetArrayList.size();i++)
-            ((ConstraintLayout)targetArrayList.get(i)).setVisibility(visibility);
+    /**
+     * @return Returns the time of the newest stored line, or the current time if there is none
+     */
+    private long getNewestTime(){
+        if (logStore != null && logStore.size() > 0 && logStore.getTime(logStore.getEndRow() - 1) != 0)
+            return logStore.getTime(logStore.getEndRow() - 1);
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return Returns the pids of the processes matching the app filter or null if it is empty
+     */
+    private int[] readAppPids(){
+        String app = ((EditText)findViewById(R.id.appFilter)).getText().toString().trim();
+        if (app.isEmpty())
+            return null;
+        return processResolver != null ? processResolver.findPids(app) : new int[0];
     }
 
     /**
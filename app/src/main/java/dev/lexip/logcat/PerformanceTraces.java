@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat;
+
+import com.google.firebase.perf.FirebasePerformance;
+import com.google.firebase.perf.metrics.Trace;
+
+import dev.lexip.logcat.metrics.PipelineMetrics;
+
+/**
+ * Reports the pipeline metrics as "logcat_pipeline" custom traces of Firebase Performance, one per minute
+ * of capturing. Counters are the increase within the trace, latencies are percentiles since the app started.
+ * Nothing is recorded while performance collection is disabled.
+ */
+final class PerformanceTraces {
+
+    private static final String TRACE_NAME = "logcat_pipeline";
+    private static final long WINDOW_NANOS = 60_000_000_000L;
+
+    private Trace trace;
+    private long windowStartNanos;
+    private long linesRead;
+    private long linesProcessed;
+    private long rowsRendered;
+    private long droppedLines;
+    private long droppedFrames;
+
+    /**
+     * Starts, completes or continues the current trace, called with every metrics sample
+     */
+    void onSample(PipelineMetrics metrics, long nowNanos) {
+        if (!FirebasePerformance.getInstance().isPerformanceCollectionEnabled()) {
+            trace = null;
+            return;
+        }
+        if (trace != null && nowNanos - windowStartNanos < WINDOW_NANOS)
+            return;
+        finish(metrics);
+        trace = FirebasePerformance.getInstance().newTrace(TRACE_NAME);
+        trace.start();
+        windowStartNanos = nowNanos;
+        linesRead = metrics.getLinesRead();
+        linesProcessed = metrics.getLinesProcessed();
+        rowsRendered = metrics.getRowsRendered();
+        droppedLines = metrics.getDroppedLines();
+        droppedFrames = metrics.getDroppedFrames();
+    }
+
+    /**
+     * Completes the current trace, e.g. when capturing pauses
+     */
+    void finish(PipelineMetrics metrics) {
+        if (trace == null)
+            return;
+        trace.putMetric("lines_read", metrics.getLinesRead() - linesRead);
+        trace.putMetric("lines_processed", metrics.getLinesProcessed() - linesProcessed);
+        trace.putMetric("rows_rendered", metrics.getRowsRendered() - rowsRendered);
+        trace.putMetric("lines_dropped", metrics.getDroppedLines() - droppedLines);
+        trace.putMetric("frames_dropped", metrics.getDroppedFrames() - droppedFrames);
+        trace.putMetric("queue_max", metrics.getMaxQueueDepth());
+        trace.putMetric("lag_p95_ms", metrics.getEndToEndLag().getPercentileNanos(95) / 1_000_000L);
+        trace.putMetric("parse_p95_ns", metrics.getParseLatency().getPercentileNanos(95));
+        trace.putMetric("filter_p95_ms", metrics.getFilterLatency().getPercentileNanos(95) / 1_000_000L);
+        trace.stop();
+        trace = null;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat;
+
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.BackgroundColorSpan;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the texts of rows on a background thread, including the spans that highlight the search string.
+ * A layout is kept until the text of its row or the highlighted string changes, so rebinding a row that scrolls
+ * back in is just an assignment. The newest requests are measured first, and layouts nobody waits for anymore
+ * (e.g. of rows flung past) are skipped. A view never waits behind the queue: if its layout has not been started
+ * when it gets measured, it is measured right there. Only used on the main thread.
+ */
+final class TextLayoutCache {
+
+    // Layouts of a few screens of rows
+    private static final int MAX_LAYOUTS = 256;
+
+    private final PrecomputedTextCompat.Params params;
+    private final int highlightColor;
+    private final ThreadPoolExecutor executor;
+    private final Map<Integer, Layout> layouts = new LinkedHashMap<Integer, Layout>(MAX_LAYOUTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Layout> eldest) {
+            if (size() <= MAX_LAYOUTS)
+                return false;
+            eldest.getValue().skip();
+            return true;
+        }
+    };
+
+    /**
+     * Layout of one text, computed once: by the background thread unless it got skipped first, or by get()
+     */
+    private final class Layout implements Future<PrecomputedTextCompat>, Runnable {
+        final String text;
+        final String highlight;
+        private volatile boolean wanted = true;
+        private volatile PrecomputedTextCompat result;
+
+        Layout(String text, String highlight) {
+            this.text = text;
+            this.highlight = highlight;
+        }
+
+        @Override
+        public void run() {
+            if (wanted)
+                compute();
+        }
+
+        void skip() {
+            wanted = false;
+        }
+
+        /**
+         * Queues the layout again if it got skipped before it was computed
+         */
+        void want() {
+            if (!wanted && result == null) {
+                wanted = true;
+                executor.execute(this);
+            }
+        }
+
+        private synchronized PrecomputedTextCompat compute() {
+            if (result == null)
+                result = PrecomputedTextCompat.create(highlight(text, highlight, highlightColor), params);
+            return result;
+        }
+
+        @Override
+        public PrecomputedTextCompat get() {
+            PrecomputedTextCompat result = this.result;
+            return result != null ? result : compute();
+        }
+
+        @Override
+        public PrecomputedTextCompat get(long timeout, TimeUnit unit) {
+            return get();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // A view might still measure with it, get() keeps working and computes it if needed
+            skip();
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return result != null;
+        }
+    }
+
+    /**
+     * @param params Text metrics of the views the layouts are shown in
+     * @param highlightColor Background color of search matches
+     */
+    TextLayoutCache(PrecomputedTextCompat.Params params, int highlightColor) {
+        this.params = params;
+        this.highlightColor = highlightColor;
+        // Last in, first out: the rows bound last are the ones on screen
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>() {
+            @Override
+            public boolean offer(Runnable r) {
+                return offerFirst(r);
+            }
+        }, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                // Views block on their layout when they get measured, so this runs at normal priority
+                return new Thread(r, "TextLayout");
+            }
+        });
+    }
+
+    /**
+     * @param row Row the text belongs to
+     * @param text Text of the row
+     * @param highlight String whose occurrences are highlighted, ignored if empty
+     * @return Returns the layout of the text, being computed in the background if it was not cached
+     */
+    Future<PrecomputedTextCompat> get(int row, String text, String highlight) {
+        Layout layout = layouts.get(row);
+        if (layout != null && layout.text.equals(text) && layout.highlight.equals(highlight)) {
+            layout.want();
+            return layout;
+        }
+        if (layout != null)
+            layout.skip();
+        layout = new Layout(text, highlight);
+        executor.execute(layout);
+        layouts.put(row, layout);
+        return layout;
+    }
+
+    /**
+     * Skips computing a layout in the background, e.g. because its view got bound to another row
+     * @param layout Layout returned by get(), null is ignored
+     */
+    void skip(Future<PrecomputedTextCompat> layout) {
+        if (layout instanceof Layout)
+            ((Layout) layout).skip();
+    }
+
+    /**
+     * Stops the background thread once the pending layouts are done
+     */
+    void shutdown() {
+        for (Layout layout : layouts.values())
+            layout.skip();
+        layouts.clear();
+        executor.shutdown();
+    }
+
+    /**
+     * @return Returns the text with a background span on every occurrence of the highlighted string
+     */
+    private static CharSequence highlight(String text, String highlight, int color) {
+        if (highlight.isEmpty())
+            return text;
+        Spannable spannable = null;
+        for (int i = text.indexOf(highlight); i >= 0; i = text.indexOf(highlight, i + highlight.length())) {
+            if (spannable == null)
+                spannable = new SpannableString(text);
+            spannable.setSpan(new BackgroundColorSpan(color), i, i + highlight.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return spannable != null ? spannable : text;
+    }
+}
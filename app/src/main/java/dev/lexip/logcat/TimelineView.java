@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.core.content.res.ResourcesCompat;
+import androidx.core.graphics.ColorUtils;
+
+import dev.lexip.logcat.filter.FilterQuery;
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.store.TimeIndex;
+
+/**
+ * Sparkline of the lines per second of the whole capture, with errors drawn on top in their own color.
+ * Tapping a bar reports the start of its time span, e.g. to jump there.
+ */
+public final class TimelineView extends View {
+
+    interface Listener {
+        void onTimeTapped(long timeMillis);
+    }
+
+    private static final int ERROR_LEVELS = FilterQuery.levelBit(LogEntry.LEVEL_ERROR) | FilterQuery.levelBit(LogEntry.LEVEL_FATAL);
+
+    private final Paint linePaint = new Paint();
+    private final Paint errorPaint = new Paint();
+    private final float barWidth;
+    // Errors are never drawn lower than this, so a single one stands out
+    private final float minErrorHeight;
+
+    private int[] lines = new int[0];
+    private int[] errors = new int[0];
+    private int maxLines;
+    private long firstSecond = -1;
+    private int secondsPerBin = 1;
+    private Listener listener;
+
+    public TimelineView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = context.getResources().getDisplayMetrics().density;
+        barWidth = 3 * density;
+        minErrorHeight = 2 * density;
+        linePaint.setColor(ColorUtils.setAlphaComponent(ResourcesCompat.getColor(context.getResources(), R.color.fg, context.getTheme()), 0x55));
+        errorPaint.setColor(ResourcesCompat.getColor(context.getResources(), R.color.error, context.getTheme()));
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reads the counts of all retained seconds, spread over as many bars as fit
+     */
+    void update(TimeIndex index) {
+        int bins = Math.max(1, (int) (getWidth() / barWidth));
+        if (lines.length != bins) {
+            lines = new int[bins];
+            errors = new int[bins];
+        }
+        firstSecond = index.getFirstSecond();
+        if (firstSecond < 0) {
+            maxLines = 0;
+        }
+        else {
+            long seconds = index.getLastSecond() - firstSecond + 1;
+            secondsPerBin = (int) Math.max(1, (seconds + bins - 1) / bins);
+            maxLines = index.histogram(firstSecond, secondsPerBin, FilterQuery.ALL_LEVELS, lines);
+            index.histogram(firstSecond, secondsPerBin, ERROR_LEVELS, errors);
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (maxLines == 0)
+            return;
+        float height = getHeight();
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i] == 0)
+                continue;
+            float left = i * barWidth;
+            float right = left + barWidth - 1;
+            canvas.drawRect(left, height - height * lines[i] / maxLines, right, height, linePaint);
+            if (errors[i] > 0)
+                canvas.drawRect(left, height - Math.max(minErrorHeight, height * errors[i] / maxLines), right, height, errorPaint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+            int bin = (int) (event.getX() / barWidth);
+            if (firstSecond >= 0 && bin >= 0 && bin < lines.length && listener != null)
+                listener.onTimeTapped((firstSecond + (long) bin * secondsPerBin) * 1000);
+            performClick();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+}
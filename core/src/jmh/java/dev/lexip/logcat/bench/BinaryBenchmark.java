@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import dev.lexip.logcat.ingest.BinaryLogReader;
+import dev.lexip.logcat.ingest.LineScanner;
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+
+/**
+ * Lines per second from the output of the logcat process to a parsed LogEntry, for "-v threadtime" text and for
+ * binary ("-B") entries whose decoded fields go into the entry without being formatted as text
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BinaryBenchmark {
+
+    private static final int LINES = 65_536;
+
+    @Param({"synthetic", "recorded"})
+    public String fixture;
+
+    private byte[] text;
+    private byte[] binary;
+    private final LogParser parser = new LogParser(TimeZone.getTimeZone("UTC"), 2021);
+    private final LogEntry entry = new LogEntry();
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] lines = Fixtures.lines(fixture, LINES);
+        text = Fixtures.bytes(lines);
+        binary = Fixtures.binary(lines);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long text() throws IOException {
+        LineScanner scanner = new LineScanner(new ByteArrayInputStream(text), 64 * 1024);
+        long sum = 0;
+        while (scanner.next()) {
+            int start = scanner.getLineStart();
+            parser.parse(new String(scanner.getData(), start, scanner.getLineEnd() - start, Fixtures.UTF_8), entry);
+            sum += entry.getTimeMillis() + entry.getMessageEnd();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long binary() throws IOException {
+        BinaryLogReader reader = new BinaryLogReader(new ByteArrayInputStream(binary), 64 * 1024);
+        long sum = 0;
+        while (reader.next()) {
+            byte[] data = reader.getData();
+            String tag = reader.decodeTag();
+            int from = reader.getMessageStart();
+            int end = reader.getMessageEnd();
+            for (int i = from; i <= end; i++) {
+                if (i == end || data[i] == '\n') {
+                    parser.parse(reader.decodeLine(tag, from, i), entry);
+                    sum += entry.getTimeMillis() + entry.getMessageEnd();
+                    from = i + 1;
+                }
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import dev.lexip.logcat.filter.FilterEngine;
+import dev.lexip.logcat.filter.FilterQuery;
+import dev.lexip.logcat.filter.FilterResult;
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+import dev.lexip.logcat.store.LevelIndex;
+import dev.lexip.logcat.store.LogStore;
+import dev.lexip.logcat.store.TrigramIndex;
+
+/**
+ * Latency from submitting a query to the filter engine until its result is published, over a full store.
+ * Each benchmark alternates between two queries, so the engine cannot reuse the previous result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterBenchmark {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    @Param({"synthetic", "recorded"})
+    public String fixture;
+
+    private FilterEngine engine;
+    private final BlockingQueue<FilterResult> results = new ArrayBlockingQueue<FilterResult>(1);
+    private int toggle;
+
+    @Setup
+    public void setUp() throws IOException {
+        LogStore store = new LogStore(rows, Long.MAX_VALUE);
+        LogParser parser = new LogParser(TimeZone.getTimeZone("UTC"), 2021);
+        LogEntry entry = new LogEntry();
+        String[] lines = Fixtures.lines(fixture, rows);
+        for (String line : lines) {
+            parser.parse(line, entry);
+            store.append(entry);
+        }
+        engine = new FilterEngine(store, new LevelIndex(store), new TrigramIndex(store), DIRECT, new FilterEngine.Callback() {
+            @Override
+            public void onFilterResult(FilterResult result) {
+                results.offer(result);
+            }
+        }, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    private FilterResult run(FilterQuery query) throws InterruptedException {
+        engine.submitNow(query);
+        return results.take();
+    }
+
+    /**
+     * Same text with other levels, the text matches are reused and only bitsets get combined
+     */
+    @Benchmark
+    public FilterResult levelToggle() throws InterruptedException {
+        int mask = (toggle++ & 1) == 0 ? FilterQuery.ALL_LEVELS : FilterQuery.levelBit(LogEntry.LEVEL_ERROR);
+        return run(new FilterQuery(mask, "time"));
+    }
+
+    /**
+     * Texts of three or more characters are answered by the trigram index
+     */
+    @Benchmark
+    public FilterResult indexedText() throws InterruptedException {
+        return run(new FilterQuery(FilterQuery.ALL_LEVELS, (toggle++ & 1) == 0 ? "activity" : "frame"));
+    }
+
+    /**
+     * Shorter texts are scanned
+     */
+    @Benchmark
+    public FilterResult scannedText() throws InterruptedException {
+        return run(new FilterQuery(FilterQuery.ALL_LEVELS, (toggle++ & 1) == 0 ? "ou" : "ac"));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+
+/**
+ * Logcat lines for the benchmarks: "synthetic" lines with a realistic mix of levels, tags and lengths,
+ * or the "recorded" capture of the unit tests, repeated as often as needed
+ */
+final class Fixtures {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] TAGS = {"ActivityManager", "chatty", "WifiStateMachine", "OkHttp", "Choreographer",
+            "BluetoothAdapter", "SQLiteLog", "ViewRootImpl[MainActivity]", "AndroidRuntime", "Zygote"};
+    private static final char[] LEVELS = {'V', 'D', 'D', 'D', 'I', 'I', 'I', 'W', 'E', 'F'};
+    private static final String[] WORDS = {"start", "proc", "timeout", "connection", "needle", "frame", "binder",
+            "expire", "lines", "activity", "window", "request", "response", "cache", "miss", "GC_CONCURRENT"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param fixture "synthetic" or "recorded"
+     * @param count Number of lines
+     */
+    static String[] lines(String fixture, int count) throws IOException {
+        if ("synthetic".equals(fixture))
+            return synthetic(count);
+        if (!"recorded".equals(fixture))
+            throw new IllegalArgumentException("Unknown fixture " + fixture);
+        List<String> recorded = recorded();
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++)
+            lines[i] = recorded.get(i % recorded.size());
+        return lines;
+    }
+
+    /**
+     * @return Returns the lines as logcat would write them, one per line
+     */
+    static byte[] bytes(String[] lines) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(lines.length * 100);
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(UTF_8);
+            out.write(bytes, 0, bytes.length);
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return Returns the lines as "logcat -B" would write them (version 4 logger_entry structs, in UTC)
+     */
+    static byte[] binary(String[] lines) {
+        LogParser parser = new LogParser(TimeZone.getTimeZone("UTC"), 2021);
+        LogEntry entry = new LogEntry();
+        ByteBuffer out = ByteBuffer.allocate(lines.length * 160).order(ByteOrder.LITTLE_ENDIAN);
+        for (String line : lines) {
+            if (parser.parse(line, entry) != LogEntry.KIND_ENTRY)
+                continue;
+            byte[] tag = entry.getTag().getBytes(UTF_8);
+            byte[] message = entry.getMessage().getBytes(UTF_8);
+            if (out.remaining() < 28 + tag.length + message.length + 3) {
+                ByteBuffer larger = ByteBuffer.allocate(out.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                out.flip();
+                out = larger.put(out);
+            }
+            long millis = entry.getTimeMillis();
+            out.putShort((short) (tag.length + message.length + 3));
+            out.putShort((short) 28);
+            out.putInt(entry.getPid());
+            out.putInt(entry.getTid());
+            out.putInt((int) (millis / 1000));
+            out.putInt((int) (millis % 1000) * 1_000_000);
+            out.putInt(0); // main
+            out.putInt(1000);
+            out.put(entry.getLevel());
+            out.put(tag).put((byte) 0);
+            out.put(message).put((byte) 0);
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private static String[] synthetic(int count) {
+        Random random = new Random(42);
+        String[] lines = new String[count];
+        StringBuilder sb = new StringBuilder(256);
+        long millis = 0;
+        for (int i = 0; i < count; i++) {
+            millis += random.nextInt(20);
+            sb.setLength(0);
+            sb.append(String.format("05-23 %02d:%02d:%02d.%03d", 10 + millis / 3_600_000 % 12, millis / 60_000 % 60,
+                    millis / 1000 % 60, millis % 1000));
+            int pid = 1000 + random.nextInt(40);
+            sb.append(String.format(" %5d %5d ", pid, pid + random.nextInt(3) * 7));
+            sb.append(LEVELS[random.nextInt(LEVELS.length)]).append(' ');
+            sb.append(TAGS[random.nextInt(TAGS.length)]).append(": ");
+            int words = 2 + random.nextInt(random.nextInt(10) == 0 ? 60 : 14);
+            for (int w = 0; w < words; w++) {
+                if (w > 0)
+                    sb.append(' ');
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+                if (random.nextInt(4) == 0)
+                    sb.append('=').append(random.nextInt(100_000));
+            }
+            lines[i] = sb.toString();
+        }
+        return lines;
+    }
+
+    private static List<String> recorded() throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream("/logcat-capture.txt");
+        if (in == null)
+            throw new IOException("logcat-capture.txt is missing from the classpath");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = in.read(chunk)) > 0)
+                out.write(chunk, 0, n);
+        }
+        finally {
+            in.close();
+        }
+        List<String> lines = new ArrayList<String>();
+        for (String line : new String(out.toByteArray(), UTF_8).split("\n")) {
+            if (!line.isEmpty())
+                lines.add(line);
+        }
+        return lines;
+    }
+}
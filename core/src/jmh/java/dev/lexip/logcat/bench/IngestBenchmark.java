@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import dev.lexip.logcat.ingest.LineScanner;
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+import dev.lexip.logcat.store.LevelIndex;
+import dev.lexip.logcat.store.LogStore;
+import dev.lexip.logcat.store.TraceCoalescer;
+import dev.lexip.logcat.store.TrigramIndex;
+
+/**
+ * Lines per second through the whole ingestion path: splitting the raw output, decoding, parsing, grouping
+ * stack traces and appending to a full store with its level and search indexes (i.e. with eviction)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IngestBenchmark {
+
+    private static final int LINES = 65_536;
+    // Same limits as the app
+    private static final int STORE_MAX_ROWS = 200_000;
+    private static final long STORE_MAX_BYTES = 64L * 1024 * 1024;
+
+    @Param({"synthetic", "recorded"})
+    public String fixture;
+
+    private byte[] bytes;
+    private final LogParser parser = new LogParser(TimeZone.getTimeZone("UTC"), 2021);
+    private final LogEntry entry = new LogEntry();
+    private TraceCoalescer coalescer;
+
+    /**
+     * Reports the bytes per second next to the lines per second
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long bytes;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        bytes = Fixtures.bytes(Fixtures.lines(fixture, LINES));
+    }
+
+    @Setup(Level.Iteration)
+    public void createStore() {
+        LogStore store = new LogStore(STORE_MAX_ROWS, STORE_MAX_BYTES);
+        new LevelIndex(store);
+        new TrigramIndex(store);
+        coalescer = new TraceCoalescer(store);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void ingest(Counters counters) throws IOException {
+        LineScanner scanner = new LineScanner(new ByteArrayInputStream(bytes), 64 * 1024);
+        while (scanner.next()) {
+            int start = scanner.getLineStart();
+            String line = new String(scanner.getData(), start, scanner.getLineEnd() - start, Fixtures.UTF_8);
+            parser.parse(line, entry);
+            coalescer.append(entry);
+        }
+        coalescer.flush();
+        counters.bytes += bytes.length;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import dev.lexip.logcat.ingest.BufferMerger;
+import dev.lexip.logcat.ingest.LineRingBuffer;
+import dev.lexip.logcat.parse.LogBuffer;
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Lines per second through the merge of several buffers: parsing every buffer's lines with its own parser and
+ * ordering them by timestamp. The lines are dealt round-robin to the buffers, so all buffers stay interleaved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MergeBenchmark {
+
+    private static final int LINES = 65_536;
+    // Same window as the app
+    private static final long WINDOW_MILLIS = 50;
+
+    @Param({"1", "2", "4", "8"})
+    public int sources;
+
+    private String[] lines;
+
+    @Setup
+    public void setUp() throws IOException {
+        lines = Fixtures.lines("synthetic", LINES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long merge() {
+        LineRingBuffer[] rings = new LineRingBuffer[sources];
+        byte[] buffers = new byte[sources];
+        for (int i = 0; i < sources; i++) {
+            rings[i] = new LineRingBuffer(LINES / sources + 1);
+            buffers[i] = (byte) (LogBuffer.MAIN + i);
+        }
+        for (int i = 0; i < LINES; i++)
+            rings[i % sources].offer(lines[i]);
+        BufferMerger merger = new BufferMerger(rings, buffers, WINDOW_MILLIS, TimeZone.getTimeZone("UTC"), 2021);
+        // Returned so the merge cannot be optimized away
+        long last = 0;
+        LogEntry entry;
+        while ((entry = merger.next(Long.MAX_VALUE)) != null)
+            last = entry.getTimeMillis();
+        return last;
+    }
+}
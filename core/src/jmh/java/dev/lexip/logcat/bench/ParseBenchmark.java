@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+
+/**
+ * Time it takes to parse one line
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParseBenchmark {
+
+    private static final int LINES = 4096;
+
+    @Param({"synthetic", "recorded"})
+    public String fixture;
+
+    private String[] lines;
+    private final LogParser parser = new LogParser(TimeZone.getTimeZone("UTC"), 2021);
+    private final LogEntry entry = new LogEntry();
+
+    @Setup
+    public void setUp() throws IOException {
+        lines = Fixtures.lines(fixture, LINES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int parse() {
+        int chars = 0;
+        for (String line : lines) {
+            parser.parse(line, entry);
+            chars += entry.getMessageEnd();
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.filter;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dev.lexip.logcat.session.SessionReader;
+import dev.lexip.logcat.session.SessionRecord;
+import dev.lexip.logcat.store.IntList;
+import dev.lexip.logcat.store.LevelIndex;
+import dev.lexip.logcat.store.LogStore;
+import dev.lexip.logcat.store.RowBitSet;
+import dev.lexip.logcat.store.TimeIndex;
+import dev.lexip.logcat.store.TrigramIndex;
+
+/**
+ * Evaluates filter queries on a background thread.
+ * Submissions are debounced, a newer query cancels any older one that is still pending or running,
+ * and only the result of the latest query gets published.
+ * Levels and text are evaluated separately as row bitsets and intersected. The text matches are kept
+ * for the next query, so toggling a level only combines bitsets and new rows extend the previous matches.
+ * A time range narrows these rows down to the span between its two points in time, then the process and
+ * time filters are applied to the rows that passed everything else.
+ * Archived rows of a session are paged in on the same thread, see pageIn().
+ */
+public final class FilterEngine {
+
+    public interface Callback {
+        void onFilterResult(FilterResult result);
+    }
+
+    public interface PageCallback {
+        /**
+         * @param query Query the rows were checked against
+         * @param endRow Row the search went back from
+         * @param rows Matching rows, ascending
+         */
+        void onPage(FilterQuery query, int endRow, int[] rows);
+    }
+
+    // Rows evaluated per acquisition of the store's lock, so appends never wait long
+    private static final int CHUNK_ROWS = 8192;
+
+    private final LogStore store;
+    private final LevelIndex levelIndex;
+    private final TrigramIndex searchIndex;
+    private final TimeIndex timeIndex;
+    private final Executor callbackExecutor;
+    private final Callback callback;
+    private final long debounceMillis;
+    private final ScheduledExecutorService executor;
+    private final AtomicInteger generation = new AtomicInteger();
+    private Future<?> pending;
+
+    // Rows below textEndRow that match textQuery, only used by the engine's thread
+    private String textQuery;
+    private final RowBitSet textRows = new RowBitSet();
+    private int textEndRow;
+
+    /**
+     * @param levelIndex Index that provides the rows of each level
+     * @param searchIndex Index used to narrow down text queries
+     * @param callbackExecutor Executor the results are published on, usually the main thread
+     * @param debounceMillis Delay that has to pass without a newer submission before a query gets evaluated
+     */
+    public FilterEngine(LogStore store, LevelIndex levelIndex, TrigramIndex searchIndex, Executor callbackExecutor, Callback callback, long debounceMillis) {
+        this(store, levelIndex, searchIndex, null, callbackExecutor, callback, debounceMillis);
+    }
+
+    /**
+     * @param levelIndex Index that provides the rows of each level
+     * @param searchIndex Index used to narrow down text queries
+     * @param timeIndex Index used to narrow down time ranges, or null to check the time of every row
+     * @param callbackExecutor Executor the results are published on, usually the main thread
+     * @param debounceMillis Delay that has to pass without a newer submission before a query gets evaluated
+     */
+    public FilterEngine(LogStore store, LevelIndex levelIndex, TrigramIndex searchIndex, TimeIndex timeIndex, Executor callbackExecutor, Callback callback, long debounceMillis) {
+        this.store = store;
+        this.levelIndex = levelIndex;
+        this.searchIndex = searchIndex;
+        this.timeIndex = timeIndex;
+        this.callbackExecutor = callbackExecutor;
+        this.callback = callback;
+        this.debounceMillis = debounceMillis;
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FilterEngine");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Evaluates a query once no newer one got submitted for the debounce delay (e.g. while typing)
+     */
+    public void submit(FilterQuery query) {
+        schedule(query, debounceMillis);
+    }
+
+    /**
+     * Evaluates a query right away (e.g. for the apply button)
+     */
+    public void submitNow(FilterQuery query) {
+        schedule(query, 0);
+    }
+
+    /**
+     * Looks for archived rows right before a row that match a query (e.g. once the list is scrolled to its top).
+     * The session is read on the engine's thread, the result is always published (unless the engine got shut down),
+     * the callback has to check whether it still fits the list.
+     * @param reader Session the rows are read from
+     * @param endRow Row after the last one to check, usually the first row of the list
+     * @param maxRows Number of matching rows closest to endRow that are published at most
+     * @param scanRows Number of rows that are checked at most
+     */
+    public void pageIn(final SessionReader reader, final FilterQuery query, final int endRow, final int maxRows, final int scanRows,
+                       final PageCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int[] rows = scanSession(reader, query, endRow, maxRows, scanRows);
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!executor.isShutdown())
+                            callback.onPage(query, endRow, rows);
+                    }
+                });
+            }
+        });
+    }
+
+    public synchronized void shutdown() {
+        generation.incrementAndGet();
+        executor.shutdownNow();
+    }
+
+    private synchronized void schedule(final FilterQuery query, long delayMillis) {
+        final int id = generation.incrementAndGet();
+        if (pending != null)
+            pending.cancel(false);
+        pending = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                final FilterResult result = evaluate(query, id);
+                if (result == null)
+                    return;
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer query might have been submitted in the meantime
+                        if (generation.get() == id)
+                            callback.onFilterResult(result);
+                    }
+                });
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Returns the result or null if the evaluation got superseded
+     */
+    private FilterResult evaluate(FilterQuery query, int id) {
+        long start = System.nanoTime();
+        String text = query.getText();
+
+        int endRow = store.getEndRow();
+        if (!text.isEmpty() && !updateTextRows(text, endRow, id))
+            return null;
+
+        // Rows appended after endRow are checked by the adapter when it catches up
+        RowBitSet rows = new RowBitSet();
+        synchronized (store) {
+            levelIndex.select(query.getLevelMask(), rows);
+            rows.removeBelow(store.getFirstRow());
+        }
+        if (!text.isEmpty())
+            rows.and(textRows);
+        int[] visible = rows.toArray();
+        int count = visible.length;
+        while (count > 0 && visible[count - 1] >= endRow)
+            count--;
+        if (query.hasPids() || query.hasTimeRange() || query.hasBuffers()) {
+            // Only the rows between the two points in time can be in the range
+            int from = 0;
+            if (query.hasTimeRange() && timeIndex != null) {
+                from = lowerBound(visible, count, timeIndex.findRow(query.getFromMillis()));
+                count = lowerBound(visible, count, timeIndex.findRow(query.getToMillis()));
+            }
+            count = retainRows(query, visible, from, count, id);
+            if (count < 0)
+                return null;
+        }
+        if (count < visible.length)
+            visible = Arrays.copyOf(visible, count);
+        return new FilterResult(query, visible, endRow, System.nanoTime() - start);
+    }
+
+    /**
+     * @return Returns the last maxRows rows below endRow that match the query, ascending
+     */
+    private static int[] scanSession(SessionReader reader, FilterQuery query, int endRow, int maxRows, int scanRows) {
+        int firstRow = Math.max(reader.getFirstRow(), endRow - scanRows);
+        if (firstRow < 0 || firstRow >= endRow)
+            return new int[0];
+        // Read forward, which walks the mapped segments sequentially, and keep the rows closest to endRow
+        SessionRecord record = new SessionRecord();
+        IntList found = new IntList();
+        for (int row = firstRow; row < endRow; row++) {
+            if (reader.read(row, record)
+                    && query.matches(record.getLevel(), record.getPid(), record.getTimeMillis(), record.getTag(), record.getMessage()))
+                found.add(row);
+        }
+        int skipped = Math.max(0, found.size() - maxRows);
+        int[] rows = new int[found.size() - skipped];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = found.get(skipped + i);
+        return rows;
+    }
+
+    /**
+     * @return Returns the index of the first of the sorted rows that is not below the passed row
+     */
+    private static int lowerBound(int[] rows, int count, int row) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (rows[mid] < row)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Moves the rows that pass the query's process, time and buffer filters to the front of rows
+     * @param from Index of the first row to check
+     * @param count Index after the last row to check
+     * @return Returns the number of remaining rows or -1 if the evaluation got superseded
+     */
+    private int retainRows(FilterQuery query, int[] rows, int from, int count, int id) {
+        int kept = 0;
+        int i = from;
+        while (i < count) {
+            if (generation.get() != id)
+                return -1;
+            synchronized (store) {
+                int firstRow = store.getFirstRow();
+                int chunkEnd = Math.min(count, i + CHUNK_ROWS);
+                for (; i < chunkEnd; i++) {
+                    int row = rows[i];
+                    if (row >= firstRow && query.matchesPid(store.getPid(row)) && query.matchesTime(store.getTime(row))
+                            && query.matchesBuffer(store.getBuffer(row)))
+                        rows[kept++] = row;
+                }
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Brings textRows up to date for the passed text and all rows below endRow
+     * @return Returns false if the evaluation got superseded
+     */
+    private boolean updateTextRows(String text, int endRow, int id) {
+        int row;
+        if (text.equals(textQuery)) {
+            // Only the rows appended since the last evaluation are new
+            row = textEndRow;
+        }
+        else {
+            textQuery = null;
+            textRows.clear();
+            int indexedEndRow = searchIndex.query(text, textRows);
+            if (indexedEndRow >= 0) {
+                // The index covered everything up to its own end row, rows appended since then get scanned below
+                row = indexedEndRow;
+            }
+            else
+                row = 0;
+        }
+
+        while (row < endRow) {
+            if (generation.get() != id) {
+                // Keep what has been scanned so far for the next query with the same text
+                textQuery = text;
+                textEndRow = row;
+                return false;
+            }
+            synchronized (store) {
+                row = Math.max(row, store.getFirstRow());
+                int chunkEnd = Math.min(endRow, row + CHUNK_ROWS);
+                for (; row < chunkEnd; row++) {
+                    if (store.contains(row, text))
+                        textRows.set(row);
+                }
+            }
+        }
+        textQuery = text;
+        textEndRow = row;
+        synchronized (store) {
+            textRows.removeBelow(store.getFirstRow());
+        }
+        return true;
+    }
+}
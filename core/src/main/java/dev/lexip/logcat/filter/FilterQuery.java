@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.filter;
+
+import java.util.Arrays;
+
+import dev.lexip.logcat.parse.LogBuffer;
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.store.LogStore;
+
+/**
+ * Immutable description of which rows should be visible
+ */
+public final class FilterQuery {
+
+    /** Rows without a level (markers, malformed lines) are not affected by the level filter */
+    public static final int OTHER_LEVELS = 1 << LogEntry.LEVEL_UNKNOWN;
+    public static final int ALL_LEVELS = OTHER_LEVELS | levelBit(LogEntry.LEVEL_VERBOSE) | levelBit(LogEntry.LEVEL_DEBUG)
+            | levelBit(LogEntry.LEVEL_INFO) | levelBit(LogEntry.LEVEL_WARN) | levelBit(LogEntry.LEVEL_ERROR) | levelBit(LogEntry.LEVEL_FATAL);
+
+    private final int levelMask;
+    private final String text;
+    private final int[] pids;
+    private final long fromMillis;
+    private final long toMillis;
+    private final int bufferMask;
+
+    /**
+     * @param levelMask Bits of the levels that should be shown (see levelBit); others are always shown
+     * @param text Only show reports whose tag or message contains this string, ignored if empty
+     */
+    public FilterQuery(int levelMask, String text) {
+        this(levelMask, text, null);
+    }
+
+    /**
+     * @param levelMask Bits of the levels that should be shown (see levelBit); others are always shown
+     * @param text Only show reports whose tag or message contains this string, ignored if empty
+     * @param pids Only show rows of these processes (e.g. all pids of one app), null to show all processes
+     */
+    public FilterQuery(int levelMask, String text, int[] pids) {
+        this(levelMask, text, pids, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param levelMask Bits of the levels that should be shown (see levelBit); others are always shown
+     * @param text Only show reports whose tag or message contains this string, ignored if empty
+     * @param pids Only show rows of these processes (e.g. all pids of one app), null to show all processes
+     * @param fromMillis Only show rows logged at or after this time, Long.MIN_VALUE for no lower bound
+     * @param toMillis Only show rows logged before this time, Long.MAX_VALUE for no upper bound
+     */
+    public FilterQuery(int levelMask, String text, int[] pids, long fromMillis, long toMillis) {
+        this(levelMask, text, pids, fromMillis, toMillis, LogBuffer.ALL);
+    }
+
+    /**
+     * @param levelMask Bits of the levels that should be shown (see levelBit); others are always shown
+     * @param text Only show reports whose tag or message contains this string, ignored if empty
+     * @param pids Only show rows of these processes (e.g. all pids of one app), null to show all processes
+     * @param fromMillis Only show rows logged at or after this time, Long.MIN_VALUE for no lower bound
+     * @param toMillis Only show rows logged before this time, Long.MAX_VALUE for no upper bound
+     * @param bufferMask Bits of the buffers that should be shown (see LogBuffer.bit); rows of an unknown buffer are always shown
+     */
+    public FilterQuery(int levelMask, String text, int[] pids, long fromMillis, long toMillis, int bufferMask) {
+        this.bufferMask = bufferMask | LogBuffer.bit(LogBuffer.DEFAULT);
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.levelMask = levelMask | OTHER_LEVELS;
+        this.text = text;
+        if (pids != null) {
+            pids = pids.clone();
+            Arrays.sort(pids);
+        }
+        this.pids = pids;
+    }
+
+    /**
+     * @return Returns the bit of a level within a level mask
+     */
+    public static int levelBit(byte level) {
+        return 1 << level;
+    }
+
+    public int getLevelMask() {
+        return levelMask;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return Returns whether only the rows of some processes are shown
+     */
+    public boolean hasPids() {
+        return pids != null;
+    }
+
+    /**
+     * @return Returns whether rows of the process pass the process filter
+     */
+    public boolean matchesPid(int pid) {
+        return pids == null || Arrays.binarySearch(pids, pid) >= 0;
+    }
+
+    public long getFromMillis() {
+        return fromMillis;
+    }
+
+    public long getToMillis() {
+        return toMillis;
+    }
+
+    /**
+     * @return Returns whether only the rows of a time range are shown
+     */
+    public boolean hasTimeRange() {
+        return fromMillis != Long.MIN_VALUE || toMillis != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return Returns whether a row logged at the passed time passes the time filter, rows without a time only pass without one
+     */
+    public boolean matchesTime(long timeMillis) {
+        return timeMillis >= fromMillis && timeMillis < toMillis;
+    }
+
+    public int getBufferMask() {
+        return bufferMask;
+    }
+
+    /**
+     * @return Returns whether only the rows of some buffers are shown
+     */
+    public boolean hasBuffers() {
+        return bufferMask != LogBuffer.ALL;
+    }
+
+    /**
+     * @return Returns whether a row read from the passed buffer passes the buffer filter
+     */
+    public boolean matchesBuffer(byte buffer) {
+        return (bufferMask & LogBuffer.bit(buffer)) != 0;
+    }
+
+    /**
+     * @return Returns whether the level of a row passes the level filter
+     */
+    public boolean matchesLevel(LogStore store, int row) {
+        return (levelMask & levelBit(store.getLevel(row))) != 0;
+    }
+
+    /**
+     * @return Returns whether a retained row should be visible
+     */
+    public boolean matches(LogStore store, int row) {
+        return matchesLevel(store, row) && (pids == null || matchesPid(store.getPid(row)))
+                && (!hasTimeRange() || matchesTime(store.getTime(row)))
+                && (!hasBuffers() || matchesBuffer(store.getBuffer(row)))
+                && (text.isEmpty() || store.contains(row, text));
+    }
+
+    /**
+     * @return Returns whether a row that is no longer in the store (e.g. read back from a session) should be visible
+     */
+    public boolean matches(byte level, int pid, long timeMillis, String tag, String message) {
+        return (levelMask & levelBit(level)) != 0 && matchesPid(pid) && matchesTime(timeMillis)
+                && (text.isEmpty() || tag.contains(text) || message.contains(text));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FilterQuery))
+            return false;
+        FilterQuery other = (FilterQuery) o;
+        return levelMask == other.levelMask && text.equals(other.text) && Arrays.equals(pids, other.pids)
+                && fromMillis == other.fromMillis && toMillis == other.toMillis && bufferMask == other.bufferMask;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = (levelMask * 31 + text.hashCode()) * 31 + Arrays.hashCode(pids);
+        hash = hash * 31 + (int) (fromMillis ^ (fromMillis >>> 32));
+        hash = hash * 31 + (int) (toMillis ^ (toMillis >>> 32));
+        return hash * 31 + bufferMask;
+    }
+}
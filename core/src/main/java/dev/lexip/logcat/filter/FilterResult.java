@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.filter;
+
+/**
+ * Visible rows computed for a {@link FilterQuery}
+ */
+public final class FilterResult {
+
+    private final FilterQuery query;
+    private final int[] rows;
+    private final int endRow;
+    private final long elapsedNanos;
+
+    FilterResult(FilterQuery query, int[] rows, int endRow, long elapsedNanos) {
+        this.query = query;
+        this.rows = rows;
+        this.endRow = endRow;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public FilterQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * @return Returns the matching rows in ascending order
+     */
+    public int[] getRows() {
+        return rows;
+    }
+
+    /**
+     * @return Returns the first row that was not evaluated because it got appended afterwards
+     */
+    public int getEndRow() {
+        return endRow;
+    }
+
+    /**
+     * @return Returns how long the evaluation took, without the debounce delay
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
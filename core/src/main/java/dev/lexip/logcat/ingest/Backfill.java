@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+import dev.lexip.logcat.store.LogStore;
+import dev.lexip.logcat.store.TraceCoalescer;
+
+/**
+ * Loads what logcat already buffered (the output of "logcat -d") in one go instead of streaming it line by line.
+ * The dump is read completely, split into chunks at line breaks and parsed on a pool of worker threads; the parsed
+ * chunks are then appended in order, APPEND_LINES at a time per acquisition of the store's lock, so readers of the
+ * store (e.g. the UI thread) never wait for the whole load.
+ * Tailing afterwards starts at the timestamp of the last loaded line ("logcat -T"), which repeats the lines of that
+ * very millisecond; the TailOverlap returned by getTail() recognizes them, so the switch neither loses nor duplicates
+ * lines.
+ * An instance is meant for a single load.
+ */
+public final class Backfill {
+
+    // Chunks per worker, so a chunk that parses slowly does not hold up the others for long
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MIN_CHUNK_BYTES = 64 * 1024;
+    // Lines appended per acquisition of the store's lock
+    private static final int APPEND_LINES = 4096;
+
+    private final int threads;
+    private final TimeZone timeZone;
+    private final int year;
+
+    private int lines;
+    private int rows;
+    private final TailOverlap tail = new TailOverlap();
+    private long readNanos;
+    private long parseNanos;
+    private long loadNanos;
+
+    /**
+     * @param threads Number of worker threads to parse with
+     */
+    public Backfill(int threads) {
+        this(threads, TimeZone.getDefault(), -1);
+    }
+
+    /**
+     * @param threads Number of worker threads to parse with
+     * @param timeZone Time zone the device prints its timestamps in
+     * @param year Year to assume for timestamps that do not contain one, -1 for the current year
+     */
+    public Backfill(int threads, TimeZone timeZone, int year) {
+        this.threads = Math.max(threads, 1);
+        this.timeZone = timeZone;
+        this.year = year;
+    }
+
+    /**
+     * Reads a dump until its end and appends its lines
+     * @param in Output of "logcat -d" (threadtime format)
+     * @param coalescer Stage that appends to the store
+     * @param store Store the coalescer appends to
+     * @return Returns the number of lines read
+     */
+    public int load(InputStream in, TraceCoalescer coalescer, LogStore store) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        byte[] data = new byte[256 * 1024];
+        int length = 0;
+        int n;
+        while ((n = in.read(data, length, data.length - length)) > 0) {
+            length += n;
+            if (length == data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+        }
+        long read = System.nanoTime();
+        readNanos = read - start;
+
+        List<LogEntry[]> chunks = parse(data, length);
+        long parsed = System.nanoTime();
+        parseNanos = parsed - read;
+
+        // Only the calling thread appends, the store's end row moves by this load alone
+        int firstRow = store.getEndRow();
+        for (LogEntry[] chunk : chunks) {
+            for (int i = 0; i < chunk.length; ) {
+                synchronized (store) {
+                    int end = Math.min(chunk.length, i + APPEND_LINES);
+                    for (; i < end; i++) {
+                        LogEntry entry = chunk[i];
+                        coalescer.append(entry);
+                        tail.noteStored(entry);
+                    }
+                }
+            }
+            lines += chunk.length;
+        }
+        synchronized (store) {
+            coalescer.flush();
+            rows = store.getEndRow() - firstRow;
+        }
+        loadNanos = System.nanoTime() - parsed;
+        return lines;
+    }
+
+    /**
+     * Splits the dump at line breaks and parses the parts in parallel
+     * @return Returns the parsed lines of each part, in order
+     */
+    private List<LogEntry[]> parse(final byte[] data, int length) throws InterruptedException, IOException {
+        int chunkCount = Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, length / MIN_CHUNK_BYTES));
+        // Chunk i covers [bounds[i], bounds[i + 1]), every chunk ends after a line break
+        int[] bounds = new int[chunkCount + 1];
+        int count = 0;
+        while (bounds[count] < length && count < chunkCount) {
+            int chunkEnd = Math.max(bounds[count] + 1, (int) ((long) length * (count + 1) / chunkCount));
+            while (chunkEnd < length && data[chunkEnd - 1] != '\n')
+                chunkEnd++;
+            count++;
+            bounds[count] = count == chunkCount ? length : chunkEnd;
+        }
+
+        List<LogEntry[]> chunks = new ArrayList<LogEntry[]>(count);
+        if (count <= 1 || threads == 1) {
+            for (int i = 0; i < count; i++)
+                chunks.add(parseChunk(data, bounds[i], bounds[i + 1]));
+            return chunks;
+        }
+
+        List<Callable<LogEntry[]>> tasks = new ArrayList<Callable<LogEntry[]>>(count);
+        for (int i = 0; i < count; i++) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            tasks.add(new Callable<LogEntry[]>() {
+                @Override
+                public LogEntry[] call() {
+                    return parseChunk(data, from, to);
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "Backfill");
+            }
+        });
+        try {
+            for (Future<LogEntry[]> future : pool.invokeAll(tasks))
+                chunks.add(future.get());
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Cannot parse the dump", e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        return chunks;
+    }
+
+    private LogEntry[] parseChunk(byte[] data, int from, int to) {
+        LogParser parser = year < 0 ? new LogParser() : new LogParser(timeZone, year);
+        ArrayList<LogEntry> entries = new ArrayList<LogEntry>((to - from) / 100 + 1);
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && data[lineEnd] != '\n')
+                lineEnd++;
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && data[lineEnd - 1] == '\r')
+                lineEnd--;
+            LogEntry entry = new LogEntry();
+            parser.parse(new String(data, lineStart, lineEnd - lineStart, RawLine.UTF_8), entry);
+            if (entry.getKind() != LogEntry.KIND_SKIP)
+                entries.add(entry);
+            lineStart = next;
+        }
+        return entries.toArray(new LogEntry[0]);
+    }
+
+    /**
+     * @return Returns the lines loaded with the newest timestamp, restart() it before tailing from its time
+     */
+    public TailOverlap getTail() {
+        return tail;
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    /**
+     * @return Returns the number of rows the lines resulted in (traces and repeats are folded)
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+}
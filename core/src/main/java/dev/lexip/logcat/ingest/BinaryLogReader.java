@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import dev.lexip.logcat.parse.DecodedLine;
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Reads the binary output of "logcat -B": a stream of logger_entry structs (little endian) with
+ * payload length (u16), header size (u16, 0 for the 20 byte version 1 header), pid, tid, seconds, nanoseconds
+ * and, depending on the version, the log id and uid, followed by the priority byte, the tag and the message
+ * (both NUL-terminated).
+ * Level, pid and tag are plain fields, so entries can be filtered before anything is decoded or formatted.
+ */
+public final class BinaryLogReader {
+
+    private static final int V1_HEADER_BYTES = 20;
+    private static final int MAX_HEADER_BYTES = 128;
+    // Buffers whose payload is not text
+    private static final int LOG_ID_EVENTS = 2;
+    private static final int LOG_ID_STATS = 5;
+    private static final int LOG_ID_SECURITY = 6;
+    // Slots of the tag cache, a power of two
+    private static final int TAG_CACHE_SIZE = 256;
+
+    private final InputStream in;
+    private byte[] data;
+    private int position;
+    private int limit;
+    private boolean eof;
+    private long bytesRead;
+
+    private int pid;
+    private int tid;
+    private long timeMillis;
+    private byte level;
+    private int tagStart;
+    private int tagEnd;
+    private int messageStart;
+    private int messageEnd;
+
+    // Recently decoded tags by hash, most entries repeat a tag seen shortly before
+    private final byte[][] cachedTagBytes = new byte[TAG_CACHE_SIZE][];
+    private final String[] cachedTags = new String[TAG_CACHE_SIZE];
+
+    /**
+     * @param chunkBytes Initial buffer size and the amount that is read at once (e.g. 64 KB)
+     */
+    public BinaryLogReader(InputStream in, int chunkBytes) {
+        this.in = in;
+        data = new byte[Math.max(chunkBytes, V1_HEADER_BYTES + 0xFFFF)];
+    }
+
+    /**
+     * Moves to the next text entry, blocking until it is complete
+     * @return Returns false at the end of the stream
+     * @throws IOException If the stream is no binary logcat output
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (!require(4))
+                return false;
+            int payloadBytes = u16(position);
+            int headerBytes = u16(position + 2);
+            if (headerBytes == 0)
+                headerBytes = V1_HEADER_BYTES;
+            if (headerBytes < V1_HEADER_BYTES || headerBytes > MAX_HEADER_BYTES)
+                throw new IOException("Not a binary logcat stream (header of " + headerBytes + " bytes)");
+            if (!require(headerBytes + payloadBytes))
+                return false;
+
+            int p = position;
+            position += headerBytes + payloadBytes;
+            if (headerBytes >= 24) {
+                int logId = s32(p + 20);
+                if (logId == LOG_ID_EVENTS || logId == LOG_ID_STATS || logId == LOG_ID_SECURITY)
+                    continue;
+            }
+            if (payloadBytes < 2)
+                continue;
+
+            pid = s32(p + 4);
+            tid = s32(p + 8);
+            timeMillis = (s32(p + 12) & 0xFFFFFFFFL) * 1000L + s32(p + 16) / 1_000_000;
+            int end = p + headerBytes + payloadBytes;
+            int q = p + headerBytes;
+            int priority = data[q++];
+            level = priority >= LogEntry.LEVEL_VERBOSE && priority <= LogEntry.LEVEL_FATAL ? (byte) priority : LogEntry.LEVEL_UNKNOWN;
+            tagStart = q;
+            while (q < end && data[q] != 0)
+                q++;
+            tagEnd = q;
+            messageStart = Math.min(q + 1, end);
+            messageEnd = end;
+            // Drop the terminating NUL and trailing line breaks
+            while (messageEnd > messageStart && (data[messageEnd - 1] == 0 || data[messageEnd - 1] == '\n'))
+                messageEnd--;
+            return true;
+        }
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    public int getTid() {
+        return tid;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public byte getLevel() {
+        return level;
+    }
+
+    /**
+     * @return Returns the buffer that holds the tag and message of the current entry
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getTagStart() {
+        return tagStart;
+    }
+
+    public int getTagEnd() {
+        return tagEnd;
+    }
+
+    public int getMessageStart() {
+        return messageStart;
+    }
+
+    public int getMessageEnd() {
+        return messageEnd;
+    }
+
+    /**
+     * @return Returns the number of bytes read from the stream so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return Returns the tag of the current entry, the same String as for an earlier entry with that tag if possible
+     */
+    public String decodeTag() {
+        int slot = RawLine.tagHash(data, tagStart, tagEnd) & (TAG_CACHE_SIZE - 1);
+        byte[] cached = cachedTagBytes[slot];
+        int length = tagEnd - tagStart;
+        if (cached != null && cached.length == length) {
+            int i = 0;
+            while (i < length && cached[i] == data[tagStart + i])
+                i++;
+            if (i == length)
+                return cachedTags[slot];
+        }
+        String tag = new String(data, tagStart, length, RawLine.UTF_8);
+        cachedTagBytes[slot] = Arrays.copyOfRange(data, tagStart, tagEnd);
+        cachedTags[slot] = tag;
+        return tag;
+    }
+
+    /**
+     * Decodes one line of the message, together with the fields of the entry
+     * @param tag Tag of the entry, see decodeTag()
+     * @param from Start of the message line
+     * @param to End of the message line
+     */
+    public DecodedLine decodeLine(String tag, int from, int to) {
+        return new DecodedLine(timeMillis, pid, tid, level, tag, new String(data, from, to - from, RawLine.UTF_8));
+    }
+
+    /**
+     * Makes sure that the bytes of an entry are in the buffer
+     */
+    private boolean require(int count) throws IOException {
+        while (limit - position < count) {
+            if (eof)
+                return false;
+            if (position > 0) {
+                System.arraycopy(data, position, data, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            if (count > data.length)
+                data = Arrays.copyOf(data, count);
+            int n = in.read(data, limit, data.length - limit);
+            if (n < 0)
+                eof = true;
+            else {
+                limit += n;
+                bytesRead += n;
+            }
+        }
+        return true;
+    }
+
+    private int u16(int p) {
+        return (data[p] & 0xFF) | (data[p + 1] & 0xFF) << 8;
+    }
+
+    private int s32(int p) {
+        return (data[p] & 0xFF) | (data[p + 1] & 0xFF) << 8 | (data[p + 2] & 0xFF) << 16 | data[p + 3] << 24;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat.ingest;
+
+import java.util.TimeZone;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+
+/**
+ * Merges the lines of several logcat buffers, each queued in its own ring buffer, into one feed ordered by
+ * timestamp: a k-way merge over the oldest line of every source. Each source has a parser of its own, so the
+ * state of multi-line reports never leaks from one buffer into another.
+ * A buffer is in order by itself, but a quiet buffer may deliver a line later than newer lines of a busy one.
+ * So a line is only emitted once every source has a line to compare it with, or once it is older than the
+ * reordering window, by when an older line of an empty source would have arrived.
+ * Lines without a time of their own (continuations, markers) keep the time of the line before them in their
+ * buffer and follow it right away. Only used by the consumer thread of the ring buffers.
+ */
+public final class BufferMerger {
+
+    private final LineRingBuffer[] inputs;
+    private final byte[] buffers;
+    private final LogParser[] parsers;
+    private final long windowMillis;
+
+    // Parsed oldest line of each source and the time it is ordered by
+    private final LogEntry[] heads;
+    private final boolean[] hasHead;
+    private final long[] headTimes;
+    // Time of the line a source emitted last, lines of a source never go back in time
+    private final long[] lastTimes;
+    private int lastSource = -1;
+
+    /**
+     * @param inputs Ring buffers of the sources, this merger is their consumer
+     * @param buffers Buffer of each source (LogBuffer.*), entries are tagged with it
+     * @param windowMillis How long a line waits for the lines of empty sources at most
+     */
+    public BufferMerger(LineRingBuffer[] inputs, byte[] buffers, long windowMillis) {
+        this(inputs, buffers, windowMillis, TimeZone.getDefault(), -1);
+    }
+
+    /**
+     * @param inputs Ring buffers of the sources, this merger is their consumer
+     * @param buffers Buffer of each source (LogBuffer.*), entries are tagged with it
+     * @param windowMillis How long a line waits for the lines of empty sources at most
+     * @param timeZone Time zone the device prints its timestamps in
+     * @param year Year to assume for timestamps that do not contain one, -1 for the current year
+     */
+    public BufferMerger(LineRingBuffer[] inputs, byte[] buffers, long windowMillis, TimeZone timeZone, int year) {
+        if (inputs.length != buffers.length)
+            throw new IllegalArgumentException("One buffer id per input expected");
+        this.inputs = inputs.clone();
+        this.buffers = buffers.clone();
+        this.windowMillis = windowMillis;
+        parsers = new LogParser[inputs.length];
+        heads = new LogEntry[inputs.length];
+        hasHead = new boolean[inputs.length];
+        headTimes = new long[inputs.length];
+        lastTimes = new long[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            parsers[i] = year < 0 ? new LogParser() : new LogParser(timeZone, year);
+            heads[i] = new LogEntry();
+            lastTimes[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Takes the oldest line of all sources
+     * @param nowMillis Current wall clock time, the clock the device stamps its lines with
+     * @return Returns the parsed line, valid until the next call, or null if no line may be emitted yet
+     */
+    public LogEntry next(long nowMillis) {
+        int oldest = -1;
+        boolean complete = true;
+        for (int i = 0; i < inputs.length; i++) {
+            if (!hasHead[i] && !fill(i)) {
+                complete = false;
+                continue;
+            }
+            // On a tie, the source of the previous line goes on, so a report stays in one piece
+            if (oldest < 0 || headTimes[i] < headTimes[oldest] || (headTimes[i] == headTimes[oldest] && i == lastSource))
+                oldest = i;
+        }
+        if (oldest < 0 || (!complete && headTimes[oldest] > nowMillis - windowMillis))
+            return null;
+        hasHead[oldest] = false;
+        lastTimes[oldest] = headTimes[oldest];
+        lastSource = oldest;
+        return heads[oldest];
+    }
+
+    /**
+     * @return Returns the number of lines that are queued or waiting to be merged
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < inputs.length; i++)
+            size += inputs[i].size() + (hasHead[i] ? 1 : 0);
+        return size;
+    }
+
+    /**
+     * Parses the next line of a source
+     * @return Returns false if the source is empty
+     */
+    private boolean fill(int i) {
+        LogEntry head = heads[i];
+        CharSequence line;
+        while ((line = inputs[i].poll()) != null) {
+            if (parsers[i].parse(line, head) == LogEntry.KIND_SKIP)
+                continue;
+            head.setBuffer(buffers[i]);
+            long time = head.getTimeMillis();
+            headTimes[i] = time != 0 ? Math.max(time, lastTimes[i]) : lastTimes[i];
+            hasHead[i] = true;
+            return true;
+        }
+        return false;
+    }
+}
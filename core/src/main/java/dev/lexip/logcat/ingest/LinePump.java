@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves the output of a logcat process into the ingestion buffer on the reader thread.
+ * Lines are split, filtered and passed through the overload policy as bytes; only lines that get through
+ * are decoded into Strings.
+ */
+final class LinePump {
+
+    // Bytes read from the process at once
+    static final int CHUNK_BYTES = 64 * 1024;
+
+    private final LineRingBuffer buffer;
+    private final OverloadPolicy overloadPolicy;
+    private final SourceFilter rawFilter;
+    private final AtomicLong linesRead;
+    private final RawLine rawLine = new RawLine();
+
+    LinePump(LineRingBuffer buffer, OverloadPolicy overloadPolicy, SourceFilter rawFilter) {
+        this(buffer, overloadPolicy, rawFilter, new AtomicLong());
+    }
+
+    /**
+     * @param rawFilter Filter applied to the raw lines or null
+     * @param linesRead Counter of the lines read, including the filtered and dropped ones
+     */
+    LinePump(LineRingBuffer buffer, OverloadPolicy overloadPolicy, SourceFilter rawFilter, AtomicLong linesRead) {
+        this.buffer = buffer;
+        this.overloadPolicy = overloadPolicy;
+        this.rawFilter = rawFilter == null || rawFilter.equals(SourceFilter.NONE) ? null : rawFilter;
+        this.linesRead = linesRead;
+    }
+
+    /**
+     * Reads formatted text lines (e.g. "-v threadtime") until the stream ends or the thread gets interrupted
+     * @return Returns the number of bytes read
+     */
+    long pumpText(InputStream in) throws IOException, InterruptedException {
+        LineScanner scanner = new LineScanner(in, CHUNK_BYTES);
+        RawLine line = rawLine;
+        while (!Thread.currentThread().isInterrupted() && scanner.next()) {
+            // Single writer, readers only need an eventually visible value
+            linesRead.lazySet(linesRead.get() + 1);
+            line.set(scanner.getData(), scanner.getLineStart(), scanner.getLineEnd());
+            if (rawFilter != null && !rawFilter.accepts(line.level, line.pid()))
+                continue;
+            if (overloadPolicy.admit(buffer, line.level, line.data, line.tagStart, line.tagEnd))
+                overloadPolicy.putAdmitted(buffer, line.decode());
+        }
+        return scanner.getBytesRead();
+    }
+
+    /**
+     * Reads binary entries ("-B") until the stream ends or the thread gets interrupted.
+     * Each line of a message becomes one DecodedLine, the fields of the entry are not formatted and parsed again.
+     * @return Returns the number of bytes read
+     */
+    long pumpBinary(InputStream in) throws IOException, InterruptedException {
+        BinaryLogReader reader = new BinaryLogReader(in, CHUNK_BYTES);
+        while (!Thread.currentThread().isInterrupted() && reader.next()) {
+            linesRead.lazySet(linesRead.get() + 1);
+            byte[] data = reader.getData();
+            if (rawFilter != null && !rawFilter.accepts(reader.getLevel(), reader.getPid()))
+                continue;
+            if (!overloadPolicy.admit(buffer, reader.getLevel(), data, reader.getTagStart(), reader.getTagEnd()))
+                continue;
+            String tag = reader.decodeTag();
+            int from = reader.getMessageStart();
+            int end = reader.getMessageEnd();
+            for (int i = from; i <= end; i++) {
+                if (i == end || data[i] == '\n') {
+                    overloadPolicy.putAdmitted(buffer, reader.decodeLine(tag, from, i));
+                    from = i + 1;
+                }
+            }
+        }
+        return reader.getBytesRead();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free ring buffer that hands logcat lines from exactly one producer thread
+ * (the reader) to exactly one consumer thread (the drainer).
+ * Every slot also remembers when it was enqueued so the consumer can tell how far behind it is.
+ */
+public final class LineRingBuffer {
+
+    private static final long PARK_NANOS = 100_000L;
+
+    private final CharSequence[] lines;
+    private final long[] enqueueTimes;
+    private final int mask;
+
+    // Next slot the consumer reads, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    // Next slot the producer writes, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+
+    // Thread-confined copies of the other side's index to avoid touching the shared cache line on every call
+    private long headCache;
+    private long tailCache;
+
+    private volatile long lastLagNanos;
+
+    /**
+     * @param capacity Maximum number of queued lines, rounded up to the next power of two
+     */
+    public LineRingBuffer(int capacity) {
+        if (capacity < 2)
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        lines = new CharSequence[size];
+        enqueueTimes = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Enqueues a line without waiting (producer thread only)
+     * @param line Logcat line, a String or a DecodedLine
+     * @return Returns false if the buffer is full
+     */
+    public boolean offer(CharSequence line) {
+        long t = tail.get();
+        if (t - headCache > mask) {
+            headCache = head.get();
+            if (t - headCache > mask)
+                return false;
+        }
+        int index = (int) t & mask;
+        lines[index] = line;
+        enqueueTimes[index] = System.nanoTime();
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Enqueues a line and parks the producer while the buffer is full (producer thread only)
+     * @param line Logcat line, a String or a DecodedLine
+     * @throws InterruptedException If the producer got interrupted while waiting
+     */
+    public void put(CharSequence line) throws InterruptedException {
+        while (!offer(line)) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Dequeues the oldest line (consumer thread only)
+     * @return Returns the line or null if the buffer is empty
+     */
+    public CharSequence poll() {
+        long h = head.get();
+        if (h >= tailCache) {
+            tailCache = tail.get();
+            if (h >= tailCache)
+                return null;
+        }
+        int index = (int) h & mask;
+        CharSequence line = lines[index];
+        lines[index] = null;
+        lastLagNanos = System.nanoTime() - enqueueTimes[index];
+        head.lazySet(h + 1);
+        return line;
+    }
+
+    /**
+     * Drops all queued lines (consumer thread only)
+     * @return Returns the number of dropped lines
+     */
+    public int clear() {
+        int count = 0;
+        while (poll() != null)
+            count++;
+        return count;
+    }
+
+    /**
+     * Looks at a queued line without removing it (consumer thread only)
+     * @param offset Position relative to the oldest queued line
+     * @return Returns the line or null if fewer lines are queued
+     */
+    public CharSequence peek(int offset) {
+        long h = head.get() + offset;
+        if (h >= tailCache) {
+            tailCache = tail.get();
+            if (h >= tailCache)
+                return null;
+        }
+        return lines[(int) h & mask];
+    }
+
+    /**
+     * @return Returns the number of queued lines (safe to call from any thread)
+     */
+    public int size() {
+        long h = head.get();
+        return (int) Math.max(0, tail.get() - h);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return Returns the time the most recently dequeued line spent waiting in the buffer
+     */
+    public long getLastLagNanos() {
+        return lastLagNanos;
+    }
+}
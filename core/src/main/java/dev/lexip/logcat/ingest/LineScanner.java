@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a byte stream into lines without decoding it.
+ * Large chunks are read into one reusable buffer and lines are handed out as ranges of that buffer,
+ * which stay valid until the next call of next(). A line that does not fit grows the buffer.
+ */
+public final class LineScanner {
+
+    private final InputStream in;
+    private byte[] data;
+    // Start of the first line that has not been handed out
+    private int position;
+    // End of the bytes read so far
+    private int limit;
+    // Bytes before this one are known to contain no line break of the pending line
+    private int scanned;
+    private boolean eof;
+    private long bytesRead;
+
+    private int lineStart;
+    private int lineEnd;
+
+    /**
+     * @param chunkBytes Initial buffer size and the amount that is read at once (e.g. 64 KB)
+     */
+    public LineScanner(InputStream in, int chunkBytes) {
+        this.in = in;
+        data = new byte[chunkBytes];
+    }
+
+    /**
+     * Moves to the next line, blocking until it is complete
+     * @return Returns false at the end of the stream
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (data[i] == '\n') {
+                    lineStart = position;
+                    lineEnd = i > position && data[i - 1] == '\r' ? i - 1 : i;
+                    position = scanned = i + 1;
+                    return true;
+                }
+            }
+            scanned = limit;
+            if (eof) {
+                if (position == limit)
+                    return false;
+                // Last line without a line break
+                lineStart = position;
+                lineEnd = limit;
+                position = limit;
+                return true;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * @return Returns the buffer that holds the current line
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLineStart() {
+        return lineStart;
+    }
+
+    /**
+     * @return Returns the end of the current line, without the line break
+     */
+    public int getLineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * @return Returns the number of bytes read from the stream so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            // Keep the incomplete line at the front
+            System.arraycopy(data, position, data, 0, limit - position);
+            limit -= position;
+            scanned -= position;
+            position = 0;
+        }
+        if (limit == data.length)
+            data = Arrays.copyOf(data, data.length * 2);
+        int n = in.read(data, limit, data.length - limit);
+        if (n < 0)
+            eof = true;
+        else {
+            limit += n;
+            bytesRead += n;
+        }
+    }
+}
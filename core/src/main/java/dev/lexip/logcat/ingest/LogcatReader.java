@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.ingest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a logcat process on its own thread and puts its lines into the ingestion buffer.
+ * The process can be restarted with other arguments (e.g. a new SourceFilter); the old reader is stopped
+ * before the new one starts, so the buffer always has a single producer.
+ * The output is read as bytes; with "-B" in the command it is read as binary entries.
+ */
+public final class LogcatReader {
+
+    public interface Listener {
+        /**
+         * The process ended by itself, called on the reader thread
+         * @param error Cause or null if the output just ended
+         */
+        void onStopped(IOException error);
+    }
+
+    private final LineRingBuffer buffer;
+    private final OverloadPolicy overloadPolicy;
+    private final Listener listener;
+    private final AtomicLong linesRead = new AtomicLong();
+    private ReaderThread thread;
+
+    /**
+     * @param overloadPolicy Decides what happens to lines while the buffer is filling up
+     */
+    public LogcatReader(LineRingBuffer buffer, OverloadPolicy overloadPolicy, Listener listener) {
+        this.buffer = buffer;
+        this.overloadPolicy = overloadPolicy;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts reading the output of a command, stopping the current process first
+     * @param command Command and arguments, e.g. from SourceFilter.toCommand()
+     */
+    public synchronized void start(List<String> command) {
+        start(command, null);
+    }
+
+    /**
+     * Starts reading the output of a command, stopping the current process first
+     * @param command Command and arguments, e.g. from SourceFilter.toCommand()
+     * @param rawFilter Filter applied to the raw lines before they are decoded, or null
+     */
+    public synchronized void start(List<String> command, SourceFilter rawFilter) {
+        stop();
+        thread = new ReaderThread(new ArrayList<String>(command), rawFilter);
+        thread.start();
+    }
+
+    /**
+     * Stops the process and waits until the reader thread is done with the buffer
+     */
+    public synchronized void stop() {
+        if (thread == null)
+            return;
+        thread.cancel();
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * @return Returns the number of lines (or binary entries) read from all processes so far, safe to call from any thread
+     */
+    public long getLinesRead() {
+        return linesRead.get();
+    }
+
+    /**
+     * @return Returns the command of the running process or null
+     */
+    public synchronized List<String> getCommand() {
+        return thread == null ? null : thread.command;
+    }
+
+    private final class ReaderThread extends Thread {
+
+        final List<String> command;
+        private final SourceFilter rawFilter;
+        private final Object processLock = new Object();
+        private volatile boolean cancelled;
+        private Process process;
+
+        ReaderThread(List<String> command, SourceFilter rawFilter) {
+            super("LogcatReader");
+            this.command = command;
+            this.rawFilter = rawFilter;
+        }
+
+        void cancel() {
+            cancelled = true;
+            interrupt();
+            synchronized (processLock) {
+                if (process != null)
+                    process.destroy();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                // Error messages would break the binary format, they only get mixed into text output
+                boolean binary = command.contains("-B");
+                Process p = new ProcessBuilder(command).redirectErrorStream(!binary).start();
+                synchronized (processLock) {
+                    process = p;
+                    if (cancelled) {
+                        p.destroy();
+                        return;
+                    }
+                }
+                LinePump pump = new LinePump(buffer, overloadPolicy, rawFilter, linesRead);
+                if (binary)
+                    pump.pumpBinary(p.getInputStream());
+                else
+                    pump.pumpText(p.getInputStream());
+                if (!cancelled)
+                    listener.onStopped(null);
+            }
+            catch (IOException e) {
+                if (!cancelled)
+                    listener.onStopped(e);
+            }
+            catch (InterruptedException e) {
+                // Stopped while the buffer was full
+            }
+            finally {
+                synchronized (processLock) {
+                    if (process != null)
+                        process.destroy();
+                }
+            }
+        }
+    }
+}
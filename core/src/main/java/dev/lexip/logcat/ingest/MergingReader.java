@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat.ingest;
+
+import dev.lexip.logcat.parse.LogBuffer;
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Reads logcat through one process per buffer, each on its own reader thread with its own ring buffer and overload
+ * policy, and merges the lines by timestamp (see BufferMerger). A filter without buffers or with a single one
+ * is read through a single process, like before.
+ * next() belongs to the consumer thread; the counters can be read from any thread, they may be off by a restart.
+ */
+public final class MergingReader {
+
+    private static final class Source {
+        final LineRingBuffer buffer;
+        final OverloadPolicy overloadPolicy;
+        final LogcatReader reader;
+
+        Source(int capacity, int overloadMode, LogcatReader.Listener listener) {
+            buffer = new LineRingBuffer(capacity);
+            overloadPolicy = new OverloadPolicy(overloadMode);
+            reader = new LogcatReader(buffer, overloadPolicy, listener);
+        }
+    }
+
+    private final int capacity;
+    private final long windowMillis;
+    private final LogcatReader.Listener listener;
+    private volatile int overloadMode;
+    private volatile Source[] sources = new Source[0];
+    private volatile BufferMerger merger;
+    // Counters of the sources of earlier starts
+    private volatile long retiredLinesRead;
+    private volatile long retiredDropped;
+
+    /**
+     * @param capacity Capacity of the ring buffer of each source
+     * @param overloadMode Initial OverloadPolicy.MODE_* of each source
+     * @param windowMillis Reordering window of the merge
+     * @param listener Gets told when a logcat process ends by itself
+     */
+    public MergingReader(int capacity, int overloadMode, long windowMillis, LogcatReader.Listener listener) {
+        this.capacity = capacity;
+        this.overloadMode = overloadMode;
+        this.windowMillis = windowMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts reading with a filter, stopping the current processes first and dropping what they read ahead
+     * @param filter Filter whose buffers are read separately if it lists more than one
+     * @param since Only read lines from this "MM-DD HH:MM:SS.mmm" timestamp on, or null for the whole buffers
+     */
+    public synchronized void start(SourceFilter filter, String since) {
+        stop();
+        String[] names = filter.getBuffers();
+        int count = names != null && names.length > 1 ? names.length : 1;
+        Source[] started = new Source[count];
+        LineRingBuffer[] inputs = new LineRingBuffer[count];
+        byte[] ids = new byte[count];
+        for (int i = 0; i < count; i++) {
+            started[i] = new Source(capacity, overloadMode, listener);
+            SourceFilter part = count > 1 ? filter.withBuffers(new String[]{names[i]}) : filter;
+            started[i].reader.start(part.toCommand(since), part);
+            inputs[i] = started[i].buffer;
+            ids[i] = names != null && names.length == count ? LogBuffer.of(names[i]) : LogBuffer.DEFAULT;
+        }
+        merger = new BufferMerger(inputs, ids, windowMillis);
+        sources = started;
+    }
+
+    /**
+     * Stops all processes and waits until their reader threads are done
+     */
+    public synchronized void stop() {
+        Source[] stopped = sources;
+        for (Source source : stopped) {
+            source.reader.stop();
+            retiredLinesRead += source.reader.getLinesRead();
+            retiredDropped += source.overloadPolicy.getDroppedTotal();
+        }
+        sources = new Source[0];
+        merger = null;
+    }
+
+    /**
+     * Takes the next line in timestamp order
+     * @param nowMillis Current wall clock time
+     * @return Returns the parsed line, tagged with its buffer and valid until the next call, or null if there is none yet
+     */
+    public LogEntry next(long nowMillis) {
+        BufferMerger merger = this.merger;
+        return merger != null ? merger.next(nowMillis) : null;
+    }
+
+    /**
+     * @return Returns the number of processes that are read
+     */
+    public int getSourceCount() {
+        return sources.length;
+    }
+
+    /**
+     * @return Returns the number of lines queued in all ring buffers
+     */
+    public int size() {
+        int size = 0;
+        for (Source source : sources)
+            size += source.buffer.size();
+        return size;
+    }
+
+    public long getLinesRead() {
+        long lines = retiredLinesRead;
+        for (Source source : sources)
+            lines += source.reader.getLinesRead();
+        return lines;
+    }
+
+    public long getDroppedTotal() {
+        long dropped = retiredDropped;
+        for (Source source : sources)
+            dropped += source.overloadPolicy.getDroppedTotal();
+        return dropped;
+    }
+
+    public int getOverloadMode() {
+        return overloadMode;
+    }
+
+    public void setOverloadMode(int mode) {
+        overloadMode = mode;
+        for (Source source : sources)
+            source.overloadPolicy.setMode(mode);
+    }
+}
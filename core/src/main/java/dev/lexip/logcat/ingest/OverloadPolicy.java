@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.ingest;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+
+/**
+ * Decides on the reader thread what happens to a line when the ingestion buffer fills up faster than it is drained.
+ * Dropped lines are counted per level and reported by a single "--------- N lines dropped (V:x D:y)" marker line
+ * in front of the next line that gets through, so nothing disappears silently.
+ */
+public final class OverloadPolicy {
+
+    /** Wait for the drainer, nothing is lost but the viewer falls behind */
+    public static final int MODE_BLOCK = 0;
+    /** Drop VERBOSE first, then DEBUG, INFO and WARN as the buffer fills up; ERROR and FATAL are always kept */
+    public static final int MODE_DROP_BY_PRIORITY = 1;
+    /** Only keep every SAMPLE_RATE-th line of tags that log a lot; ERROR and FATAL are always kept */
+    public static final int MODE_SAMPLE_TAGS = 2;
+
+    // Buffer fill ratios (in percent) from which on a level gets dropped, indexed by LogEntry.LEVEL_*
+    private static final int[] DROP_THRESHOLDS = {101, 101, 50, 70, 85, 95, 101, 101};
+
+    // Tags are counted in buckets of their hash, collisions only make the sampling a bit stricter
+    private static final int TAG_BUCKETS = 1024;
+    private static final long SAMPLE_WINDOW_NANOS = 1_000_000_000L;
+    private static final int NOISY_LINES_PER_WINDOW = 200;
+    private static final int SAMPLE_RATE = 10;
+    private static final int SAMPLE_THRESHOLD = 50;
+
+    private volatile int mode;
+    private final int[] dropped = new int[LogEntry.LEVEL_FATAL + 1];
+    private int droppedSinceMarker;
+    private volatile long droppedTotal;
+
+    private final int[] tagCounts = new int[TAG_BUCKETS];
+    private long windowStart;
+
+    /**
+     * @param mode One of the MODE_* constants
+     */
+    public OverloadPolicy(int mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Changes the mode, can be called from any thread
+     */
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * @return Returns the number of lines dropped so far
+     */
+    public long getDroppedTotal() {
+        return droppedTotal;
+    }
+
+    /**
+     * Decides about a line that has not been decoded yet (producer thread only).
+     * Dropped lines are counted, admitted ones have to be passed to putAdmitted().
+     * @param level Level of the line
+     * @param data Raw bytes that contain the tag
+     * @return Returns whether the line should be decoded and put into the buffer
+     */
+    boolean admit(LineRingBuffer buffer, byte level, byte[] data, int tagStart, int tagEnd) {
+        int mode = this.mode;
+        return mode == MODE_BLOCK
+                || !drop(buffer, mode, level, mode == MODE_SAMPLE_TAGS ? RawLine.tagHash(data, tagStart, tagEnd) : 0);
+    }
+
+    /**
+     * Puts an admitted line into the buffer, preceded by the marker of the lines dropped before it (producer thread only)
+     * @throws InterruptedException If the producer got interrupted while waiting
+     */
+    void putAdmitted(LineRingBuffer buffer, CharSequence line) throws InterruptedException {
+        if (droppedSinceMarker > 0) {
+            buffer.put(buildMarker());
+            droppedSinceMarker = 0;
+            for (int i = 0; i < dropped.length; i++)
+                dropped[i] = 0;
+        }
+        buffer.put(line);
+    }
+
+    private boolean drop(LineRingBuffer buffer, int mode, byte level, int tagHash) {
+        int fill = (int) (buffer.size() * 100L / buffer.capacity());
+        boolean drop;
+        if (mode == MODE_DROP_BY_PRIORITY)
+            drop = fill >= DROP_THRESHOLDS[level];
+        else
+            drop = sample(tagHash, level, fill);
+        if (drop) {
+            dropped[level]++;
+            droppedSinceMarker++;
+            droppedTotal++;
+        }
+        return drop;
+    }
+
+    /**
+     * @return Returns whether to drop a line of a noisy tag
+     */
+    private boolean sample(int tagHash, byte level, int fill) {
+        long now = System.nanoTime();
+        if (now - windowStart >= SAMPLE_WINDOW_NANOS) {
+            windowStart = now;
+            for (int i = 0; i < TAG_BUCKETS; i++)
+                tagCounts[i] = 0;
+        }
+        int bucket = tagHash & (TAG_BUCKETS - 1);
+        int count = ++tagCounts[bucket];
+        return fill >= SAMPLE_THRESHOLD && level != LogEntry.LEVEL_UNKNOWN && level < LogEntry.LEVEL_ERROR
+                && count > NOISY_LINES_PER_WINDOW && count % SAMPLE_RATE != 0;
+    }
+
+    private String buildMarker() {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(LogParser.MARKER_PREFIX).append(droppedSinceMarker).append(" lines dropped (");
+        boolean first = true;
+        for (byte level = 0; level < dropped.length; level++) {
+            if (dropped[level] == 0)
+                continue;
+            if (!first)
+                sb.append(' ');
+            sb.append(LogEntry.levelChar(level)).append(':').append(dropped[level]);
+            first = false;
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.ingest;
+
+import java.nio.charset.Charset;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Reusable view of one raw logcat line that has not been decoded yet.
+ * The level and the tag are located on the bytes, so lines can be filtered and dropped before
+ * a String is ever created for them.
+ */
+final class RawLine {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    byte[] data;
+    int start;
+    int end;
+    // Position of the level character or -1 for lines without a header (markers, continuations)
+    int levelPosition;
+    byte level;
+    int tagStart;
+    int tagEnd;
+
+    /**
+     * Points the view at a line and locates its level and tag
+     */
+    void set(byte[] data, int start, int end) {
+        this.data = data;
+        this.start = start;
+        this.end = end;
+        levelPosition = levelPosition(data, start, end);
+        if (levelPosition < 0) {
+            level = LogEntry.LEVEL_UNKNOWN;
+            tagStart = tagEnd = start;
+            return;
+        }
+        level = LogEntry.levelOf((char) data[levelPosition]);
+        tagStart = levelPosition + 2;
+        int p = tagStart;
+        // "D/Tag( 1234): " ends at the parenthesis, "D Tag     : " at the first ": "
+        while (p < end && data[p] != ':' && data[p] != '(')
+            p++;
+        while (p > tagStart && data[p - 1] == ' ')
+            p--;
+        tagEnd = p;
+    }
+
+    /**
+     * @return Returns the process id of the line or -1 if it has none
+     */
+    int pid() {
+        if (levelPosition < 0)
+            return -1;
+        if (data[levelPosition + 1] == '/') {
+            // "D/Tag( 1234): "
+            int p = tagEnd;
+            while (p < end && data[p] != '(' && data[p] != ':')
+                p++;
+            return p < end && data[p] == '(' ? parseNumber(p + 1) : -1;
+        }
+        // "05-23 11:50:59.123  1234  1256 D Tag: ", the pid is the second number before the level
+        int p = levelPosition - 1;
+        for (int field = 0; field < 2; field++) {
+            while (p > start && data[p] == ' ')
+                p--;
+            while (p > start && data[p] >= '0' && data[p] <= '9')
+                p--;
+        }
+        return parseNumber(p + 1);
+    }
+
+    /**
+     * @return Returns a hash of a tag given as bytes
+     */
+    static int tagHash(byte[] data, int tagStart, int tagEnd) {
+        int hash = 0;
+        for (int i = tagStart; i < tagEnd; i++)
+            hash = hash * 31 + data[i];
+        return hash ^ (hash >>> 16);
+    }
+
+    String decode() {
+        return new String(data, start, end - start, UTF_8);
+    }
+
+    private int parseNumber(int p) {
+        while (p < end && data[p] == ' ')
+            p++;
+        if (p == end || data[p] < '0' || data[p] > '9')
+            return -1;
+        int value = 0;
+        while (p < end && data[p] >= '0' && data[p] <= '9')
+            value = value * 10 + (data[p++] - '0');
+        return value;
+    }
+
+    /**
+     * Finds the level without parsing the line, for "threadtime", "time" and "brief" lines
+     * @return Returns the position of the level character ("... 1256 D Tag: " or "D/Tag: ") or -1
+     */
+    private static int levelPosition(byte[] data, int start, int end) {
+        int length = end - start;
+        if (length > 2 && data[start + 1] == '/' && LogEntry.levelOf((char) data[start]) != LogEntry.LEVEL_UNKNOWN)
+            return start;
+        // Skip the timestamp, the level follows the thread id (or is followed by '/' in "-v time")
+        for (int i = start + 18; i + 1 < end && i < start + 64; i++) {
+            byte next = data[i + 1];
+            if ((next == ' ' || next == '/') && data[i - 1] == ' ' && LogEntry.levelOf((char) data[i]) != LogEntry.LEVEL_UNKNOWN)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.ingest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Filter that the logcat process applies itself, so lines nobody wants to see are never read, parsed or stored.
+ * Only covers what the in-app filter settings map to exactly: a minimum level, one process and the buffers.
+ * Everything else is still done by the in-app filter; the search text is not pushed down since logcat's "-e" only
+ * matches messages while the search also matches tags.
+ * The reader can apply the level and pid part to the raw bytes as well, for output that logcat did not
+ * filter (e.g. a recorded capture), so lines are dropped before they get decoded.
+ */
+public final class SourceFilter {
+
+    /** Reads everything, like a plain "logcat" */
+    public static final SourceFilter NONE = new SourceFilter(LogEntry.LEVEL_VERBOSE, -1, null);
+
+    private final byte minLevel;
+    private final int pid;
+    private final String[] buffers;
+
+    /**
+     * @param minLevel Lowest level to read (LogEntry.LEVEL_*)
+     * @param pid Only read this process or -1 for all processes
+     * @param buffers Buffers to read (e.g. "main", "crash") or null for logcat's default ones
+     */
+    public SourceFilter(byte minLevel, int pid, String[] buffers) {
+        this.minLevel = minLevel;
+        this.pid = pid;
+        this.buffers = buffers == null ? null : buffers.clone();
+    }
+
+    /**
+     * Finds the lowest level of a level mask, logcat can only filter by a minimum level
+     * @param levelMask Bits of 1 << LogEntry.LEVEL_*
+     * @return Returns the lowest level in the mask, LogEntry.LEVEL_FATAL if it contains none
+     */
+    public static byte minLevelOf(int levelMask) {
+        for (byte level = LogEntry.LEVEL_VERBOSE; level < LogEntry.LEVEL_FATAL; level++) {
+            if ((levelMask & (1 << level)) != 0)
+                return level;
+        }
+        return LogEntry.LEVEL_FATAL;
+    }
+
+    public byte getMinLevel() {
+        return minLevel;
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * @return Returns the buffers to read or null for logcat's default ones
+     */
+    public String[] getBuffers() {
+        return buffers == null ? null : buffers.clone();
+    }
+
+    /**
+     * @param buffers Buffers to read or null for logcat's default ones
+     * @return Returns the same filter for other buffers, e.g. one of them for a reader of its own
+     */
+    public SourceFilter withBuffers(String[] buffers) {
+        return new SourceFilter(minLevel, pid, buffers);
+    }
+
+    /**
+     * Checks the level and pid of a line that has not been decoded yet
+     * @param level Level of the line, lines without one (markers, continuations) always pass
+     * @param pid Process id or -1 if unknown
+     * @return Returns whether the line passes the filter
+     */
+    boolean accepts(byte level, int pid) {
+        if (level == LogEntry.LEVEL_UNKNOWN)
+            return true;
+        return level >= minLevel && (this.pid < 0 || pid < 0 || pid == this.pid);
+    }
+
+    /**
+     * Builds the logcat command line for "-v threadtime" output
+     * @param since Only read lines from this "MM-DD HH:MM:SS.mmm" timestamp on (e.g. after a restart) or null for the whole buffer
+     * @return Returns the command and its arguments
+     */
+    public List<String> toCommand(String since) {
+        return toCommand(since, false);
+    }
+
+    /**
+     * Builds the logcat command line
+     * @param since Only read lines from this "MM-DD HH:MM:SS.mmm" timestamp on (e.g. after a restart) or null for the whole buffer
+     * @param binary Whether logcat should write binary entries ("-B") instead of formatted text
+     * @return Returns the command and its arguments
+     */
+    public List<String> toCommand(String since, boolean binary) {
+        List<String> command = new ArrayList<String>();
+        command.add("logcat");
+        if (binary)
+            command.add("-B");
+        else {
+            command.add("-v");
+            command.add("threadtime");
+        }
+        if (buffers != null) {
+            for (String buffer : buffers) {
+                command.add("-b");
+                command.add(buffer);
+            }
+        }
+        if (since != null) {
+            command.add("-T");
+            command.add(since);
+        }
+        if (pid >= 0)
+            command.add("--pid=" + pid);
+        if (minLevel > LogEntry.LEVEL_VERBOSE)
+            command.add("*:" + LogEntry.levelChar(minLevel));
+        return command;
+    }
+
+    /**
+     * Builds the command line that dumps what logcat buffered so far and exits (see Backfill)
+     * @param maxLines Only dump the newest lines, 0 for the whole buffer
+     * @return Returns the command and its arguments
+     */
+    public List<String> toDumpCommand(int maxLines) {
+        List<String> command = toCommand(null, false);
+        command.add(1, "-d");
+        if (maxLines > 0) {
+            command.add(2, "-t");
+            command.add(3, String.valueOf(maxLines));
+        }
+        return command;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SourceFilter))
+            return false;
+        SourceFilter other = (SourceFilter) o;
+        return minLevel == other.minLevel && pid == other.pid && Arrays.equals(buffers, other.buffers);
+    }
+
+    @Override
+    public int hashCode() {
+        return (minLevel * 31 + pid) * 31 + Arrays.hashCode(buffers);
+    }
+}
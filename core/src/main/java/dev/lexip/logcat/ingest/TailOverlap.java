@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat.ingest;
+
+import java.util.Arrays;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Keeps track of the lines stored with the newest timestamp, so logcat can be (re)started at that timestamp
+ * ("logcat -T") without storing anything twice: -T repeats the lines of that very millisecond, skip() recognizes them.
+ * Lines are remembered by a hash of their fields, noting a line does not allocate.
+ * Not thread-safe, meant for the thread that appends to the store.
+ */
+public final class TailOverlap {
+
+    private long lastTimeMillis;
+    // Hashes of the stored lines that carry lastTimeMillis
+    private long[] stored = new long[16];
+    private int storedCount;
+    // Hashes of the lines the restarted tail is expected to repeat
+    private long[] expected = new long[16];
+    private int expectedCount;
+    private boolean skipping;
+
+    /**
+     * Remembers a line that got stored, lines without a time or older than the newest one are ignored
+     */
+    public void noteStored(LogEntry entry) {
+        if (entry.getKind() != LogEntry.KIND_ENTRY)
+            return;
+        long time = entry.getTimeMillis();
+        if (time > lastTimeMillis) {
+            lastTimeMillis = time;
+            storedCount = 0;
+        }
+        if (time == lastTimeMillis) {
+            if (storedCount == stored.length)
+                stored = Arrays.copyOf(stored, storedCount * 2);
+            stored[storedCount++] = hash(entry);
+        }
+    }
+
+    /**
+     * @return Returns the time of the newest stored line, tailing should start there, or 0 if no line had a time
+     */
+    public long getLastTimeMillis() {
+        return lastTimeMillis;
+    }
+
+    /**
+     * Prepares for a tail that starts at getLastTimeMillis(), skip() returns true for its repeated lines from now on
+     */
+    public void restart() {
+        if (expected.length < storedCount)
+            expected = new long[stored.length];
+        System.arraycopy(stored, 0, expected, 0, storedCount);
+        expectedCount = storedCount;
+        skipping = lastTimeMillis > 0;
+    }
+
+    /**
+     * Checks whether a line of the restarted tail got stored already. Only lines at the start of the tail are
+     * checked, everything from the first newer line on is new.
+     * @param entry The parsed line
+     */
+    public boolean skip(LogEntry entry) {
+        if (!skipping)
+            return false;
+        switch (entry.getKind()) {
+            case LogEntry.KIND_MARKER:
+                // Logcat announces the buffers again
+                return true;
+            case LogEntry.KIND_ENTRY:
+                // Lines older than the newest stored one were stored as well
+                long time = entry.getTimeMillis();
+                if (time < lastTimeMillis)
+                    return true;
+                if (time == lastTimeMillis && removeExpected(hash(entry)))
+                    return true;
+                if (time > lastTimeMillis) {
+                    skipping = false;
+                    expectedCount = 0;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return Returns whether the tail has not got past the stored lines yet
+     */
+    public boolean isSkipping() {
+        return skipping;
+    }
+
+    private boolean removeExpected(long hash) {
+        for (int i = 0; i < expectedCount; i++) {
+            if (expected[i] == hash) {
+                expected[i] = expected[--expectedCount];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 64-bit FNV-1a over the fields of a line, the text it was parsed from does not matter
+     */
+    private static long hash(LogEntry entry) {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ entry.getTimeMillis()) * 0x100000001b3L;
+        h = (h ^ entry.getPid()) * 0x100000001b3L;
+        h = (h ^ entry.getTid()) * 0x100000001b3L;
+        h = (h ^ entry.getLevel()) * 0x100000001b3L;
+        CharSequence tagSource = entry.getTagSource();
+        for (int i = entry.getTagStart(), end = entry.getTagEnd(); i < end; i++)
+            h = (h ^ tagSource.charAt(i)) * 0x100000001b3L;
+        // Separates the tag from the message
+        h = (h ^ 0xffff) * 0x100000001b3L;
+        CharSequence line = entry.getLine();
+        for (int i = entry.getMessageStart(), end = entry.getMessageEnd(); i < end; i++)
+            h = (h ^ line.charAt(i)) * 0x100000001b3L;
+        return h;
+    }
+}
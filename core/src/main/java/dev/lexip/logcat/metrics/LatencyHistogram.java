@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.metrics;
+
+/**
+ * Histogram of durations in power-of-two buckets, cheap enough to be fed from hot paths.
+ * Percentiles are reported as the upper bound of their bucket, i.e. with an error of at most 2x.
+ * Instances are not thread-safe; record from one thread and read on that same thread.
+ */
+public final class LatencyHistogram {
+
+    // Bucket i holds durations in [2^(i-1), 2^i) ns, bucket 0 holds 0
+    private static final int BUCKETS = 64;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sumNanos;
+    private long maxNanos;
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts[64 - Long.numberOfLeadingZeros(nanos)]++;
+        count++;
+        sumNanos += nanos;
+        if (nanos > maxNanos)
+            maxNanos = nanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : sumNanos / count;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Returns the upper bound of the bucket that contains the percentile, 0 if nothing got recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1))
+                return i == 0 ? 0 : Math.min(maxNanos, (1L << i) - 1);
+        }
+        return maxNanos;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = 0;
+        count = 0;
+        sumNanos = 0;
+        maxNanos = 0;
+    }
+}
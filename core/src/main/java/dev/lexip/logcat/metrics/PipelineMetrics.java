@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.metrics;
+
+/**
+ * Counters and histograms of the whole pipeline: reading, queueing, parsing, filtering and rendering.
+ * Hot paths only bump counters or record sampled durations; gauges and rates are updated by sample(),
+ * which the UI calls about once per second. onParsed() and onProcessed() belong to the ingesting thread, all other
+ * methods are meant for the UI thread; values of further threads (lines read, dropped lines) are passed in as totals.
+ * Reports read the ingesting thread's histogram without locking, so they might be off by the latest few samples.
+ * Startup times are recorded once, by whichever thread reaches the milestone.
+ */
+public final class PipelineMetrics {
+
+    /** Only every n-th parsed line gets timed, reading the clock for every line would cost more than parsing */
+    public static final int PARSE_SAMPLE_INTERVAL = 64;
+
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram filterLatency = new LatencyHistogram();
+    private final LatencyHistogram endToEndLag = new LatencyHistogram();
+
+    private final RateMeter readRate = new RateMeter();
+    private final RateMeter processedRate = new RateMeter();
+    private final RateMeter renderedRate = new RateMeter();
+
+    private long linesRead;
+    private volatile long linesProcessed;
+    private long rowsRendered;
+    private long droppedLines;
+    private int queueDepth;
+    private int maxQueueDepth;
+    private long storeBytes;
+    private long indexBytes;
+
+    // Startup milestones relative to the start of capturing, -1 until reached
+    private volatile int backfillLines;
+    private volatile long backfillNanos = -1;
+    private volatile long firstScreenNanos = -1;
+    private volatile long liveNanos = -1;
+
+    private final long frameIntervalNanos;
+    private long lastFrameNanos;
+    private long frames;
+    private long droppedFrames;
+
+    /**
+     * @param frameIntervalNanos Refresh interval of the display, e.g. 16_666_667 for 60 Hz
+     */
+    public PipelineMetrics(long frameIntervalNanos) {
+        this.frameIntervalNanos = frameIntervalNanos;
+    }
+
+    /**
+     * Counts the frames that were skipped since the previous one
+     * @param frameTimeNanos Time of the frame from the Choreographer
+     */
+    public void onFrame(long frameTimeNanos) {
+        if (lastFrameNanos != 0) {
+            long gap = frameTimeNanos - lastFrameNanos;
+            // Half a frame of tolerance for vsync jitter
+            if (gap > frameIntervalNanos + frameIntervalNanos / 2)
+                droppedFrames += (gap + frameIntervalNanos / 2) / frameIntervalNanos - 1;
+        }
+        lastFrameNanos = frameTimeNanos;
+        frames++;
+    }
+
+    /**
+     * Forgets the last frame, e.g. when frames stop because the activity got paused or nothing changed
+     */
+    public void onFramesStopped() {
+        lastFrameNanos = 0;
+    }
+
+    public void onParsed(long nanos) {
+        parseLatency.record(nanos);
+    }
+
+    public void onProcessed(int lines) {
+        linesProcessed += lines;
+    }
+
+    public void onRendered(int rows) {
+        rowsRendered += rows;
+    }
+
+    public void onFiltered(long nanos) {
+        filterLatency.record(nanos);
+    }
+
+    /**
+     * Records how long after its logcat timestamp a line got displayed
+     * @param logTimeMillis Timestamp of the line
+     * @param nowMillis Current wall clock time
+     */
+    public void onDisplayed(long logTimeMillis, long nowMillis) {
+        if (logTimeMillis != 0)
+            endToEndLag.record((nowMillis - logTimeMillis) * 1_000_000L);
+    }
+
+    /**
+     * Records that the lines logcat buffered before capturing started are stored
+     * @param lines Number of loaded lines
+     * @param nanos Time since capturing started
+     */
+    public void onBackfilled(int lines, long nanos) {
+        backfillLines = lines;
+        backfillNanos = nanos;
+    }
+
+    /**
+     * Records that the first rows got shown, only the first call counts
+     * @param nanos Time since capturing started
+     */
+    public void onFirstScreen(long nanos) {
+        if (firstScreenNanos < 0)
+            firstScreenNanos = nanos;
+    }
+
+    public boolean hasFirstScreen() {
+        return firstScreenNanos >= 0;
+    }
+
+    /**
+     * Records that the first line logged after the backfill got stored, only the first call counts
+     * @param nanos Time since capturing started
+     */
+    public void onLive(long nanos) {
+        if (liveNanos < 0)
+            liveNanos = nanos;
+    }
+
+    /**
+     * Updates rates and gauges
+     * @param linesRead Lines read from logcat so far
+     * @param droppedLines Lines dropped by the overload policy so far
+     */
+    public void sample(long nowNanos, long linesRead, int queueDepth, long droppedLines, long storeBytes, long indexBytes) {
+        this.linesRead = linesRead;
+        this.queueDepth = queueDepth;
+        maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+        this.droppedLines = droppedLines;
+        this.storeBytes = storeBytes;
+        this.indexBytes = indexBytes;
+        readRate.sample(linesRead, nowNanos);
+        processedRate.sample(linesProcessed, nowNanos);
+        renderedRate.sample(rowsRendered, nowNanos);
+    }
+
+    public LatencyHistogram getParseLatency() {
+        return parseLatency;
+    }
+
+    public LatencyHistogram getFilterLatency() {
+        return filterLatency;
+    }
+
+    public LatencyHistogram getEndToEndLag() {
+        return endToEndLag;
+    }
+
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    public long getLinesProcessed() {
+        return linesProcessed;
+    }
+
+    public long getRowsRendered() {
+        return rowsRendered;
+    }
+
+    public long getDroppedLines() {
+        return droppedLines;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getBackfillNanos() {
+        return backfillNanos;
+    }
+
+    public long getFirstScreenNanos() {
+        return firstScreenNanos;
+    }
+
+    public long getLiveNanos() {
+        return liveNanos;
+    }
+
+    /**
+     * Appends a human readable report, one metric per line
+     */
+    public void appendReport(StringBuilder sb) {
+        sb.append("read       ").append(Math.round(readRate.getPerSecond())).append(" lines/s (").append(linesRead).append(")\n");
+        sb.append("processed  ").append(Math.round(processedRate.getPerSecond())).append(" lines/s (").append(linesProcessed).append(")\n");
+        sb.append("rendered   ").append(Math.round(renderedRate.getPerSecond())).append(" rows/s (").append(rowsRendered).append(")\n");
+        sb.append("queue      ").append(queueDepth).append(" (max ").append(maxQueueDepth).append(")\n");
+        sb.append("dropped    ").append(droppedLines).append(" lines, ").append(droppedFrames).append(" of ")
+                .append(frames).append(" frames\n");
+        appendHistogram(sb, "lag", endToEndLag, 1_000_000L, "ms");
+        appendHistogram(sb, "parse", parseLatency, 1L, "ns");
+        appendHistogram(sb, "filter", filterLatency, 1_000_000L, "ms");
+        sb.append("memory     ").append(storeBytes / 1024).append(" KB store, ").append(indexBytes / 1024).append(" KB indexes\n");
+        sb.append("startup    backfill ").append(backfillLines).append(" lines in ");
+        appendMillis(sb, backfillNanos);
+        sb.append(", first screen ");
+        appendMillis(sb, firstScreenNanos);
+        sb.append(", live ");
+        appendMillis(sb, liveNanos);
+        sb.append('\n');
+    }
+
+    private static void appendMillis(StringBuilder sb, long nanos) {
+        if (nanos < 0)
+            sb.append('-');
+        else
+            sb.append(nanos / 1_000_000L).append(" ms");
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, LatencyHistogram histogram, long unitNanos, String unit) {
+        sb.append(name);
+        for (int i = name.length(); i < 11; i++)
+            sb.append(' ');
+        sb.append("p50 ").append(histogram.getPercentileNanos(50) / unitNanos)
+                .append(" p95 ").append(histogram.getPercentileNanos(95) / unitNanos)
+                .append(" p99 ").append(histogram.getPercentileNanos(99) / unitNanos)
+                .append(" max ").append(histogram.getMaxNanos() / unitNanos).append(' ').append(unit)
+                .append(" (").append(histogram.getCount()).append(")\n");
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.metrics;
+
+/**
+ * Turns a growing total (e.g. lines read so far) into a per-second rate between two samples
+ */
+public final class RateMeter {
+
+    private long lastTotal;
+    private long lastNanos;
+    private double perSecond;
+
+    /**
+     * @param total Current total
+     * @param nowNanos Current System.nanoTime()
+     */
+    public void sample(long total, long nowNanos) {
+        if (lastNanos != 0 && nowNanos > lastNanos)
+            perSecond = (total - lastTotal) * 1e9 / (nowNanos - lastNanos);
+        lastTotal = total;
+        lastNanos = nowNanos;
+    }
+
+    /**
+     * @return Returns the rate between the last two samples
+     */
+    public double getPerSecond() {
+        return perSecond;
+    }
+}
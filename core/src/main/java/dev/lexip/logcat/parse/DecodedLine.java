@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat.parse;
+
+import java.util.TimeZone;
+
+/**
+ * A line whose fields are known already, e.g. one line of a binary ("logcat -B") entry. It is queued like a text
+ * line, but LogParser copies its fields into the LogEntry instead of scanning text, so nothing is formatted just
+ * to be parsed again. The "-v threadtime" text is only built when the characters are asked for.
+ */
+public final class DecodedLine implements CharSequence {
+
+    private final long timeMillis;
+    private final int pid;
+    private final int tid;
+    private final byte level;
+    private final String tag;
+    private final String message;
+    private String text;
+
+    /**
+     * @param timeMillis Timestamp in epoch milliseconds
+     * @param level Level (LogEntry.LEVEL_*)
+     * @param message One line of the message, without line breaks
+     */
+    public DecodedLine(long timeMillis, int pid, int tid, byte level, String tag, String message) {
+        this.timeMillis = timeMillis;
+        this.pid = pid;
+        this.tid = tid;
+        this.level = level;
+        this.tag = tag;
+        this.message = message;
+    }
+
+    /**
+     * Fills an entry like parsing the formatted line would, the entry addresses the tag and the message directly
+     */
+    void fill(LogEntry entry) {
+        entry.reset(message);
+        entry.kind = LogEntry.KIND_ENTRY;
+        entry.tagSource = tag;
+        entry.timeMillis = timeMillis;
+        entry.pid = pid;
+        entry.tid = tid;
+        entry.level = level;
+        entry.tagStart = 0;
+        entry.tagEnd = tag.length();
+    }
+
+    @Override
+    public int length() {
+        return toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    /**
+     * @return Returns the line like "-v threadtime" prints it, in the default time zone
+     */
+    @Override
+    public String toString() {
+        if (text == null) {
+            StringBuilder sb = new StringBuilder(32 + tag.length() + message.length());
+            new LogTime(TimeZone.getDefault()).appendTimestamp(sb, timeMillis);
+            sb.append(' ');
+            pad(sb, pid);
+            sb.append(' ');
+            pad(sb, tid);
+            sb.append(' ').append(LogEntry.levelChar(level)).append(' ').append(tag).append(": ").append(message);
+            text = sb.toString();
+        }
+        return text;
+    }
+
+    private static void pad(StringBuilder sb, int value) {
+        int digits = Integer.toString(value).length();
+        for (int i = digits; i < 5; i++)
+            sb.append(' ');
+        sb.append(value);
+    }
+}
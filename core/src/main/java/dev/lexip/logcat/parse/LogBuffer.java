@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat.parse;
+
+/**
+ * Ids of logcat's buffers, so a row can remember the buffer it was read from in a single byte
+ */
+public final class LogBuffer {
+
+    /** Read without telling the buffers apart, e.g. logcat's default buffers through a single process */
+    public static final byte DEFAULT = 0;
+    public static final byte MAIN = 1;
+    public static final byte SYSTEM = 2;
+    public static final byte CRASH = 3;
+    public static final byte EVENTS = 4;
+    public static final byte RADIO = 5;
+    public static final byte KERNEL = 6;
+    public static final byte SECURITY = 7;
+    public static final byte STATS = 8;
+
+    /** Mask of all buffers, see bit() */
+    public static final int ALL = (1 << (STATS + 1)) - 1;
+
+    // Names as logcat's "-b" option expects them, indexed by id
+    private static final String[] NAMES = {"", "main", "system", "crash", "events", "radio", "kernel", "security", "stats"};
+
+    private LogBuffer() {
+    }
+
+    /**
+     * @param name Name as passed to logcat's "-b" option, e.g. "crash"
+     * @return Returns the id of the buffer or DEFAULT if the name is unknown
+     */
+    public static byte of(String name) {
+        for (byte id = MAIN; id < NAMES.length; id++) {
+            if (NAMES[id].equals(name))
+                return id;
+        }
+        return DEFAULT;
+    }
+
+    /**
+     * @return Returns the name logcat knows the buffer by, or an empty string for DEFAULT
+     */
+    public static String nameOf(byte buffer) {
+        return buffer >= 0 && buffer < NAMES.length ? NAMES[buffer] : "";
+    }
+
+    /**
+     * @return Returns the bit of a buffer within a buffer mask
+     */
+    public static int bit(byte buffer) {
+        return 1 << buffer;
+    }
+}
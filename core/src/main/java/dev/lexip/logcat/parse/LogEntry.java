@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.parse;
+
+/**
+ * Reusable result of parsing one logcat line.
+ * Tag and message are not copied but addressed by offsets into the parsed line.
+ */
+public final class LogEntry {
+
+    /** Regular report with a header */
+    public static final int KIND_ENTRY = 0;
+    /** Special entries like "--------- beginning of main" */
+    public static final int KIND_MARKER = 1;
+    /** Line without a header of its own, e.g. a malformed line or the continuation of the previous report */
+    public static final int KIND_CONTINUATION = 2;
+    /** Line that carries nothing to show, e.g. a "-v long" header or the blank line after it */
+    public static final int KIND_SKIP = 3;
+
+    // Same values as android.util.Log
+    public static final byte LEVEL_UNKNOWN = 0;
+    public static final byte LEVEL_VERBOSE = 2;
+    public static final byte LEVEL_DEBUG = 3;
+    public static final byte LEVEL_INFO = 4;
+    public static final byte LEVEL_WARN = 5;
+    public static final byte LEVEL_ERROR = 6;
+    public static final byte LEVEL_FATAL = 7;
+
+    CharSequence line;
+    // Usually the line itself, but "-v long" reports carry their tag in a separate header line
+    CharSequence tagSource;
+    int kind;
+    long timeMillis;
+    int pid;
+    int tid;
+    byte level;
+    int tagStart;
+    int tagEnd;
+    int messageStart;
+    int messageEnd;
+    // Not touched by parsing, whoever reads the line knows its buffer
+    byte buffer;
+
+    void reset(CharSequence line) {
+        this.line = line;
+        tagSource = line;
+        kind = KIND_CONTINUATION;
+        timeMillis = 0;
+        pid = -1;
+        tid = -1;
+        level = LEVEL_UNKNOWN;
+        tagStart = tagEnd = 0;
+        messageStart = 0;
+        messageEnd = line.length();
+    }
+
+    public CharSequence getLine() {
+        return line;
+    }
+
+    /**
+     * @return Returns the sequence the tag offsets refer to
+     */
+    public CharSequence getTagSource() {
+        return tagSource;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Returns the timestamp in epoch milliseconds or 0 if the line did not carry one
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return Returns the process id or -1 if the line did not carry one
+     */
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * @return Returns the thread id or -1 if the line did not carry one
+     */
+    public int getTid() {
+        return tid;
+    }
+
+    public byte getLevel() {
+        return level;
+    }
+
+    /**
+     * @return Returns the buffer the line was read from (LogBuffer.*)
+     */
+    public byte getBuffer() {
+        return buffer;
+    }
+
+    public void setBuffer(byte buffer) {
+        this.buffer = buffer;
+    }
+
+    public int getTagStart() {
+        return tagStart;
+    }
+
+    public int getTagEnd() {
+        return tagEnd;
+    }
+
+    public int getMessageStart() {
+        return messageStart;
+    }
+
+    public int getMessageEnd() {
+        return messageEnd;
+    }
+
+    /**
+     * @return Returns a copy of the tag, only meant for code outside the hot path
+     */
+    public String getTag() {
+        return tagSource.subSequence(tagStart, tagEnd).toString();
+    }
+
+    /**
+     * @return Returns a copy of the message, only meant for code outside the hot path
+     */
+    public String getMessage() {
+        return line.subSequence(messageStart, messageEnd).toString();
+    }
+
+    /**
+     * Converts a logcat priority character to a level
+     * @param c Priority character like 'D' or 'E'
+     * @return Returns the level or LEVEL_UNKNOWN
+     */
+    public static byte levelOf(char c) {
+        switch (c) {
+            case 'V': return LEVEL_VERBOSE;
+            case 'D': return LEVEL_DEBUG;
+            case 'I': return LEVEL_INFO;
+            case 'W': return LEVEL_WARN;
+            case 'E': return LEVEL_ERROR;
+            case 'F':
+            case 'A': return LEVEL_FATAL;
+            default: return LEVEL_UNKNOWN;
+        }
+    }
+
+    /**
+     * Converts a level back to its category character
+     * @param level Level like LEVEL_DEBUG
+     * @return Returns the character like 'D' or 'X' for unknown levels
+     */
+    public static char levelChar(byte level) {
+        switch (level) {
+            case LEVEL_VERBOSE: return 'V';
+            case LEVEL_DEBUG: return 'D';
+            case LEVEL_INFO: return 'I';
+            case LEVEL_WARN: return 'W';
+            case LEVEL_ERROR: return 'E';
+            case LEVEL_FATAL: return 'F';
+            default: return 'X';
+        }
+    }
+}
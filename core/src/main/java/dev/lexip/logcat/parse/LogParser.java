@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.parse;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Single-pass parser for logcat's "threadtime" (default), "time", "brief" and "long" output formats.
+ * Each line is scanned once and the results are written into a reusable {@link LogEntry} without creating Strings.
+ * An instance is stateful ("-v long" spreads a report over several lines) and must only be used by one thread.
+ */
+public final class LogParser {
+
+    public static final String MARKER_PREFIX = "--------- ";
+
+    private final LogTime logTime;
+    private final int year;
+
+    // Header of the current "-v long" report
+    private boolean inLongReport;
+    private long longTimeMillis;
+    private int longPid;
+    private int longTid;
+    private byte longLevel;
+    private String longTag;
+
+    public LogParser() {
+        this(TimeZone.getDefault(), Calendar.getInstance().get(Calendar.YEAR));
+    }
+
+    /**
+     * @param timeZone Time zone the device prints its timestamps in
+     * @param year Year to assume for timestamps that do not contain one
+     */
+    public LogParser(TimeZone timeZone, int year) {
+        this.logTime = new LogTime(timeZone);
+        this.year = year;
+    }
+
+    /**
+     * Parses one line of logcat output
+     * @param line Line without its line break
+     * @param entry Reusable entry that receives the result
+     * @return Returns the kind of the line, see LogEntry.KIND_*
+     */
+    public int parse(CharSequence line, LogEntry entry) {
+        if (line instanceof DecodedLine) {
+            inLongReport = false;
+            ((DecodedLine) line).fill(entry);
+            return entry.kind;
+        }
+        entry.reset(line);
+        int length = line.length();
+
+        if (length == 0) {
+            // A blank line terminates a "-v long" report
+            if (inLongReport) {
+                inLongReport = false;
+                entry.kind = LogEntry.KIND_SKIP;
+            }
+            return entry.kind;
+        }
+
+        char first = line.charAt(0);
+        if (first == '-' && startsWith(line, MARKER_PREFIX)) {
+            inLongReport = false;
+            entry.kind = LogEntry.KIND_MARKER;
+            entry.messageStart = MARKER_PREFIX.length();
+            return entry.kind;
+        }
+
+        if (first >= '0' && first <= '9') {
+            if (parseThreadtime(line, entry))
+                return entry.kind = LogEntry.KIND_ENTRY;
+        }
+        else if (first == '[') {
+            if (parseLongHeader(line, entry))
+                return entry.kind = LogEntry.KIND_SKIP;
+        }
+        else if (parseBrief(line, 0, entry))
+            return entry.kind = LogEntry.KIND_ENTRY;
+
+        entry.reset(line);
+        if (inLongReport) {
+            entry.timeMillis = longTimeMillis;
+            entry.pid = longPid;
+            entry.tid = longTid;
+            entry.level = longLevel;
+            entry.tagSource = longTag;
+            entry.tagEnd = longTag.length();
+            entry.kind = LogEntry.KIND_ENTRY;
+        }
+        return entry.kind;
+    }
+
+    /**
+     * "05-12 10:11:12.123  1234  1256 D Tag     : Message" or "-v time" without the thread id
+     */
+    private boolean parseThreadtime(CharSequence s, LogEntry e) {
+        int p = parseTimestamp(s, 0, e);
+        if (p < 0)
+            return false;
+        p = skipSpaces(s, p);
+
+        // "-v time" continues with "D/Tag( 1234): Message"
+        if (p < s.length() && (s.charAt(p) < '0' || s.charAt(p) > '9'))
+            return parseBrief(s, p, e);
+
+        int start = p;
+        int pid = 0;
+        for (; p < s.length() && s.charAt(p) >= '0' && s.charAt(p) <= '9'; p++)
+            pid = pid * 10 + (s.charAt(p) - '0');
+        if (p == start)
+            return false;
+        p = skipSpaces(s, p);
+
+        start = p;
+        int tid = 0;
+        for (; p < s.length() && s.charAt(p) >= '0' && s.charAt(p) <= '9'; p++)
+            tid = tid * 10 + (s.charAt(p) - '0');
+        if (p == start || p >= s.length() || s.charAt(p) != ' ')
+            return false;
+        p = skipSpaces(s, p);
+
+        if (p + 1 >= s.length() || s.charAt(p + 1) != ' ')
+            return false;
+        byte level = LogEntry.levelOf(s.charAt(p));
+        if (level == LogEntry.LEVEL_UNKNOWN)
+            return false;
+
+        if (!parseTagAndMessage(s, p + 2, e))
+            return false;
+        e.pid = pid;
+        e.tid = tid;
+        e.level = level;
+        return true;
+    }
+
+    /**
+     * "D/Tag( 1234): Message" ("-v brief") or "D/Tag: Message" ("-v tag"), starting at the passed position
+     */
+    private boolean parseBrief(CharSequence s, int p, LogEntry e) {
+        if (p + 2 >= s.length() || s.charAt(p + 1) != '/')
+            return false;
+        byte level = LogEntry.levelOf(s.charAt(p));
+        if (level == LogEntry.LEVEL_UNKNOWN)
+            return false;
+        if (!parseTagAndMessage(s, p + 2, e))
+            return false;
+
+        // Extract the pid from a "Tag( 1234)" suffix
+        int end = e.tagEnd;
+        if (end > e.tagStart && s.charAt(end - 1) == ')') {
+            int q = end - 2;
+            int pid = 0;
+            int factor = 1;
+            for (; q > e.tagStart && s.charAt(q) >= '0' && s.charAt(q) <= '9'; q--) {
+                pid += (s.charAt(q) - '0') * factor;
+                factor *= 10;
+            }
+            if (factor > 1) {
+                while (q > e.tagStart && s.charAt(q) == ' ')
+                    q--;
+                if (s.charAt(q) == '(') {
+                    e.pid = pid;
+                    e.tagEnd = trimEnd(s, e.tagStart, q);
+                }
+            }
+        }
+        e.level = level;
+        return true;
+    }
+
+    /**
+     * "[ 05-12 10:11:12.123  1234: 1256 D/Tag ]", the message follows in the next lines
+     */
+    private boolean parseLongHeader(CharSequence s, LogEntry e) {
+        int length = s.length();
+        if (length < 4 || s.charAt(length - 1) != ']')
+            return false;
+        int p = parseTimestamp(s, skipSpaces(s, 1), e);
+        if (p < 0)
+            return false;
+        p = skipSpaces(s, p);
+
+        int start = p;
+        int pid = 0;
+        for (; p < length && s.charAt(p) >= '0' && s.charAt(p) <= '9'; p++)
+            pid = pid * 10 + (s.charAt(p) - '0');
+        if (p == start || p >= length || s.charAt(p) != ':')
+            return false;
+        p = skipSpaces(s, p + 1);
+
+        // Older versions print the thread id in hex
+        int tid = 0;
+        start = p;
+        if (p + 1 < length && s.charAt(p) == '0' && s.charAt(p + 1) == 'x') {
+            for (p += 2; p < length && Character.digit(s.charAt(p), 16) >= 0; p++)
+                tid = tid * 16 + Character.digit(s.charAt(p), 16);
+        }
+        else {
+            for (; p < length && s.charAt(p) >= '0' && s.charAt(p) <= '9'; p++)
+                tid = tid * 10 + (s.charAt(p) - '0');
+        }
+        if (p == start)
+            return false;
+        p = skipSpaces(s, p);
+
+        if (p + 1 >= length || s.charAt(p + 1) != '/')
+            return false;
+        byte level = LogEntry.levelOf(s.charAt(p));
+        if (level == LogEntry.LEVEL_UNKNOWN)
+            return false;
+
+        inLongReport = true;
+        longTimeMillis = e.timeMillis;
+        longPid = pid;
+        longTid = tid;
+        longLevel = level;
+        longTag = s.subSequence(p + 2, trimEnd(s, p + 2, length - 1)).toString();
+        return true;
+    }
+
+    /**
+     * Splits "Tag     : Message" at the first ": " (or a trailing ':')
+     */
+    private static boolean parseTagAndMessage(CharSequence s, int p, LogEntry e) {
+        int length = s.length();
+        for (int i = p; i < length; i++) {
+            if (s.charAt(i) != ':')
+                continue;
+            if (i + 1 == length) {
+                e.messageStart = length;
+            }
+            else if (s.charAt(i + 1) == ' ') {
+                e.messageStart = i + 2;
+            }
+            else
+                continue;
+            e.tagStart = p;
+            e.tagEnd = trimEnd(s, p, i);
+            e.messageEnd = length;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parses "[YYYY-]MM-DD HH:MM:SS.fff[fff]" into e.timeMillis
+     * @return Returns the position after the timestamp or -1 if there is none
+     */
+    private int parseTimestamp(CharSequence s, int p, LogEntry e) {
+        int year = this.year;
+        if (p + 4 < s.length() && s.charAt(p + 4) == '-') {
+            year = digits(s, p, 4);
+            if (year < 0)
+                return -1;
+            p += 5;
+        }
+        // The fraction's separator is the last fixed character, a line may end right before it
+        if (p + 15 > s.length()
+                || s.charAt(p + 2) != '-' || s.charAt(p + 5) != ' '
+                || s.charAt(p + 8) != ':' || s.charAt(p + 11) != ':' || s.charAt(p + 14) != '.')
+            return -1;
+        int month = digits(s, p, 2);
+        int day = digits(s, p + 3, 2);
+        int hour = digits(s, p + 6, 2);
+        int minute = digits(s, p + 9, 2);
+        int second = digits(s, p + 12, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60)
+            return -1;
+
+        // Fraction of any precision ("-v usec", "-v nsec"), truncated to milliseconds
+        p += 15;
+        int millis = 0;
+        int fractionDigits = 0;
+        for (; p < s.length() && s.charAt(p) >= '0' && s.charAt(p) <= '9'; p++, fractionDigits++) {
+            if (fractionDigits < 3)
+                millis = millis * 10 + (s.charAt(p) - '0');
+        }
+        if (fractionDigits == 0)
+            return -1;
+        for (; fractionDigits < 3; fractionDigits++)
+            millis *= 10;
+
+        e.timeMillis = logTime.toEpochMillis(year, month, day, hour, minute, second, millis);
+        return p;
+    }
+
+    private static int digits(CharSequence s, int p, int count) {
+        int value = 0;
+        for (int i = p; i < p + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int skipSpaces(CharSequence s, int p) {
+        while (p < s.length() && s.charAt(p) == ' ')
+            p++;
+        return p;
+    }
+
+    private static int trimEnd(CharSequence s, int start, int end) {
+        while (end > start && s.charAt(end - 1) == ' ')
+            end--;
+        return end;
+    }
+
+    private static boolean startsWith(CharSequence s, String prefix) {
+        if (s.length() < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(i) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
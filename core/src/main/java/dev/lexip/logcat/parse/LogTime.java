@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.parse;
+
+import java.util.TimeZone;
+
+/**
+ * Allocation-free conversion between logcat's local "MM-DD HH:MM:SS.mmm" timestamps and epoch milliseconds.
+ * An instance caches per minute and must only be used by one thread.
+ */
+public final class LogTime {
+
+    private static final long MILLIS_PER_MINUTE = 60_000L;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final TimeZone timeZone;
+
+    // Epoch millis of the start of the most recently converted minute
+    private long cachedMinuteKey = -1;
+    private long cachedMinuteMillis;
+
+    // "MM-DD HH:MM" of the most recently formatted minute
+    private long formattedMinute = Long.MIN_VALUE;
+    private final char[] formattedPrefix = new char[11];
+
+    public LogTime(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Converts a local timestamp to epoch milliseconds.
+     * Consecutive log lines almost always share the minute, so the time zone lookup is cached per minute.
+     * @return Returns the epoch milliseconds
+     */
+    public long toEpochMillis(int year, int month, int day, int hour, int minute, int second, int millis) {
+        long key = (((year * 13L + month) * 32 + day) * 24 + hour) * 60 + minute;
+        if (key != cachedMinuteKey) {
+            long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY + (hour * 60L + minute) * MILLIS_PER_MINUTE;
+            cachedMinuteMillis = local - timeZone.getOffset(local - timeZone.getOffset(local));
+            cachedMinuteKey = key;
+        }
+        return cachedMinuteMillis + second * 1000L + millis;
+    }
+
+    /**
+     * Appends a timestamp in logcat's local "MM-DD HH:MM:SS.mmm" format
+     * @param sb Target
+     * @param millis Epoch milliseconds
+     */
+    public void appendTimestamp(StringBuilder sb, long millis) {
+        long minute = floorDiv(millis, MILLIS_PER_MINUTE);
+        if (minute != formattedMinute) {
+            long local = minute * MILLIS_PER_MINUTE + timeZone.getOffset(millis);
+            long days = floorDiv(local, MILLIS_PER_DAY);
+            int minuteOfDay = (int) ((local - days * MILLIS_PER_DAY) / MILLIS_PER_MINUTE);
+            int monthAndDay = monthAndDayFromDays(days);
+            putTwoDigits(formattedPrefix, 0, monthAndDay / 100);
+            formattedPrefix[2] = '-';
+            putTwoDigits(formattedPrefix, 3, monthAndDay % 100);
+            formattedPrefix[5] = ' ';
+            putTwoDigits(formattedPrefix, 6, minuteOfDay / 60);
+            formattedPrefix[8] = ':';
+            putTwoDigits(formattedPrefix, 9, minuteOfDay % 60);
+            formattedMinute = minute;
+        }
+        int millisOfMinute = (int) (millis - minute * MILLIS_PER_MINUTE);
+        int second = millisOfMinute / 1000;
+        int fraction = millisOfMinute % 1000;
+        sb.append(formattedPrefix).append(':')
+                .append((char) ('0' + second / 10)).append((char) ('0' + second % 10)).append('.')
+                .append((char) ('0' + fraction / 100)).append((char) ('0' + fraction / 10 % 10)).append((char) ('0' + fraction % 10));
+    }
+
+    /**
+     * Parses a local time of day like "14:03", "14:03:27" or "14:03:27.120", e.g. to jump to it
+     * @param text Text that may be surrounded by whitespace
+     * @param nearMillis Epoch milliseconds to pick the day by, e.g. the time of the newest line
+     * @return Returns the epoch milliseconds of that time on the day closest to nearMillis, or -1 if the text is no time
+     */
+    public long parseTimeOfDay(String text, long nearMillis) {
+        int[] fields = new int[4];
+        int field = 0;
+        int digits = 0;
+        text = text.trim();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9' && digits < (field == 3 ? 3 : 2)) {
+                fields[field] = fields[field] * 10 + (c - '0');
+                digits++;
+            }
+            else if (digits > 0 && ((c == ':' && field < 2) || (c == '.' && field == 2))) {
+                field++;
+                digits = 0;
+            }
+            else
+                return -1;
+        }
+        if (field == 0 || digits == 0 || fields[0] > 23 || fields[1] > 59 || fields[2] > 59)
+            return -1;
+        if (field == 3)
+            for (; digits < 3; digits++)
+                fields[3] *= 10;
+        long millisOfDay = ((fields[0] * 60L + fields[1]) * 60 + fields[2]) * 1000 + fields[3];
+
+        long day = floorDiv(nearMillis + timeZone.getOffset(nearMillis), MILLIS_PER_DAY);
+        long best = -1;
+        for (long d = day - 1; d <= day + 1; d++) {
+            long local = d * MILLIS_PER_DAY + millisOfDay;
+            long millis = local - timeZone.getOffset(local - timeZone.getOffset(local));
+            if (best == -1 || Math.abs(millis - nearMillis) < Math.abs(best - nearMillis))
+                best = millis;
+        }
+        return best;
+    }
+
+    // Math.floorDiv needs API level 24
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    private static void putTwoDigits(char[] target, int offset, int value) {
+        target[offset] = (char) ('0' + value / 10);
+        target[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * @return Returns month * 100 + day of the date that lies the passed number of days after 1970-01-01
+     */
+    static int monthAndDayFromDays(long days) {
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        return month * 100 + day;
+    }
+
+    /**
+     * @return Returns the number of days between 1970-01-01 and the passed date of the proleptic Gregorian calendar
+     */
+    public static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
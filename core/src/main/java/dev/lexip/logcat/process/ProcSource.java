@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat.process;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Reads processes from /proc. Since Android 7 the processes of other apps are only visible with elevated rights,
+ * the ActivityManager lines read by ProcessResolver fill the gaps. An instance must only be used by one thread.
+ */
+public final class ProcSource implements ProcessResolver.Source {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Field of /proc/<pid>/stat that holds the start time, counted after the closing parenthesis of the name
+    private static final int STAT_START_TIME_FIELD = 20;
+
+    private final String root;
+    private final byte[] buffer = new byte[1024];
+
+    public ProcSource() {
+        this("/proc");
+    }
+
+    /**
+     * @param root Directory with the same layout as /proc
+     */
+    public ProcSource(String root) {
+        this.root = root;
+    }
+
+    @Override
+    public String readName(int pid) {
+        // The command line starts with the process name, kernel threads only have a comm
+        int length = read(root + "/" + pid + "/cmdline");
+        int end = 0;
+        while (end < length && buffer[end] != 0)
+            end++;
+        if (end == 0) {
+            length = read(root + "/" + pid + "/comm");
+            end = length;
+            while (end > 0 && (buffer[end - 1] == '\n' || buffer[end - 1] == 0))
+                end--;
+        }
+        return end <= 0 ? null : new String(buffer, 0, end, UTF_8);
+    }
+
+    @Override
+    public long readStartTime(int pid) {
+        int length = read(root + "/" + pid + "/stat");
+        // The name can contain spaces and parentheses, the fields start after the last ')'
+        int i = length - 1;
+        while (i >= 0 && buffer[i] != ')')
+            i--;
+        if (i < 0)
+            return -1;
+        int field = 0;
+        for (i++; i < length && field < STAT_START_TIME_FIELD; i++) {
+            if (buffer[i] == ' ')
+                field++;
+        }
+        long startTime = 0;
+        int digits = 0;
+        for (; i < length && buffer[i] >= '0' && buffer[i] <= '9'; i++, digits++)
+            startTime = startTime * 10 + buffer[i] - '0';
+        return digits == 0 ? -1 : startTime;
+    }
+
+    /**
+     * @return Returns the number of bytes read into the buffer or -1 if the file cannot be read
+     */
+    private int read(String path) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(path);
+            int length = 0;
+            int n;
+            while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) > 0)
+                length += n;
+            return length;
+        }
+        catch (IOException e) {
+            return -1;
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat.process;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dev.lexip.logcat.store.IntList;
+import dev.lexip.logcat.store.LogStore;
+
+/**
+ * Maps the pids of stored rows to process names (usually the package of an app).
+ * The ingesting thread only calls requestScan() once per batch; a background thread then walks the new rows,
+ * collects the pids it has not resolved yet and looks them up in one batch. Results are kept in a bounded LRU cache
+ * and names are interned, so all pids of an app share one String.
+ * A pid that gets reused by a new process is noticed by its changed start time, which is checked again once an entry
+ * is older than REVALIDATE_MILLIS, or right away when ActivityManager logs that it started a process with that pid.
+ */
+public final class ProcessResolver {
+
+    /**
+     * Looks up processes, e.g. in /proc (see ProcSource)
+     */
+    public interface Source {
+        /**
+         * @return Returns the name of a running process or null if there is none with this pid (or it is hidden)
+         */
+        String readName(int pid);
+
+        /**
+         * @return Returns the start time of a running process in any unit or -1 if it is unknown
+         */
+        long readStartTime(int pid);
+    }
+
+    public interface Listener {
+        /** Names of some pids got resolved or changed */
+        void onProcessesChanged();
+    }
+
+    // Entries older than this get their start time checked again when the pid shows up
+    static final long REVALIDATE_MILLIS = 10_000;
+    // Pids that could not be resolved are tried again after this long
+    static final long RETRY_MILLIS = 5_000;
+    // Rows scanned per acquisition of the store's lock
+    private static final int CHUNK_ROWS = 8192;
+    private static final String ACTIVITY_MANAGER = "ActivityManager";
+    private static final String START_PROC = "Start proc ";
+
+    private final LogStore store;
+    private final Source source;
+    private final Executor executor;
+    private final Executor callbackExecutor;
+    private final Listener listener;
+    private final int activityManagerTag;
+    private final AtomicBoolean scanPending = new AtomicBoolean();
+    private final Runnable scanTask = new Runnable() {
+        @Override
+        public void run() {
+            scanPending.set(false);
+            scan();
+        }
+    };
+
+    // Guarded by this
+    private final LinkedHashMap<Integer, Entry> cache;
+    private final HashMap<String, String> names = new HashMap<String, String>();
+
+    // Only used by the background thread
+    private int scannedRow;
+    private final IntList unresolved = new IntList();
+    private final StringBuilder messageBuilder = new StringBuilder();
+
+    /**
+     * @param capacity Number of pids to keep at most
+     * @param callbackExecutor Executor the listener is called on, usually the main thread
+     */
+    public ProcessResolver(LogStore store, Source source, int capacity, Executor callbackExecutor, Listener listener) {
+        this(store, source, capacity, Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ProcessResolver");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        }), callbackExecutor, listener);
+    }
+
+    ProcessResolver(LogStore store, Source source, final int capacity, Executor executor, Executor callbackExecutor, Listener listener) {
+        this.store = store;
+        this.source = source;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+        this.listener = listener;
+        activityManagerTag = store.internTag(ACTIVITY_MANAGER);
+        cache = new LinkedHashMap<Integer, Entry>(Math.min(capacity, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ProcessResolver.Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Resolves the pids of the rows that got appended since the last scan, in the background.
+     * Cheap enough to call after every batch, requests while a scan is pending are merged.
+     */
+    public void requestScan() {
+        if (!scanPending.getAndSet(true))
+            executor.execute(scanTask);
+    }
+
+    public void shutdown() {
+        if (executor instanceof ExecutorService)
+            ((ExecutorService) executor).shutdownNow();
+    }
+
+    /**
+     * @return Returns the name of the process or null if it is not resolved (yet)
+     */
+    public synchronized String getName(int pid) {
+        Entry entry = cache.get(pid);
+        return entry == null ? null : entry.name;
+    }
+
+    /**
+     * @param query Part of the process name, case is ignored
+     * @return Returns the sorted pids of all cached processes whose name contains the query
+     */
+    public synchronized int[] findPids(String query) {
+        String lowerQuery = query.toLowerCase();
+        IntList pids = new IntList();
+        for (Map.Entry<Integer, Entry> e : cache.entrySet()) {
+            String name = e.getValue().name;
+            if (name != null && name.toLowerCase().contains(lowerQuery))
+                pids.add(e.getKey());
+        }
+        int[] sorted = pids.toArray();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Forgets what is known about a pid, e.g. because a new process got started with it
+     */
+    public synchronized void invalidate(int pid) {
+        cache.remove(pid);
+    }
+
+    synchronized int size() {
+        return cache.size();
+    }
+
+    private void scan() {
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        unresolved.clear();
+
+        int row = scannedRow;
+        int endRow;
+        do {
+            synchronized (store) {
+                row = Math.max(row, store.getFirstRow());
+                endRow = store.getEndRow();
+                int chunkEnd = Math.min(endRow, row + CHUNK_ROWS);
+                int lastPid = -1;
+                for (; row < chunkEnd; row++) {
+                    changed |= checkProcessStart(row);
+                    int pid = store.getPid(row);
+                    // Most lines come in runs of the same process
+                    if (pid <= 0 || pid == lastPid)
+                        continue;
+                    lastPid = pid;
+                    if (needsLookUp(pid, now) && !contains(unresolved, pid))
+                        unresolved.add(pid);
+                }
+            }
+        } while (row < endRow);
+        scannedRow = row;
+
+        // Look the pids up without holding any lock, this might touch the file system
+        for (int i = 0; i < unresolved.size(); i++) {
+            int pid = unresolved.get(i);
+            long startTime = source.readStartTime(pid);
+            synchronized (this) {
+                // Still the same process, or one whose start time cannot be told (e.g. it is gone or hidden)
+                Entry entry = cache.get(pid);
+                if (entry != null && entry.name != null && (startTime == -1 || entry.startTime == -1 || entry.startTime == startTime)) {
+                    if (startTime != -1)
+                        entry.startTime = startTime;
+                    entry.checkedMillis = now;
+                    continue;
+                }
+            }
+            String name = source.readName(pid);
+            synchronized (this) {
+                Entry entry = cache.get(pid);
+                String oldName = entry == null ? null : entry.name;
+                put(pid, name, startTime, now);
+                changed |= name == null ? oldName != null : !name.equals(oldName);
+            }
+        }
+
+        if (changed) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onProcessesChanged();
+                }
+            });
+        }
+    }
+
+    private synchronized boolean needsLookUp(int pid, long now) {
+        Entry entry = cache.get(pid);
+        if (entry == null)
+            return true;
+        return now - entry.checkedMillis >= (entry.name == null ? RETRY_MILLIS : REVALIDATE_MILLIS);
+    }
+
+    /**
+     * Takes the name from lines like "Start proc 1234:com.example/u0a123 for activity ..." of the ActivityManager,
+     * which also tell that the pid now belongs to a new process. The caller holds the store's lock.
+     * @return Returns whether a name changed
+     */
+    private boolean checkProcessStart(int row) {
+        if (store.getTagId(row) != activityManagerTag)
+            return false;
+        StringBuilder sb = messageBuilder;
+        sb.setLength(0);
+        store.appendMessage(row, sb);
+        if (sb.length() <= START_PROC.length() || sb.indexOf(START_PROC) != 0)
+            return false;
+        int colon = sb.indexOf(":", START_PROC.length());
+        if (colon < 0)
+            return false;
+        int pid;
+        try {
+            pid = Integer.parseInt(sb.substring(START_PROC.length(), colon));
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+        int nameEnd = colon + 1;
+        while (nameEnd < sb.length() && sb.charAt(nameEnd) != '/' && sb.charAt(nameEnd) != ' ')
+            nameEnd++;
+        String name = sb.substring(colon + 1, nameEnd);
+        if (name.isEmpty())
+            return false;
+        synchronized (this) {
+            Entry entry = cache.get(pid);
+            boolean changed = entry == null || !name.equals(entry.name);
+            // The start time is unknown until the next look-up, which happens right away
+            put(pid, name, -1, 0);
+            return changed;
+        }
+    }
+
+    private void put(int pid, String name, long startTime, long checkedMillis) {
+        if (name != null) {
+            String interned = names.get(name);
+            if (interned == null)
+                names.put(name, name);
+            else
+                name = interned;
+        }
+        Entry entry = cache.get(pid);
+        if (entry == null) {
+            entry = new Entry();
+            cache.put(pid, entry);
+        }
+        entry.name = name;
+        entry.startTime = startTime;
+        entry.checkedMillis = checkedMillis;
+
+        // Names that no cached pid refers to anymore can go once the dictionary outgrows the cache
+        if (names.size() > 2 * cache.size() + 64)
+            pruneNames();
+    }
+
+    private void pruneNames() {
+        HashMap<String, Boolean> used = new HashMap<String, Boolean>();
+        for (Entry entry : cache.values()) {
+            if (entry.name != null)
+                used.put(entry.name, Boolean.TRUE);
+        }
+        Iterator<String> it = names.keySet().iterator();
+        while (it.hasNext()) {
+            if (!used.containsKey(it.next()))
+                it.remove();
+        }
+    }
+
+    private static boolean contains(IntList list, int value) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == value)
+                return true;
+        }
+        return false;
+    }
+
+    private static final class Entry {
+        // Null if the process could not be resolved
+        String name;
+        long startTime;
+        long checkedMillis;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sparse index of one segment file: every INTERVAL-th record maps its row and timestamp to its file offset.
+ * Lookups find the closest indexed record before the wanted one, the rest is a short forward walk.
+ */
+final class SegmentIndex {
+
+    static final int INTERVAL = 128;
+    private static final int MAGIC = 0x4c474249; // "LGBI"
+
+    private int[] rows = new int[64];
+    // Highest timestamp up to each indexed record, so the column is sorted even if logcat's clock jumps back
+    private long[] times = new long[64];
+    private int[] offsets = new int[64];
+    private int size;
+    private int records;
+    private long maxTime = Long.MIN_VALUE;
+
+    /**
+     * Notes a record that got appended to the segment
+     */
+    void onRecord(int row, long time, int offset) {
+        maxTime = Math.max(maxTime, time);
+        if (records++ % INTERVAL != 0)
+            return;
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        rows[size] = row;
+        times[size] = maxTime;
+        offsets[size] = offset;
+        size++;
+    }
+
+    int getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @return Returns the offset of the last indexed record at or before the row or -1 if the row lies before the segment
+     */
+    int offsetForRow(int row) {
+        int i = upperBound(rows, size, row) - 1;
+        return i < 0 ? -1 : offsets[i];
+    }
+
+    /**
+     * @return Returns the offset of an indexed record from which on walking forward reaches the first record
+     * with a timestamp at or after the passed one
+     */
+    int offsetForTime(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return size == 0 ? -1 : offsets[Math.max(0, low - 1)];
+    }
+
+    /**
+     * @return Returns the highest timestamp of the segment
+     */
+    long getMaxTime() {
+        return maxTime;
+    }
+
+    void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            out.writeInt(records);
+            out.writeLong(maxTime);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(rows[i]);
+                out.writeLong(times[i]);
+                out.writeInt(offsets[i]);
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return Returns the index stored in a file or null if the file is missing or broken
+     */
+    static SegmentIndex read(File file) {
+        if (!file.isFile())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC)
+                    return null;
+                SegmentIndex index = new SegmentIndex();
+                int size = in.readInt();
+                index.rows = new int[Math.max(size, 1)];
+                index.times = new long[Math.max(size, 1)];
+                index.offsets = new int[Math.max(size, 1)];
+                index.records = in.readInt();
+                index.maxTime = in.readLong();
+                for (int i = 0; i < size; i++) {
+                    index.rows[i] = in.readInt();
+                    index.times[i] = in.readLong();
+                    index.offsets[i] = in.readInt();
+                }
+                index.size = size;
+                return index;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static int upperBound(int[] values, int size, int value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= value)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
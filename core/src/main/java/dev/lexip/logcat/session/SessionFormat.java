@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.session;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Binary layout of session segment files.
+ * A segment starts with a header (magic, version, first row, creation time) followed by records:
+ * length (int, of the rest of the record), row (int), time (long), last time (long), pid (int), tid (int),
+ * level (byte), flags (byte), occurrences (int), tag (short length + UTF-8) and message (int length + UTF-8).
+ * Files are named after their first row, e.g. "0000004096.seg", and live in one directory per session.
+ */
+final class SessionFormat {
+
+    static final int MAGIC = 0x4c474253; // "LGBS"
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 4 + 2 + 4 + 8;
+    // Record bytes without tag and message
+    static final int FIXED_RECORD_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 1 + 1 + 4 + 2 + 4;
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private SessionFormat() {
+    }
+
+    static String segmentName(int firstRow) {
+        String digits = Integer.toString(firstRow);
+        StringBuilder sb = new StringBuilder(14);
+        for (int i = digits.length(); i < 10; i++)
+            sb.append('0');
+        return sb.append(digits).append(SEGMENT_SUFFIX).toString();
+    }
+
+    /**
+     * @return Returns the first row of a segment file or -1 if it is no segment
+     */
+    static int firstRowOf(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SEGMENT_SUFFIX))
+            return -1;
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static File indexFileOf(File segment) {
+        String name = segment.getName();
+        return new File(segment.getParentFile(), name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    /**
+     * Writes chars as UTF-8 without creating intermediate arrays
+     */
+    static void putUtf8(ByteBuffer target, CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                target.put((byte) c);
+            }
+            else if (c < 0x800) {
+                target.put((byte) (0xC0 | c >> 6));
+                target.put((byte) (0x80 | c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                target.put((byte) (0xF0 | cp >> 18));
+                target.put((byte) (0x80 | cp >> 12 & 0x3F));
+                target.put((byte) (0x80 | cp >> 6 & 0x3F));
+                target.put((byte) (0x80 | cp & 0x3F));
+            }
+            else {
+                target.put((byte) (0xE0 | c >> 12));
+                target.put((byte) (0x80 | c >> 6 & 0x3F));
+                target.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * @return Returns the number of bytes the chars take at most in UTF-8
+     */
+    static int maxUtf8Bytes(int chars) {
+        return chars * 3;
+    }
+}
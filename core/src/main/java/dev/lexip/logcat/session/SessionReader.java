@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.session;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Reads rows of a session back through memory-mapped segment files, so history beyond the in-memory store
+ * is paged in by the OS instead of being held on the heap.
+ * Segments that are still being written are remapped and indexed further as they grow.
+ */
+public final class SessionReader implements Closeable {
+
+    private final File sessionDir;
+    // Ordered by first row
+    private final ArrayList<Segment> segments = new ArrayList<Segment>();
+
+    // Position after the most recently read record, so reading consecutive rows does not search again
+    private Segment cursorSegment;
+    private int cursorRow = -1;
+    private int cursorNextOffset;
+
+    public SessionReader(File sessionDir) {
+        this.sessionDir = sessionDir;
+    }
+
+    /**
+     * Reads a row
+     * @param row Row to read
+     * @param record Reusable target
+     * @return Returns false if the row is not (or no longer) on disk
+     */
+    public synchronized boolean read(int row, SessionRecord record) {
+        try {
+            Segment segment = segmentOf(row);
+            if (segment == null)
+                return false;
+            int offset;
+            if (segment == cursorSegment && row == cursorRow + 1)
+                offset = cursorNextOffset;
+            else {
+                offset = segment.index.offsetForRow(row);
+                if (offset < 0)
+                    return false;
+            }
+
+            ByteBuffer map = segment.map;
+            while (offset < segment.scannedEnd) {
+                int length = map.getInt(offset);
+                int recordRow = map.getInt(offset + 4);
+                if (recordRow == row) {
+                    decode(map, offset, record);
+                    cursorSegment = segment;
+                    cursorRow = row;
+                    cursorNextOffset = offset + 4 + length;
+                    return true;
+                }
+                if (recordRow > row)
+                    return false;
+                offset += 4 + length;
+            }
+            return false;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the first row at or after a point in time
+     * @return Returns the row or -1 if no row on disk is that recent
+     */
+    public synchronized int findRow(long timeMillis) {
+        try {
+            refreshSegments();
+            for (Segment segment : segments) {
+                segment.update();
+                if (segment.index.getRecordCount() == 0 || segment.index.getMaxTime() < timeMillis)
+                    continue;
+                int offset = Math.max(segment.index.offsetForTime(timeMillis), SessionFormat.HEADER_BYTES);
+                ByteBuffer map = segment.map;
+                while (offset < segment.scannedEnd) {
+                    if (map.getLong(offset + 8) >= timeMillis)
+                        return map.getInt(offset + 4);
+                    offset += 4 + map.getInt(offset);
+                }
+            }
+            return -1;
+        }
+        catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return Returns the oldest row that is still on disk or -1 if there is none
+     */
+    public synchronized int getFirstRow() {
+        try {
+            refreshSegments();
+        }
+        catch (IOException e) {
+            return -1;
+        }
+        return segments.isEmpty() ? -1 : segments.get(0).firstRow;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments)
+            segment.close();
+        segments.clear();
+        cursorSegment = null;
+    }
+
+    private Segment segmentOf(int row) throws IOException {
+        if (segments.isEmpty() || row >= lastSegment().firstRow)
+            refreshSegments();
+        Segment found = null;
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).firstRow <= row) {
+                found = segments.get(i);
+                break;
+            }
+        }
+        if (found == null)
+            return null;
+        if (!found.file.isFile()) {
+            // Rotated out in the meantime
+            refreshSegments();
+            return null;
+        }
+        found.update();
+        return found;
+    }
+
+    private Segment lastSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Picks up new segments and forgets deleted ones
+     */
+    private void refreshSegments() throws IOException {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (!segments.get(i).file.isFile()) {
+                Segment removed = segments.remove(i);
+                removed.close();
+                if (removed == cursorSegment)
+                    cursorSegment = null;
+            }
+        }
+        File[] files = sessionDir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            int firstRow = SessionFormat.firstRowOf(file);
+            if (firstRow < 0)
+                continue;
+            int position = 0;
+            while (position < segments.size() && segments.get(position).firstRow < firstRow)
+                position++;
+            if (position < segments.size() && segments.get(position).firstRow == firstRow)
+                continue;
+            segments.add(position, new Segment(file, firstRow));
+        }
+    }
+
+    private void decode(ByteBuffer map, int offset, SessionRecord record) {
+        int p = offset + 4;
+        record.row = map.getInt(p);
+        record.timeMillis = map.getLong(p + 4);
+        record.lastTimeMillis = map.getLong(p + 12);
+        record.pid = map.getInt(p + 20);
+        record.tid = map.getInt(p + 24);
+        record.level = map.get(p + 28);
+        record.flags = map.get(p + 29) & 0xFF;
+        record.occurrences = map.getInt(p + 30);
+        p += 34;
+        int tagLength = map.getShort(p) & 0xFFFF;
+        record.tag = decodeUtf8(map, p + 2, tagLength);
+        p += 2 + tagLength;
+        int messageLength = map.getInt(p);
+        record.message = decodeUtf8(map, p + 4, messageLength);
+    }
+
+    private static String decodeUtf8(ByteBuffer map, int offset, int length) {
+        ByteBuffer slice = map.duplicate();
+        slice.limit(offset + length).position(offset);
+        return SessionFormat.UTF_8.decode(slice).toString();
+    }
+
+    private static final class Segment {
+
+        final File file;
+        final int firstRow;
+        private RandomAccessFile raf;
+        MappedByteBuffer map;
+        SegmentIndex index;
+        // Records before this offset are complete and indexed
+        int scannedEnd = SessionFormat.HEADER_BYTES;
+        // A stored index covers the whole (closed) segment
+        private boolean complete;
+
+        Segment(File file, int firstRow) {
+            this.file = file;
+            this.firstRow = firstRow;
+        }
+
+        /**
+         * Maps what has been written so far and indexes the new records
+         */
+        void update() throws IOException {
+            if (complete)
+                return;
+            if (raf == null) {
+                raf = new RandomAccessFile(file, "r");
+                index = SegmentIndex.read(SessionFormat.indexFileOf(file));
+                if (index != null) {
+                    complete = true;
+                    map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                    scannedEnd = (int) raf.length();
+                    return;
+                }
+                index = new SegmentIndex();
+            }
+
+            long length = raf.length();
+            if (map == null || length > map.capacity())
+                map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int end = map.capacity();
+            int p = scannedEnd;
+            while (p + 4 <= end) {
+                int recordLength = map.getInt(p);
+                if (recordLength <= 0 || p + 4 + recordLength > end)
+                    break;
+                index.onRecord(map.getInt(p + 4), map.getLong(p + 8), p);
+                p += 4 + recordLength;
+            }
+            scannedEnd = p;
+        }
+
+        void close() {
+            map = null;
+            if (raf != null) {
+                try {
+                    raf.close();
+                }
+                catch (IOException ignored) {
+                    // Read-only
+                }
+                raf = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.session;
+
+/**
+ * Reusable row read back from a session segment
+ */
+public final class SessionRecord {
+
+    int row;
+    long timeMillis;
+    long lastTimeMillis;
+    int pid;
+    int tid;
+    byte level;
+    int flags;
+    int occurrences;
+    String tag;
+    String message;
+
+    public int getRow() {
+        return row;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public long getLastTimeMillis() {
+        return lastTimeMillis;
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    public int getTid() {
+        return tid;
+    }
+
+    public byte getLevel() {
+        return level;
+    }
+
+    /**
+     * @return Returns the LogStore.FLAG_* bits the row had when it got written
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getOccurrences() {
+        return occurrences;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.session;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import dev.lexip.logcat.store.LogStore;
+
+/**
+ * Persists every row appended to a store into append-only segment files of the current session.
+ * Records are encoded into a buffer on the appending thread, under the store's lock. Full buffers and the ones
+ * passed to flush() are handed to a writer thread, which does all file operations: it writes the buffers, closes
+ * segments once they reach their size limit, writes their sparse index next to them and deletes old segments
+ * of all sessions by total size and age.
+ * Occurrences folded into a row after it got written are not persisted.
+ */
+public final class SessionWriter implements LogStore.Listener, Closeable {
+
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    private final LogStore store;
+    private final File root;
+    private final File sessionDir;
+    private final long segmentBytes;
+    private final long maxTotalBytes;
+    private final long maxAgeMillis;
+    private final ExecutorService writer;
+
+    // Encoding state, guarded by the store's lock
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final StringBuilder messageBuilder = new StringBuilder(256);
+    private SegmentIndex index;
+    // Bytes of the current segment including the ones not written yet
+    private long segmentSize;
+    // Buffers the writer thread is done with, so full buffers do not cost an allocation each
+    private final ConcurrentLinkedQueue<ByteBuffer> spareBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    // Writer thread only
+    private FileChannel channel;
+    private File segmentFile;
+    private volatile IOException error;
+
+    /**
+     * A file operation on the writer thread, skipped once the writer failed
+     */
+    private abstract class WriterTask implements Runnable {
+        @Override
+        public final void run() {
+            if (error != null)
+                return;
+            try {
+                write();
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        abstract void write() throws IOException;
+    }
+
+    /**
+     * Starts a new session that persists all rows appended from now on
+     * @param root Directory that holds the sessions
+     * @param segmentBytes Size at which a segment gets closed (e.g. 8 MB)
+     * @param maxTotalBytes Size of all sessions after which the oldest segments get deleted
+     * @param maxAgeMillis Age after which segments get deleted
+     */
+    public SessionWriter(LogStore store, File root, long segmentBytes, long maxTotalBytes, long maxAgeMillis) throws IOException {
+        this.store = store;
+        this.root = root;
+        this.segmentBytes = segmentBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        sessionDir = new File(root, Long.toString(System.currentTimeMillis()));
+        if (!sessionDir.mkdirs() && !sessionDir.isDirectory())
+            throw new IOException("Cannot create " + sessionDir);
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "SessionWriter");
+            }
+        });
+        Future<?> opened;
+        synchronized (store) {
+            opened = openSegment(store.getEndRow());
+            store.addListener(this);
+        }
+        // The first segment exists once the constructor returns, so a reader can be opened right away
+        await(opened);
+        if (error != null) {
+            close();
+            throw error;
+        }
+        prune();
+    }
+
+    /**
+     * @return Returns the directory of the current session, to be read with a SessionReader
+     */
+    public File getSessionDir() {
+        return sessionDir;
+    }
+
+    /**
+     * @return Returns the error that stopped the writer or null
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    public void onAppended(int row) {
+        if (error != null)
+            return;
+        messageBuilder.setLength(0);
+        store.appendMessage(row, messageBuilder);
+        String tag = store.getTag(row);
+        int maxBytes = SessionFormat.FIXED_RECORD_BYTES + SessionFormat.maxUtf8Bytes(tag.length())
+                + SessionFormat.maxUtf8Bytes(messageBuilder.length());
+
+        if (segmentSize + maxBytes > segmentBytes && index.getRecordCount() > 0)
+            rotate(row);
+        if (buffer.remaining() < maxBytes) {
+            writeBuffer();
+            if (buffer.capacity() < maxBytes)
+                buffer = ByteBuffer.allocate(maxBytes);
+        }
+
+        int start = buffer.position();
+        long time = store.getTime(row);
+        buffer.putInt(0); // Length, filled in below
+        buffer.putInt(row);
+        buffer.putLong(time);
+        buffer.putLong(store.getLastTime(row));
+        buffer.putInt(store.getPid(row));
+        buffer.putInt(store.getTid(row));
+        buffer.put(store.getLevel(row));
+        buffer.put((byte) store.getFlags(row));
+        buffer.putInt(store.getOccurrences(row));
+        int tagStart = buffer.position();
+        buffer.putShort((short) 0);
+        SessionFormat.putUtf8(buffer, tag, 0, tag.length());
+        buffer.putShort(tagStart, (short) (buffer.position() - tagStart - 2));
+        int messageStart = buffer.position();
+        buffer.putInt(0);
+        SessionFormat.putUtf8(buffer, messageBuilder, 0, messageBuilder.length());
+        buffer.putInt(messageStart, buffer.position() - messageStart - 4);
+        buffer.putInt(start, buffer.position() - start - 4);
+
+        index.onRecord(row, time, (int) segmentSize);
+        segmentSize += buffer.position() - start;
+    }
+
+    @Override
+    public void onEvicted(int firstRow) {
+        // The rows stay on disk, that is the point
+    }
+
+    @Override
+    public void onUpdated(int row) {
+        // Segments are append-only, the count at the time of writing is kept
+    }
+
+    /**
+     * Writes the buffered records to the segment file and waits until they are written, without holding
+     * the store's lock meanwhile
+     */
+    public void flush() {
+        Future<?> written;
+        synchronized (store) {
+            if (error != null || writer.isShutdown())
+                return;
+            written = writeBuffer();
+        }
+        await(written);
+    }
+
+    /**
+     * Writes the remaining records, closes the session and waits until the writer thread is done
+     */
+    @Override
+    public void close() {
+        synchronized (store) {
+            store.removeListener(this);
+            if (writer.isShutdown())
+                return;
+            writeBuffer();
+            closeSegment();
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(Future<?> future) {
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Writer thread only
+     */
+    private void fail(IOException e) {
+        error = e;
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        }
+        catch (IOException ignored) {
+            // Already failing
+        }
+        channel = null;
+    }
+
+    /**
+     * Hands the buffered records to the writer thread and continues with an empty buffer
+     */
+    private Future<?> writeBuffer() {
+        final ByteBuffer filled = buffer;
+        ByteBuffer spare = spareBuffers.poll();
+        buffer = spare != null ? spare : ByteBuffer.allocate(BUFFER_BYTES);
+        return writer.submit(new WriterTask() {
+            @Override
+            void write() throws IOException {
+                filled.flip();
+                while (filled.hasRemaining())
+                    channel.write(filled);
+                filled.clear();
+                // Buffers grown for a huge record are not kept
+                if (filled.capacity() == BUFFER_BYTES)
+                    spareBuffers.offer(filled);
+            }
+        });
+    }
+
+    private Future<?> openSegment(int firstRow) {
+        final File file = new File(sessionDir, SessionFormat.segmentName(firstRow));
+        index = new SegmentIndex();
+        buffer.putInt(SessionFormat.MAGIC);
+        buffer.putShort(SessionFormat.VERSION);
+        buffer.putInt(firstRow);
+        buffer.putLong(System.currentTimeMillis());
+        segmentSize = SessionFormat.HEADER_BYTES;
+        return writer.submit(new WriterTask() {
+            @Override
+            void write() throws IOException {
+                segmentFile = file;
+                channel = new FileOutputStream(file, true).getChannel();
+            }
+        });
+    }
+
+    private void closeSegment() {
+        // The index is complete, only the writer thread touches it from now on
+        final SegmentIndex closed = index;
+        writer.submit(new WriterTask() {
+            @Override
+            void write() throws IOException {
+                FileChannel closing = channel;
+                channel = null;
+                closing.close();
+                closed.write(SessionFormat.indexFileOf(segmentFile));
+            }
+        });
+    }
+
+    private void rotate(int firstRow) {
+        writeBuffer();
+        closeSegment();
+        openSegment(firstRow);
+        prune();
+    }
+
+    private void prune() {
+        writer.submit(new WriterTask() {
+            @Override
+            void write() {
+                deleteOldSegments();
+            }
+        });
+    }
+
+    /**
+     * Deletes the oldest segments of all sessions until they fit the size and age limits (writer thread only)
+     */
+    private void deleteOldSegments() {
+        List<File> segments = new ArrayList<File>();
+        File[] sessions = root.listFiles();
+        if (sessions == null)
+            return;
+        for (File session : sessions) {
+            File[] files = session.listFiles();
+            if (files == null)
+                continue;
+            if (files.length == 0 && !session.equals(sessionDir)) {
+                session.delete();
+                continue;
+            }
+            for (File file : files) {
+                if (SessionFormat.firstRowOf(file) >= 0)
+                    segments.add(file);
+            }
+        }
+
+        // Oldest first: by session, then by first row
+        Collections.sort(segments, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                int bySession = compareNumbers(a.getParentFile().getName(), b.getParentFile().getName());
+                return bySession != 0 ? bySession : Integer.compare(SessionFormat.firstRowOf(a), SessionFormat.firstRowOf(b));
+            }
+        });
+
+        long total = 0;
+        for (File segment : segments)
+            total += segment.length();
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        for (File segment : segments) {
+            if (segment.equals(segmentFile) || (total <= maxTotalBytes && segment.lastModified() >= oldest))
+                continue;
+            total -= segment.length();
+            segment.delete();
+            SessionFormat.indexFileOf(segment).delete();
+        }
+    }
+
+    private static int compareNumbers(String a, String b) {
+        return a.length() != b.length() ? Integer.compare(a.length(), b.length()) : a.compareTo(b);
+    }
+}
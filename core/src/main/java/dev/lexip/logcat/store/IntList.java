@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.store;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints that can cheaply drop its first elements
+ */
+public final class IntList {
+
+    private int[] values;
+    private int start;
+    private int end;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 4)];
+    }
+
+    public void add(int value) {
+        if (end == values.length) {
+            if (start > values.length / 2) {
+                // Reuse the space of removed elements before growing
+                System.arraycopy(values, start, values, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            else
+                values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[end++] = value;
+    }
+
+    public int get(int index) {
+        return values[start + index];
+    }
+
+    public int size() {
+        return end - start;
+    }
+
+    public boolean isEmpty() {
+        return end == start;
+    }
+
+    public void clear() {
+        start = end = 0;
+    }
+
+    /**
+     * Removes the first elements in O(1)
+     * @param count Number of elements to remove
+     */
+    public void removeFirst(int count) {
+        start += Math.min(count, end - start);
+        if (start == end)
+            start = end = 0;
+    }
+
+    /**
+     * Finds the position of a value in a list sorted in ascending order
+     * @return Returns the index of the value or, if absent, the index where it would be inserted
+     */
+    public int lowerBound(int value) {
+        int lo = start;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo - start;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOfRange(values, start, end);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.store;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Keeps the rows of each level in a bitset, so a level filter is a union of whole bitsets
+ * instead of a check per row. Levels are addressed as bit masks of 1 << LogEntry.LEVEL_*.
+ */
+public final class LevelIndex implements LogStore.Listener {
+
+    private static final int LEVELS = LogEntry.LEVEL_FATAL + 1;
+
+    private final LogStore store;
+    private final RowBitSet[] rowsByLevel = new RowBitSet[LEVELS];
+
+    /**
+     * Creates an index over all rows retained by the store and keeps it up to date
+     */
+    public LevelIndex(LogStore store) {
+        this.store = store;
+        for (int level = 0; level < LEVELS; level++)
+            rowsByLevel[level] = new RowBitSet();
+        synchronized (store) {
+            for (int row = store.getFirstRow(); row < store.getEndRow(); row++)
+                onAppended(row);
+            store.addListener(this);
+        }
+    }
+
+    @Override
+    public void onAppended(int row) {
+        rowsByLevel[store.getLevel(row)].set(row);
+    }
+
+    @Override
+    public void onEvicted(int firstRow) {
+        for (RowBitSet rows : rowsByLevel)
+            rows.removeBelow(firstRow);
+    }
+
+    @Override
+    public void onUpdated(int row) {
+        // Folding occurrences changes neither text nor level
+    }
+
+    /**
+     * Collects the rows of several levels
+     * @param levelMask Bits of the levels to include (1 << LogEntry.LEVEL_*)
+     * @param target Set that is cleared and receives the rows
+     */
+    public void select(int levelMask, RowBitSet target) {
+        synchronized (store) {
+            target.clear();
+            for (int level = 0; level < LEVELS; level++) {
+                if ((levelMask & (1 << level)) != 0)
+                    target.or(rowsByLevel[level]);
+            }
+        }
+    }
+
+    /**
+     * @return Returns the number of retained rows with the passed level
+     */
+    public int count(byte level) {
+        synchronized (store) {
+            return rowsByLevel[level].cardinality();
+        }
+    }
+
+    /**
+     * @return Returns the approximate memory held by the bitsets
+     */
+    public long getMemoryBytes() {
+        synchronized (store) {
+            long bytes = 0;
+            for (RowBitSet rows : rowsByLevel)
+                bytes += rows.getMemoryBytes();
+            return bytes;
+        }
+    }
+}
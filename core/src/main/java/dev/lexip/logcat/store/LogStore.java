@@ -0,0 +1,579 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import dev.lexip.logcat.parse.LogBuffer;
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Bounded in-memory log that keeps its data in primitive columns instead of objects per line.
+ * Rows are split into fixed-size segments; each segment owns its columns and a char arena that holds
+ * the message texts back to back. Messages that already occur in the same segment are not copied again,
+ * the row refers to the earlier text instead. Once the row or memory budget is exceeded, whole segments are
+ * evicted from the front in O(1).
+ * Rows are addressed by a global row number that keeps increasing; evicted rows are simply no longer retained.
+ * All methods are synchronized, so the store can be read from background threads.
+ */
+public final class LogStore {
+
+    /**
+     * Gets notified about changes of the store. Callbacks run on the appending thread while it holds the store's lock.
+     */
+    public interface Listener {
+        void onAppended(int row);
+        void onEvicted(int firstRow);
+        /** The occurrence count of a row changed */
+        void onUpdated(int row);
+    }
+
+    /** Special entries like "--------- beginning of main" */
+    public static final int FLAG_MARKER = 1;
+    /** Line without a header that continues the previous report */
+    public static final int FLAG_CONTINUATION = 1 << 1;
+    /** Stack trace line like "at com.example.Foo.bar(Foo.java:1)" */
+    public static final int FLAG_FRAME = 1 << 2;
+    /** Report that may start a stack trace (e.g. "*Exception: ...") */
+    public static final int FLAG_EXCEPTION = 1 << 3;
+    /** Selected by the user */
+    public static final int FLAG_SELECTED = 1 << 4;
+    /** Whole stack trace (header, frames and causes) stored as one multi-line row */
+    public static final int FLAG_TRACE = 1 << 5;
+    /** Multi-line row the user expanded */
+    public static final int FLAG_EXPANDED = 1 << 6;
+
+    static final int SEGMENT_SHIFT = 12;
+    static final int SEGMENT_ROWS = 1 << SEGMENT_SHIFT;
+    private static final int INITIAL_ARENA_CHARS = 64 * 1024;
+
+    private final int maxRows;
+    private final long maxBytes;
+    private final TagTable tags = new TagTable();
+    private final ArrayList<Listener> listeners = new ArrayList<Listener>();
+
+    // Ring of segments, the oldest one at segmentHead
+    private Segment[] segments = new Segment[8];
+    private int segmentHead;
+    private int segmentCount;
+    // Evicted segment kept around to be reused instead of allocating all columns again
+    private Segment spare;
+
+    private int firstRow;
+    private int endRow;
+    private long bytes;
+
+    /**
+     * @param maxRows Number of rows to keep at most (e.g. 200k lines)
+     * @param maxBytes Approximate memory to use at most (e.g. 64 MB)
+     */
+    public LogStore(int maxRows, long maxBytes) {
+        this.maxRows = Math.max(maxRows, SEGMENT_ROWS);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Appends a parsed logcat line
+     * @param entry Parsed line
+     * @return Returns the new row or -1 if the line carries nothing to show
+     */
+    public synchronized int append(LogEntry entry) {
+        CharSequence line = entry.getLine();
+        int messageStart = entry.getMessageStart();
+        int messageEnd = entry.getMessageEnd();
+
+        switch (entry.getKind()) {
+            case LogEntry.KIND_SKIP:
+                return -1;
+            case LogEntry.KIND_MARKER:
+                return append(entry.getTimeMillis(), -1, -1, LogEntry.LEVEL_UNKNOWN, -1, line, messageStart, messageEnd, FLAG_MARKER, entry.getBuffer());
+            default:
+                break;
+        }
+
+        int tagId = entry.getKind() == LogEntry.KIND_CONTINUATION ? -1 : tags.intern(entry.getTagSource(), entry.getTagStart(), entry.getTagEnd());
+        return append(entry.getKind(), entry.getTimeMillis(), entry.getPid(), entry.getTid(), entry.getLevel(), tagId, line, messageStart, messageEnd,
+                entry.getBuffer());
+    }
+
+    /**
+     * Appends a parsed report or continuation line whose tag has already been interned
+     * @param kind LogEntry.KIND_ENTRY or LogEntry.KIND_CONTINUATION
+     * @param buffer Buffer the line was read from (LogBuffer.*)
+     * @return Returns the new row
+     */
+    synchronized int append(int kind, long timeMillis, int pid, int tid, byte level, int tagId, CharSequence line, int messageStart, int messageEnd,
+                            byte buffer) {
+        // Stack trace lines only keep the frame, without the indentation
+        int flags = 0;
+        int frameStart = skipIndentation(line, messageStart, messageEnd);
+        if (frameStart > messageStart && frameStart + 3 <= messageEnd && line.charAt(frameStart) == 'a'
+                && line.charAt(frameStart + 1) == 't' && line.charAt(frameStart + 2) == ' ') {
+            flags |= FLAG_FRAME;
+            messageStart = frameStart;
+        }
+        else if (indexOf(line, messageStart, messageEnd, "Exception") >= 0)
+            flags |= FLAG_EXCEPTION;
+
+        // Lines without a header belong to the previous report
+        if (kind == LogEntry.KIND_CONTINUATION) {
+            flags |= FLAG_CONTINUATION;
+            if (endRow > firstRow) {
+                int last = endRow - 1;
+                return append(getTime(last), getPid(last), getTid(last), getLevel(last), getTagId(last), line, messageStart, messageEnd, flags, buffer);
+            }
+            return append(0, -1, -1, LogEntry.LEVEL_UNKNOWN, -1, line, messageStart, messageEnd, flags, buffer);
+        }
+        return append(timeMillis, pid, tid, level, tagId, line, messageStart, messageEnd, flags, buffer);
+    }
+
+    /**
+     * Appends a row
+     * @param tagId Id from the tag table or -1
+     * @param text Sequence that contains the message
+     * @param start Start of the message (inclusive)
+     * @param end End of the message (exclusive)
+     * @param flags FLAG_* bits
+     * @return Returns the new row
+     */
+    public synchronized int append(long timeMillis, int pid, int tid, byte level, int tagId, CharSequence text, int start, int end, int flags) {
+        return append(timeMillis, pid, tid, level, tagId, text, start, end, flags, LogBuffer.DEFAULT);
+    }
+
+    /**
+     * Appends a row that was read from a particular buffer
+     * @param buffer Buffer the row was read from (LogBuffer.*)
+     * @return Returns the new row
+     */
+    public synchronized int append(long timeMillis, int pid, int tid, byte level, int tagId, CharSequence text, int start, int end, int flags,
+                                   byte buffer) {
+        Segment segment = segmentCount == 0 ? null : segments[(segmentHead + segmentCount - 1) & (segments.length - 1)];
+        if (segment == null || segment.size == SEGMENT_ROWS)
+            segment = addSegment();
+
+        int i = segment.size;
+        segment.time[i] = timeMillis;
+        segment.pid[i] = pid;
+        segment.tid[i] = tid;
+        segment.level[i] = level;
+        segment.tag[i] = tagId;
+        segment.flags[i] = (byte) flags;
+        segment.buffer[i] = buffer;
+        segment.repeats[i] = 0;
+        segment.lastTime[i] = timeMillis;
+        bytes += segment.putText(i, text, start, end);
+        segment.size++;
+
+        int row = endRow++;
+        for (int l = 0; l < listeners.size(); l++)
+            listeners.get(l).onAppended(row);
+
+        if (segmentCount > 1 && (endRow - firstRow > maxRows || bytes > maxBytes)) {
+            while (segmentCount > 1 && (endRow - firstRow > maxRows || bytes > maxBytes))
+                evictOldestSegment();
+            for (int l = 0; l < listeners.size(); l++)
+                listeners.get(l).onEvicted(firstRow);
+        }
+        return row;
+    }
+
+    /**
+     * Records another occurrence of a row instead of appending a duplicate
+     * @param row Retained row
+     * @param timeMillis Time of the new occurrence
+     */
+    public synchronized void addOccurrence(int row, long timeMillis) {
+        Segment segment = segmentOf(row);
+        int i = row & (SEGMENT_ROWS - 1);
+        segment.repeats[i]++;
+        segment.lastTime[i] = Math.max(segment.lastTime[i], timeMillis);
+        for (int l = 0; l < listeners.size(); l++)
+            listeners.get(l).onUpdated(row);
+    }
+
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private Segment addSegment() {
+        if (segmentCount == segments.length) {
+            Segment[] grown = new Segment[segments.length * 2];
+            for (int i = 0; i < segmentCount; i++)
+                grown[i] = segments[(segmentHead + i) & (segments.length - 1)];
+            segments = grown;
+            segmentHead = 0;
+        }
+        Segment segment = spare;
+        if (segment != null) {
+            spare = null;
+            segment.clear();
+        }
+        else
+            segment = new Segment();
+        bytes += segment.bytes();
+        segments[(segmentHead + segmentCount) & (segments.length - 1)] = segment;
+        segmentCount++;
+        return segment;
+    }
+
+    private void evictOldestSegment() {
+        Segment oldest = segments[segmentHead];
+        segments[segmentHead] = null;
+        segmentHead = (segmentHead + 1) & (segments.length - 1);
+        segmentCount--;
+        firstRow += SEGMENT_ROWS;
+        bytes -= oldest.bytes();
+        spare = oldest;
+    }
+
+    private Segment segmentOf(int row) {
+        if (row < firstRow || row >= endRow)
+            throw new IndexOutOfBoundsException("Row " + row + " is not retained (" + firstRow + ".." + endRow + ")");
+        int index = (row >>> SEGMENT_SHIFT) - (firstRow >>> SEGMENT_SHIFT);
+        return segments[(segmentHead + index) & (segments.length - 1)];
+    }
+
+    /**
+     * @return Returns the oldest retained row
+     */
+    public synchronized int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * @return Returns the row that the next append will get
+     */
+    public synchronized int getEndRow() {
+        return endRow;
+    }
+
+    public synchronized boolean isRetained(int row) {
+        return row >= firstRow && row < endRow;
+    }
+
+    public synchronized int size() {
+        return endRow - firstRow;
+    }
+
+    /**
+     * @return Returns the approximate memory held by the columns and text arenas
+     */
+    public synchronized long getMemoryBytes() {
+        return bytes;
+    }
+
+    public synchronized long getTime(int row) {
+        return segmentOf(row).time[row & (SEGMENT_ROWS - 1)];
+    }
+
+    /**
+     * @return Returns how often the row occurred, at least 1
+     */
+    public synchronized int getOccurrences(int row) {
+        return segmentOf(row).repeats[row & (SEGMENT_ROWS - 1)] + 1;
+    }
+
+    /**
+     * @return Returns the time of the latest occurrence of the row
+     */
+    public synchronized long getLastTime(int row) {
+        return segmentOf(row).lastTime[row & (SEGMENT_ROWS - 1)];
+    }
+
+    public synchronized int getPid(int row) {
+        return segmentOf(row).pid[row & (SEGMENT_ROWS - 1)];
+    }
+
+    public synchronized int getTid(int row) {
+        return segmentOf(row).tid[row & (SEGMENT_ROWS - 1)];
+    }
+
+    public synchronized byte getLevel(int row) {
+        return segmentOf(row).level[row & (SEGMENT_ROWS - 1)];
+    }
+
+    /**
+     * @return Returns the buffer the row was read from (LogBuffer.*)
+     */
+    public synchronized byte getBuffer(int row) {
+        return segmentOf(row).buffer[row & (SEGMENT_ROWS - 1)];
+    }
+
+    public synchronized int getTagId(int row) {
+        return segmentOf(row).tag[row & (SEGMENT_ROWS - 1)];
+    }
+
+    /**
+     * @return Returns the tag of the row or an empty String if it has none
+     */
+    public synchronized String getTag(int row) {
+        int id = getTagId(row);
+        return id < 0 ? "" : tags.get(id);
+    }
+
+    /**
+     * @return Returns the id of a tag, adding it to the tag table if it is new
+     */
+    public synchronized int internTag(String tag) {
+        return tags.intern(tag, 0, tag.length());
+    }
+
+    /**
+     * @return Returns the id of the tag s[start, end), adding it to the tag table if it is new
+     */
+    public synchronized int internTag(CharSequence s, int start, int end) {
+        return tags.intern(s, start, end);
+    }
+
+    /**
+     * @return Returns the tag with the passed id
+     */
+    public synchronized String getTagById(int id) {
+        return tags.get(id);
+    }
+
+    public synchronized int getFlags(int row) {
+        return segmentOf(row).flags[row & (SEGMENT_ROWS - 1)];
+    }
+
+    /**
+     * Sets or clears flags of a row
+     * @param flags FLAG_* bits to change
+     * @param set Whether to set or to clear the bits
+     */
+    public synchronized void setFlags(int row, int flags, boolean set) {
+        Segment segment = segmentOf(row);
+        int i = row & (SEGMENT_ROWS - 1);
+        segment.flags[i] = (byte) (set ? segment.flags[i] | flags : segment.flags[i] & ~flags);
+    }
+
+    /**
+     * Appends the message of a row
+     * @param row Retained row
+     * @param sb Target
+     */
+    public synchronized void appendMessage(int row, StringBuilder sb) {
+        Segment segment = segmentOf(row);
+        int i = row & (SEGMENT_ROWS - 1);
+        int start = segment.textStart[i];
+        sb.append(segment.text, start, segment.textEnd[i] - start);
+    }
+
+    /**
+     * @return Returns a copy of the message of a row
+     */
+    public synchronized String getMessage(int row) {
+        Segment segment = segmentOf(row);
+        int i = row & (SEGMENT_ROWS - 1);
+        int start = segment.textStart[i];
+        return new String(segment.text, start, segment.textEnd[i] - start);
+    }
+
+    /**
+     * Checks whether the tag or the message of a row contains a string, without copying the message
+     * @param row Retained row
+     * @param query String to look for
+     */
+    public synchronized boolean contains(int row, String query) {
+        Segment segment = segmentOf(row);
+        int i = row & (SEGMENT_ROWS - 1);
+        int tagId = segment.tag[i];
+        if (tagId >= 0 && tags.get(tagId).contains(query))
+            return true;
+        return indexOf(segment.text, segment.textStart[i], segment.textEnd[i], query) >= 0;
+    }
+
+    /**
+     * Checks whether a row holds the same report as the passed one, occurrences and the thread aside
+     * @param row Retained row
+     * @param text Sequence that contains the message
+     * @param start Start of the message (inclusive)
+     * @param end End of the message (exclusive)
+     */
+    synchronized boolean isSameReport(int row, int pid, byte level, int tagId, CharSequence text, int start, int end) {
+        Segment segment = segmentOf(row);
+        int i = row & (SEGMENT_ROWS - 1);
+        if (segment.pid[i] != pid || segment.level[i] != level || segment.tag[i] != tagId
+                || (segment.flags[i] & ~(FLAG_EXCEPTION | FLAG_SELECTED)) != 0)
+            return false;
+        return Segment.regionEquals(segment.text, segment.textStart[i], segment.textEnd[i], text, start, end);
+    }
+
+    // Direct access to the text arena for indexes in this package; the caller must hold the store's lock
+
+    char[] messageArena(int row) {
+        return segmentOf(row).text;
+    }
+
+    int messageStart(int row) {
+        return segmentOf(row).textStart[row & (SEGMENT_ROWS - 1)];
+    }
+
+    int messageEnd(int row) {
+        return segmentOf(row).textEnd[row & (SEGMENT_ROWS - 1)];
+    }
+
+    private static int skipIndentation(CharSequence s, int start, int end) {
+        while (start < end && (s.charAt(start) == '\t' || s.charAt(start) == ' '))
+            start++;
+        return start;
+    }
+
+    static int indexOf(CharSequence s, int start, int end, String query) {
+        int n = query.length();
+        if (n == 0)
+            return start;
+        char first = query.charAt(0);
+        outer:
+        for (int i = start; i <= end - n; i++) {
+            if (s.charAt(i) != first)
+                continue;
+            for (int j = 1; j < n; j++) {
+                if (s.charAt(i + j) != query.charAt(j))
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    static int indexOf(char[] s, int start, int end, String query) {
+        int n = query.length();
+        if (n == 0)
+            return start;
+        char first = query.charAt(0);
+        outer:
+        for (int i = start; i <= end - n; i++) {
+            if (s[i] != first)
+                continue;
+            for (int j = 1; j < n; j++) {
+                if (s[i + j] != query.charAt(j))
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Columns of up to SEGMENT_ROWS consecutive rows
+     */
+    private static final class Segment {
+
+        private static final int ROW_BYTES = 8 + 4 + 4 + 1 + 4 + 1 + 1 + 4 + 8 + 4 + 4 + 2 * 4;
+        // Messages longer than this are always copied, comparing them would cost more than it saves
+        private static final int MAX_SHARED_CHARS = 256;
+
+        final long[] time = new long[SEGMENT_ROWS];
+        final int[] pid = new int[SEGMENT_ROWS];
+        final int[] tid = new int[SEGMENT_ROWS];
+        final byte[] level = new byte[SEGMENT_ROWS];
+        final int[] tag = new int[SEGMENT_ROWS];
+        final byte[] flags = new byte[SEGMENT_ROWS];
+        final byte[] buffer = new byte[SEGMENT_ROWS];
+        // Additional occurrences folded into the row and the time of the latest one
+        final int[] repeats = new int[SEGMENT_ROWS];
+        final long[] lastTime = new long[SEGMENT_ROWS];
+        // Bounds of each row's message in the text arena; rows with the same message share the text
+        final int[] textStart = new int[SEGMENT_ROWS];
+        final int[] textEnd = new int[SEGMENT_ROWS];
+        // Open addressing table from message hash to the first row (+1) in this segment that holds the message
+        final int[] messages = new int[2 * SEGMENT_ROWS];
+        char[] text = new char[INITIAL_ARENA_CHARS];
+        int textLength;
+        int size;
+
+        /**
+         * Stores the message of row i, referring to an equal message of an earlier row if there is one
+         * @return Returns the number of bytes the arena grew by
+         */
+        int putText(int i, CharSequence s, int start, int end) {
+            if (end - start > MAX_SHARED_CHARS) {
+                textStart[i] = textLength;
+                int grownBy = appendText(s, start, end);
+                textEnd[i] = textLength;
+                return grownBy;
+            }
+
+            int hash = 0;
+            for (int c = start; c < end; c++)
+                hash = 31 * hash + s.charAt(c);
+            int mask = messages.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            // Probe until the message or a free slot shows up; the table never fills since it is twice the rows
+            while (messages[slot] != 0) {
+                int other = messages[slot] - 1;
+                if (regionEquals(text, textStart[other], textEnd[other], s, start, end)) {
+                    textStart[i] = textStart[other];
+                    textEnd[i] = textEnd[other];
+                    return 0;
+                }
+                slot = (slot + 1) & mask;
+            }
+            messages[slot] = i + 1;
+            textStart[i] = textLength;
+            int grownBy = appendText(s, start, end);
+            textEnd[i] = textLength;
+            return grownBy;
+        }
+
+        private int appendText(CharSequence s, int start, int end) {
+            int length = end - start;
+            int grownBy = 0;
+            if (textLength + length > text.length) {
+                int capacity = Math.max(text.length * 2, textLength + length);
+                grownBy = (capacity - text.length) * 2;
+                text = Arrays.copyOf(text, capacity);
+            }
+            if (s instanceof String) {
+                ((String) s).getChars(start, end, text, textLength);
+            }
+            else {
+                for (int i = start; i < end; i++)
+                    text[textLength + i - start] = s.charAt(i);
+            }
+            textLength += length;
+            return grownBy;
+        }
+
+        long bytes() {
+            return (long) SEGMENT_ROWS * ROW_BYTES + text.length * 2L;
+        }
+
+        void clear() {
+            size = 0;
+            textLength = 0;
+            Arrays.fill(messages, 0);
+        }
+
+        static boolean regionEquals(char[] a, int aStart, int aEnd, CharSequence b, int bStart, int bEnd) {
+            if (aEnd - aStart != bEnd - bStart)
+                return false;
+            for (int i = aStart, j = bStart; i < aEnd; i++, j++) {
+                if (a[i] != b.charAt(j))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat.store;
+
+import java.util.Arrays;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Folds a report that repeats one of the last few rows into that row instead of appending it again.
+ * The row keeps the time of its first occurrence and counts the others (see LogStore.getOccurrences()).
+ * Reports only match if pid, level, tag and message are the same; stack trace lines never collapse.
+ * An instance must only be used by the ingesting thread.
+ */
+public final class RepeatCollapser {
+
+    /** Window that only folds directly consecutive repeats */
+    public static final int WINDOW_CONSECUTIVE = 1;
+    /** Window that also folds repeats which alternate with a few other lines */
+    public static final int WINDOW_DEFAULT = 64;
+
+    private final LogStore store;
+    private int window;
+    // Lossy hash table of recent rows by report, a colliding report replaces the older row
+    private int[] recentRows = new int[0];
+    // Whether the last report got folded, its continuation lines are folded along with it
+    private boolean lastCollapsed;
+    private long collapsedCount;
+
+    /**
+     * @param window Number of recent rows to look for a repeat in, 0 disables collapsing
+     */
+    public RepeatCollapser(LogStore store, int window) {
+        this.store = store;
+        setWindow(window);
+    }
+
+    /**
+     * @param window Number of recent rows to look for a repeat in, 0 disables collapsing
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(window, 0);
+        int capacity = Integer.highestOneBit(Math.max(2 * this.window - 1, 1)) * 2;
+        if (recentRows.length != capacity)
+            recentRows = new int[capacity];
+        Arrays.fill(recentRows, -1);
+        lastCollapsed = false;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return Returns the number of lines that got folded into an earlier row
+     */
+    public long getCollapsedCount() {
+        return collapsedCount;
+    }
+
+    /**
+     * Appends a parsed line to the store unless it repeats a recent row
+     * @param entry Parsed line
+     * @return Returns the new row, the row the line got folded into or -1 if the line carries nothing to show
+     */
+    public int append(LogEntry entry) {
+        int kind = entry.getKind();
+        if (kind == LogEntry.KIND_CONTINUATION && lastCollapsed) {
+            collapsedCount++;
+            return store.getEndRow() - 1;
+        }
+        if (window == 0 || kind != LogEntry.KIND_ENTRY) {
+            lastCollapsed = false;
+            return store.append(entry);
+        }
+
+        CharSequence line = entry.getLine();
+        int start = entry.getMessageStart();
+        int end = entry.getMessageEnd();
+        if (TraceCoalescer.isTraceLine(line, start, end)) {
+            lastCollapsed = false;
+            return store.append(entry);
+        }
+
+        int tagId = store.internTag(entry.getTagSource(), entry.getTagStart(), entry.getTagEnd());
+        int hash = 31 * (31 * (31 * entry.getPid() + entry.getLevel()) + tagId);
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + line.charAt(i);
+        int slot = (hash ^ (hash >>> 16)) & (recentRows.length - 1);
+
+        int row = recentRows[slot];
+        if (row >= 0 && store.getEndRow() - row <= window && store.isRetained(row)
+                && store.isSameReport(row, entry.getPid(), entry.getLevel(), tagId, line, start, end)) {
+            store.addOccurrence(row, entry.getTimeMillis());
+            lastCollapsed = true;
+            collapsedCount++;
+            return row;
+        }
+
+        row = store.append(LogEntry.KIND_ENTRY, entry.getTimeMillis(), entry.getPid(), entry.getTid(), entry.getLevel(), tagId, line, start, end,
+                entry.getBuffer());
+        recentRows[slot] = row;
+        lastCollapsed = false;
+        return row;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.store;
+
+import java.util.Arrays;
+
+/**
+ * Set of rows, one bit per row, that only spans the words between its lowest and highest row.
+ * Rows below a threshold can be dropped as the store evicts them, so the set stays as small as the retained window.
+ */
+public final class RowBitSet {
+
+    private long[] words = new long[16];
+    // Word index of words[0], i.e. the row it starts with divided by 64
+    private int firstWord;
+    private int wordCount;
+
+    public void set(int row) {
+        int word = row >>> 6;
+        ensure(word, word + 1);
+        words[word - firstWord] |= 1L << row;
+    }
+
+    public boolean get(int row) {
+        int index = (row >>> 6) - firstWord;
+        return index >= 0 && index < wordCount && (words[index] & (1L << row)) != 0;
+    }
+
+    public boolean isEmpty() {
+        for (int i = 0; i < wordCount; i++) {
+            if (words[i] != 0)
+                return false;
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0, wordCount, 0);
+        wordCount = 0;
+    }
+
+    /**
+     * Removes all rows below the passed one
+     */
+    public void removeBelow(int row) {
+        int drop = (row >>> 6) - firstWord;
+        if (drop > 0) {
+            if (drop >= wordCount) {
+                clear();
+                return;
+            }
+            System.arraycopy(words, drop, words, 0, wordCount - drop);
+            Arrays.fill(words, wordCount - drop, wordCount, 0);
+            wordCount -= drop;
+            firstWord += drop;
+        }
+        if (wordCount > 0 && row >>> 6 == firstWord)
+            words[0] &= -1L << row;
+    }
+
+    /**
+     * Adds all rows of another set
+     */
+    public void or(RowBitSet other) {
+        if (other.wordCount == 0)
+            return;
+        ensure(other.firstWord, other.firstWord + other.wordCount);
+        int offset = other.firstWord - firstWord;
+        for (int i = 0; i < other.wordCount; i++)
+            words[offset + i] |= other.words[i];
+    }
+
+    /**
+     * Keeps only the rows that are contained in another set as well
+     */
+    public void and(RowBitSet other) {
+        for (int i = 0; i < wordCount; i++) {
+            int index = firstWord + i - other.firstWord;
+            words[i] &= index >= 0 && index < other.wordCount ? other.words[index] : 0;
+        }
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (int i = 0; i < wordCount; i++)
+            count += Long.bitCount(words[i]);
+        return count;
+    }
+
+    /**
+     * @return Returns the rows in ascending order
+     */
+    public int[] toArray() {
+        int[] rows = new int[cardinality()];
+        int n = 0;
+        for (int i = 0; i < wordCount; i++) {
+            long word = words[i];
+            int base = (firstWord + i) << 6;
+            while (word != 0) {
+                rows[n++] = base + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return rows;
+    }
+
+    public long getMemoryBytes() {
+        return words.length * 8L;
+    }
+
+    /**
+     * Makes sure that words[] covers the word range [from, to)
+     */
+    private void ensure(int from, int to) {
+        if (wordCount == 0)
+            firstWord = from;
+        else if (from < firstWord) {
+            int shift = firstWord - from;
+            grow(wordCount + shift);
+            System.arraycopy(words, 0, words, shift, wordCount);
+            Arrays.fill(words, 0, shift, 0);
+            wordCount += shift;
+            firstWord = from;
+        }
+        int needed = to - firstWord;
+        if (needed > wordCount) {
+            grow(needed);
+            wordCount = needed;
+        }
+    }
+
+    private void grow(int capacity) {
+        if (capacity > words.length)
+            words = Arrays.copyOf(words, Math.max(words.length * 2, capacity));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.store;
+
+import java.util.Arrays;
+
+/**
+ * Dictionary that maps each distinct tag to a small id, so the store only keeps one copy per tag.
+ * Lookups work on character ranges and only allocate when a tag is seen for the first time.
+ */
+public final class TagTable {
+
+    private String[] tags = new String[64];
+    private int[] hashes = new int[64];
+    // Open addressing table of tag id + 1, 0 marks a free slot
+    private int[] slots = new int[128];
+    private int size;
+
+    /**
+     * @param s Sequence that contains the tag
+     * @param start Start of the tag (inclusive)
+     * @param end End of the tag (exclusive)
+     * @return Returns the id of the tag, adding it if it is new
+     */
+    public int intern(CharSequence s, int start, int end) {
+        int hash = hash(s, start, end);
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0)
+                break;
+            int id = slot - 1;
+            if (hashes[id] == hash && equals(tags[id], s, start, end))
+                return id;
+        }
+        return add(s.subSequence(start, end).toString(), hash);
+    }
+
+    /**
+     * @return Returns the id of the tag or -1 if it has never been interned
+     */
+    public int find(CharSequence tag) {
+        int hash = hash(tag, 0, tag.length());
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0)
+                return -1;
+            int id = slot - 1;
+            if (hashes[id] == hash && equals(tags[id], tag, 0, tag.length()))
+                return id;
+        }
+    }
+
+    public String get(int id) {
+        return tags[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int add(String tag, int hash) {
+        if (size == tags.length) {
+            tags = Arrays.copyOf(tags, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int id = size++;
+        tags[id] = tag;
+        hashes[id] = hash;
+
+        // Keep the table at most half full
+        if (size * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < size; i++)
+                insert(i);
+        }
+        else
+            insert(id);
+        return id;
+    }
+
+    private void insert(int id) {
+        int mask = slots.length - 1;
+        int i = hashes[id] & mask;
+        while (slots[i] != 0)
+            i = (i + 1) & mask;
+        slots[i] = id + 1;
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = 31 * h + s.charAt(i);
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(String tag, CharSequence s, int start, int end) {
+        if (tag.length() != end - start)
+            return false;
+        for (int i = 0; i < tag.length(); i++) {
+            if (tag.charAt(i) != s.charAt(start + i))
+                return false;
+        }
+        return true;
+    }
+}
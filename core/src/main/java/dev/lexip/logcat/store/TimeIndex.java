@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+
+package dev.lexip.logcat.store;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Keeps one bucket per second that has rows: the first row of that second and how many lines of each level
+ * arrived in it. Jumping to a point in time is a binary search over the buckets, and the counts feed a timeline.
+ * Lines that arrive out of order are counted in the newest second, so the buckets stay sorted. Folded occurrences
+ * of a repeated row count as lines of the second they arrived in. Each line is an O(1) update.
+ */
+public final class TimeIndex implements LogStore.Listener {
+
+    private static final int LEVELS = LogEntry.LEVEL_FATAL + 1;
+
+    private final LogStore store;
+
+    // Ring of buckets, the oldest one at head
+    private long[] seconds = new long[64];
+    private int[] firstRows = new int[64];
+    private int[] counts = new int[64 * LEVELS];
+    private int head;
+    private int size;
+
+    /**
+     * Creates an index over all rows retained by the store and keeps it up to date
+     */
+    public TimeIndex(LogStore store) {
+        this.store = store;
+        synchronized (store) {
+            for (int row = store.getFirstRow(); row < store.getEndRow(); row++)
+                onAppended(row);
+            store.addListener(this);
+        }
+    }
+
+    @Override
+    public void onAppended(int row) {
+        count(row, store.getTime(row), store.getLevel(row));
+    }
+
+    @Override
+    public void onEvicted(int firstRow) {
+        while (size > 1 && firstRows[slot(1)] <= firstRow) {
+            head = slot(1);
+            size--;
+        }
+        // The counts of the oldest second may still include a few evicted lines
+        if (size > 0 && firstRows[head] < firstRow)
+            firstRows[head] = firstRow;
+    }
+
+    @Override
+    public void onUpdated(int row) {
+        // Another occurrence got folded into the row, it arrived after every appended row
+        count(store.getEndRow(), store.getLastTime(row), store.getLevel(row));
+    }
+
+    /**
+     * Counts a line in the bucket of its second, which starts with the passed row if it is new
+     */
+    private void count(int row, long timeMillis, byte level) {
+        // Markers have no time and belong to the second before them
+        if (timeMillis == 0 && size == 0)
+            return;
+        long second = timeMillis != 0 ? floorDiv(timeMillis, 1000) : Long.MIN_VALUE;
+        if (size == 0 || second > seconds[slot(size - 1)]) {
+            if (size == seconds.length)
+                grow();
+            int last = slot(size);
+            seconds[last] = second;
+            firstRows[last] = row;
+            for (int l = 0; l < LEVELS; l++)
+                counts[last * LEVELS + l] = 0;
+            size++;
+        }
+        counts[slot(size - 1) * LEVELS + level]++;
+    }
+
+    /**
+     * @return Returns the first row at or after the passed time, or the end row if there is none
+     */
+    public int findRow(long timeMillis) {
+        synchronized (store) {
+            long second = floorDiv(timeMillis, 1000);
+            int i = lowerBound(second);
+            if (i == size)
+                return store.getEndRow();
+            int row = Math.max(firstRows[slot(i)], store.getFirstRow());
+            if (seconds[slot(i)] != second)
+                return row;
+
+            // Within the second, the rows are usually in order
+            int end = i + 1 < size ? firstRows[slot(i + 1)] : store.getEndRow();
+            for (; row < end; row++) {
+                if (store.getTime(row) >= timeMillis)
+                    return row;
+            }
+            return end;
+        }
+    }
+
+    /**
+     * @return Returns the first second with rows (epoch seconds), or -1 if there is none
+     */
+    public long getFirstSecond() {
+        synchronized (store) {
+            return size > 0 ? seconds[head] : -1;
+        }
+    }
+
+    /**
+     * @return Returns the last second with rows (epoch seconds), or -1 if there is none
+     */
+    public long getLastSecond() {
+        synchronized (store) {
+            return size > 0 ? seconds[slot(size - 1)] : -1;
+        }
+    }
+
+    /**
+     * @return Returns the number of lines with the passed level that arrived in a second
+     */
+    public int count(long second, byte level) {
+        synchronized (store) {
+            int i = lowerBound(second);
+            return i < size && seconds[slot(i)] == second ? counts[slot(i) * LEVELS + level] : 0;
+        }
+    }
+
+    /**
+     * Sums the counts of consecutive seconds into bins, e.g. one bin per bar of a timeline
+     * @param fromSecond First second of the first bin (epoch seconds)
+     * @param secondsPerBin Seconds each bin covers
+     * @param levelMask Bits of the levels to count (1 << LogEntry.LEVEL_*)
+     * @param bins Target that is overwritten, its length is the number of bins
+     * @return Returns the highest count of a bin
+     */
+    public int histogram(long fromSecond, int secondsPerBin, int levelMask, int[] bins) {
+        synchronized (store) {
+            for (int b = 0; b < bins.length; b++)
+                bins[b] = 0;
+            int max = 0;
+            for (int i = lowerBound(fromSecond); i < size; i++) {
+                long bin = (seconds[slot(i)] - fromSecond) / secondsPerBin;
+                if (bin >= bins.length)
+                    break;
+                int base = slot(i) * LEVELS;
+                int sum = bins[(int) bin];
+                for (int l = 0; l < LEVELS; l++) {
+                    if ((levelMask & (1 << l)) != 0)
+                        sum += counts[base + l];
+                }
+                bins[(int) bin] = sum;
+                max = Math.max(max, sum);
+            }
+            return max;
+        }
+    }
+
+    /**
+     * @return Returns the approximate memory held by the buckets
+     */
+    public long getMemoryBytes() {
+        synchronized (store) {
+            return seconds.length * (8L + 4 + LEVELS * 4);
+        }
+    }
+
+    /**
+     * @return Returns the index of the first bucket whose second is not before the passed one
+     */
+    private int lowerBound(long second) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (seconds[slot(mid)] < second)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private int slot(int i) {
+        return (head + i) & (seconds.length - 1);
+    }
+
+    private void grow() {
+        int capacity = seconds.length * 2;
+        long[] newSeconds = new long[capacity];
+        int[] newFirstRows = new int[capacity];
+        int[] newCounts = new int[capacity * LEVELS];
+        for (int i = 0; i < size; i++) {
+            newSeconds[i] = seconds[slot(i)];
+            newFirstRows[i] = firstRows[slot(i)];
+            System.arraycopy(counts, slot(i) * LEVELS, newCounts, i * LEVELS, LEVELS);
+        }
+        seconds = newSeconds;
+        firstRows = newFirstRows;
+        counts = newCounts;
+        head = 0;
+    }
+
+    // Math.floorDiv needs API level 24
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+}
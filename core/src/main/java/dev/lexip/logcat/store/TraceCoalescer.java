@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+/**
+ * Streaming stage between the parser and the store that turns stack traces into single rows.
+ * A line that may start a trace (e.g. "java.lang.IllegalStateException: ...") is held back per pid/tid until the
+ * next line of the same thread shows whether frames follow. The header, its "at ..." frames and its "Caused by:"
+ * chains are then stored as one row with FLAG_TRACE. Traces are fingerprinted by their exception types and frames,
+ * so a crash loop that repeats the same trace only raises the occurrence count of the first row.
+ * All other lines pass straight through, optionally to a RepeatCollapser. An instance must only be used by the
+ * ingesting thread.
+ */
+public final class TraceCoalescer {
+
+    // Logcat writes a trace at once, a group that got no line for this long is complete
+    private static final long IDLE_NANOS = 50_000_000L;
+    // Bounds for groups that never end (e.g. a tag that logs nothing but frames)
+    private static final int MAX_GROUP_LINES = 256;
+    private static final int MAX_FINGERPRINTS = 4096;
+
+    private final LogStore store;
+    // Stage for the lines that pass through or null to append them as they are
+    private final RepeatCollapser repeats;
+    // Open groups by pid/tid
+    private final HashMap<Long, Group> groups = new HashMap<Long, Group>();
+    private final ArrayList<Group> spareGroups = new ArrayList<Group>();
+    // Fingerprint of each stored trace and its row
+    private final HashMap<Long, Integer> traces = new HashMap<Long, Integer>();
+    private final StringBuilder textBuilder = new StringBuilder(1024);
+    // Key of the last line with a header, continuation lines belong to it
+    private long lastKey = Long.MIN_VALUE;
+    private int foldedCount;
+
+    public TraceCoalescer(LogStore store) {
+        this(store, null);
+    }
+
+    /**
+     * @param repeats Collapser for the lines that are not part of a trace or null
+     */
+    public TraceCoalescer(LogStore store, RepeatCollapser repeats) {
+        this.store = store;
+        this.repeats = repeats;
+    }
+
+    /**
+     * Passes a parsed line on to the store or holds it back as part of a possible trace
+     * @param entry Parsed line
+     */
+    public void append(LogEntry entry) {
+        int kind = entry.getKind();
+        if (kind == LogEntry.KIND_SKIP)
+            return;
+        if (kind == LogEntry.KIND_MARKER) {
+            store.append(entry);
+            return;
+        }
+
+        CharSequence line = entry.getLine();
+        int start = entry.getMessageStart();
+        int end = entry.getMessageEnd();
+        long key = kind == LogEntry.KIND_CONTINUATION ? lastKey : key(entry.getPid(), entry.getTid());
+        if (kind == LogEntry.KIND_ENTRY)
+            lastKey = key;
+
+        Group group = groups.get(key);
+        if (group != null) {
+            if (group.accepts(line, start, end)) {
+                group.add(entry, kind, store);
+                if (group.size == MAX_GROUP_LINES)
+                    close(groups.remove(key));
+                return;
+            }
+            close(groups.remove(key));
+        }
+
+        if (kind == LogEntry.KIND_ENTRY && isHeader(line, start, end)) {
+            group = spareGroups.isEmpty() ? new Group() : spareGroups.remove(spareGroups.size() - 1);
+            group.open(entry);
+            group.add(entry, kind, store);
+            groups.put(key, group);
+            return;
+        }
+        if (repeats != null)
+            repeats.append(entry);
+        else
+            store.append(entry);
+    }
+
+    /**
+     * Stores the groups that did not get a line for a while, i.e. whose trace is complete
+     * @param nowNanos Current System.nanoTime()
+     * @return Returns whether any group got stored
+     */
+    public boolean flushIdle(long nowNanos) {
+        boolean flushed = false;
+        Iterator<Group> it = groups.values().iterator();
+        while (it.hasNext()) {
+            Group group = it.next();
+            if (nowNanos - group.lastNanos >= IDLE_NANOS) {
+                it.remove();
+                close(group);
+                flushed = true;
+            }
+        }
+        return flushed;
+    }
+
+    /**
+     * Stores all groups that are held back
+     */
+    public void flush() {
+        for (Group group : groups.values())
+            close(group);
+        groups.clear();
+    }
+
+    /**
+     * @return Returns the number of traces that got folded into an earlier identical one
+     */
+    public int getFoldedCount() {
+        return foldedCount;
+    }
+
+    private void close(Group group) {
+        if (group.frames == 0) {
+            // Just a line that mentions an exception, store it as it is
+            for (int i = 0; i < group.size; i++) {
+                String text = group.lines[i];
+                store.append(group.kinds[i], group.times[i], group.pid, group.tid, group.levels[i], group.tagIds[i], text, 0, text.length(), group.buffer);
+            }
+        }
+        else {
+            long fingerprint = group.fingerprint();
+            Integer row = traces.get(fingerprint);
+            if (row != null && store.isRetained(row) && (store.getFlags(row) & LogStore.FLAG_TRACE) != 0) {
+                store.addOccurrence(row, group.times[0]);
+                foldedCount++;
+            }
+            else {
+                StringBuilder sb = textBuilder;
+                sb.setLength(0);
+                byte level = LogEntry.LEVEL_UNKNOWN;
+                for (int i = 0; i < group.size; i++) {
+                    if (i > 0)
+                        sb.append('\n');
+                    sb.append(group.lines[i]);
+                    level = (byte) Math.max(level, group.levels[i]);
+                }
+                int newRow = store.append(group.times[0], group.pid, group.tid, level, group.tagIds[0], sb, 0, sb.length(),
+                        LogStore.FLAG_TRACE | LogStore.FLAG_EXCEPTION, group.buffer);
+                if (traces.size() >= MAX_FINGERPRINTS)
+                    forgetEvictedTraces();
+                traces.put(fingerprint, newRow);
+            }
+        }
+        group.clear();
+        spareGroups.add(group);
+    }
+
+    private void forgetEvictedTraces() {
+        int firstRow = store.getFirstRow();
+        Iterator<Map.Entry<Long, Integer>> it = traces.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() < firstRow)
+                it.remove();
+        }
+        if (traces.size() >= MAX_FINGERPRINTS)
+            traces.clear();
+    }
+
+    private static long key(int pid, int tid) {
+        return ((long) pid << 32) | (tid & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return Returns whether a line may start a trace: "FATAL EXCEPTION: main", "Caused by: ..." or a line that
+     * starts with a qualified throwable name, like "java.lang.RuntimeException: ..."
+     */
+    static boolean isHeader(CharSequence s, int start, int end) {
+        return startsWith(s, start, end, "FATAL EXCEPTION") || startsWith(s, start, end, "Caused by: ")
+                || isThrowableLine(s, start, end);
+    }
+
+    /**
+     * @return Returns whether a line starts with a qualified class name ending in Exception, Error or Throwable,
+     * followed by ": " and a message or by nothing (what Throwable.toString() prints)
+     */
+    static boolean isThrowableLine(CharSequence s, int start, int end) {
+        int segmentStart = start;
+        boolean qualified = false;
+        int i = start;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                if (i == segmentStart)
+                    return false;
+                qualified = true;
+                segmentStart = i + 1;
+            }
+            else if (i == segmentStart ? !Character.isJavaIdentifierStart(c) : !Character.isJavaIdentifierPart(c))
+                break;
+        }
+        if (!qualified || i == segmentStart || (i < end && s.charAt(i) != ':'))
+            return false;
+        return endsWith(s, segmentStart, i, "Exception") || endsWith(s, segmentStart, i, "Error")
+                || endsWith(s, segmentStart, i, "Throwable");
+    }
+
+    /**
+     * @return Returns whether a line belongs to the frames of a trace ("at ...", "Caused by: ...", "... 12 more")
+     */
+    static boolean isTraceLine(CharSequence s, int start, int end) {
+        while (start < end && (s.charAt(start) == '\t' || s.charAt(start) == ' '))
+            start++;
+        return startsWith(s, start, end, "at ") || startsWith(s, start, end, "Caused by: ")
+                || startsWith(s, start, end, "... ") || startsWith(s, start, end, "Suppressed: ");
+    }
+
+    /**
+     * @return Returns whether a line is a frame of a trace ("at ...", "... 12 more")
+     */
+    static boolean isFrame(CharSequence s, int start, int end) {
+        while (start < end && (s.charAt(start) == '\t' || s.charAt(start) == ' '))
+            start++;
+        return startsWith(s, start, end, "at ") || startsWith(s, start, end, "... ");
+    }
+
+    private static boolean startsWith(CharSequence s, int start, int end, String prefix) {
+        if (end - start < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(start + i) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean endsWith(CharSequence s, int start, int end, String suffix) {
+        return end - start >= suffix.length() && startsWith(s, end - suffix.length(), end, suffix);
+    }
+
+    /**
+     * Lines of one thread that may form a trace
+     */
+    private static final class Group {
+
+        int pid;
+        int tid;
+        byte buffer;
+        int size;
+        int frames;
+        // Started with "FATAL EXCEPTION", the exception line follows after a few header lines
+        boolean fatal;
+        long lastNanos;
+        String[] lines = new String[16];
+        int[] kinds = new int[16];
+        long[] times = new long[16];
+        byte[] levels = new byte[16];
+        int[] tagIds = new int[16];
+
+        void open(LogEntry entry) {
+            pid = entry.getPid();
+            tid = entry.getTid();
+            buffer = entry.getBuffer();
+            fatal = startsWith(entry.getLine(), entry.getMessageStart(), entry.getMessageEnd(), "FATAL EXCEPTION");
+        }
+
+        boolean accepts(CharSequence s, int start, int end) {
+            if (isTraceLine(s, start, end))
+                return true;
+            // A crash names the process and the exception before the first frame, any other group without
+            // frames is released by the first line that is not a frame
+            return fatal && frames == 0 && size < 4
+                    && (isThrowableLine(s, start, end) || startsWith(s, start, end, "Process: "));
+        }
+
+        void add(LogEntry entry, int kind, LogStore store) {
+            if (size == lines.length) {
+                int capacity = size * 2;
+                lines = Arrays.copyOf(lines, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+                times = Arrays.copyOf(times, capacity);
+                levels = Arrays.copyOf(levels, capacity);
+                tagIds = Arrays.copyOf(tagIds, capacity);
+            }
+            CharSequence line = entry.getLine();
+            int start = entry.getMessageStart();
+            int end = entry.getMessageEnd();
+            if (isFrame(line, start, end))
+                frames++;
+            lines[size] = line.subSequence(start, end).toString();
+            kinds[size] = kind;
+            if (kind == LogEntry.KIND_CONTINUATION) {
+                times[size] = size > 0 ? times[size - 1] : 0;
+                levels[size] = size > 0 ? levels[size - 1] : LogEntry.LEVEL_UNKNOWN;
+                tagIds[size] = size > 0 ? tagIds[size - 1] : -1;
+            }
+            else {
+                times[size] = entry.getTimeMillis();
+                levels[size] = entry.getLevel();
+                tagIds[size] = store.internTag(entry.getTagSource(), entry.getTagStart(), entry.getTagEnd());
+            }
+            size++;
+            lastNanos = System.nanoTime();
+        }
+
+        /**
+         * Hashes the exception types and frames, leaving out details that differ between occurrences
+         * of the same crash (messages, process ids)
+         */
+        long fingerprint() {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < size; i++) {
+                String line = lines[i];
+                int start = 0;
+                int end = line.length();
+                while (start < end && (line.charAt(start) == '\t' || line.charAt(start) == ' '))
+                    start++;
+                if (startsWith(line, start, end, "Process: "))
+                    continue;
+                if (!startsWith(line, start, end, "at ") && !startsWith(line, start, end, "... ")) {
+                    // "Caused by: java.io.IOException: detail" only contributes "Caused by: java.io.IOException"
+                    int from = startsWith(line, start, end, "Caused by: ") ? start + 11 : start;
+                    int colon = line.indexOf(": ", from);
+                    if (colon >= 0)
+                        end = colon;
+                }
+                for (int c = start; c < end; c++)
+                    hash = (hash ^ line.charAt(c)) * 0x100000001b3L;
+                hash = (hash ^ '\n') * 0x100000001b3L;
+            }
+            hash = (hash ^ tagIds[0]) * 0x100000001b3L;
+            return hash;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++)
+                lines[i] = null;
+            size = 0;
+            frames = 0;
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2021 xLexip
+ *
+ * This program is free and open source software:
+ * You can redistribute it and/or modify it under the terms of the
+ * 'Mozilla Public License 2.0' as published by the Mozilla Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the mentioned license for more details.
+ *
+ * You should have received a copy of the Mozilla Public License 2.0
+ * along with this program. If not, see <http://mozilla.org/MPL/2.0/>.
+ *
+ */
+
+package dev.lexip.logcat.store;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Incrementally maintained substring index over the tags and messages of a {@link LogStore}.
+ * Every trigram (three consecutive characters) maps to the blocks of BLOCK_ROWS rows that contain it.
+ * A query first narrows down to the blocks that contain all of its trigrams and only verifies the rows of those blocks.
+ * Posting lists are delta-encoded varints, so a block usually costs a single byte per trigram.
+ * The index registers itself as a listener and follows appends and evictions of the store. An eviction only
+ * moves the first retained block; lists drop their evicted entries lazily, when a query reads them, when they
+ * need room for new entries or when an incremental sweep that advances with every append reaches them.
+ */
+public final class TrigramIndex implements LogStore.Listener {
+
+    static final int BLOCK_SHIFT = 5;
+    static final int BLOCK_ROWS = 1 << BLOCK_SHIFT;
+    // Candidate blocks verified per acquisition of the store's lock, so appends never wait long
+    static final int CHUNK_BLOCKS = 256;
+    // Slots of the map the sweep trims per appended row, a full pass takes capacity / SWEEP_SLOTS rows
+    private static final int SWEEP_SLOTS = 4;
+
+    private static final Comparator<Postings> SHORTEST_FIRST = new Comparator<Postings>() {
+        @Override
+        public int compare(Postings a, Postings b) {
+            return Integer.compare(a.length - a.start, b.length - b.start);
+        }
+    };
+
+    private final LogStore store;
+
+    // Open addressing map from trigram key to posting list, keys are only valid where postings != null
+    private long[] keys = new long[1024];
+    private Postings[] postings = new Postings[1024];
+    private int size;
+    private int emptyCount;
+    // Blocks below this one only hold evicted rows
+    private int firstBlock;
+    // Next slot the sweep trims
+    private int sweepSlot;
+
+    // Trigram keys of each tag, tags repeat a lot so they are only split once
+    private long[][] tagTrigrams = new long[64][];
+
+    private long bytes;
+
+    /**
+     * Creates an index over all rows retained by the store and keeps it up to date
+     */
+    public TrigramIndex(LogStore store) {
+        this.store = store;
+        synchronized (store) {
+            for (int row = store.getFirstRow(); row < store.getEndRow(); row++)
+                onAppended(row);
+            store.addListener(this);
+        }
+    }
+
+    @Override
+    public void onAppended(int row) {
+        sweep();
+        int block = row >>> BLOCK_SHIFT;
+
+        int tagId = store.getTagId(row);
+        if (tagId >= 0) {
+            long[] trigrams = getTagTrigrams(tagId);
+            for (long key : trigrams)
+                add(key, block);
+        }
+
+        char[] text = store.messageArena(row);
+        int end = store.messageEnd(row);
+        for (int i = store.messageStart(row); i + 3 <= end; i++)
+            add(key(text[i], text[i + 1], text[i + 2]), block);
+    }
+
+    @Override
+    public void onEvicted(int firstRow) {
+        // The lists are trimmed later, see sweep()
+        firstBlock = firstRow >>> BLOCK_SHIFT;
+    }
+
+    @Override
+    public void onUpdated(int row) {
+        // Folding occurrences changes neither text nor level
+    }
+
+    /**
+     * Finds all retained rows whose tag or message contains a string
+     * @param query String to look for
+     * @return Returns the matching rows in ascending order or null if the query is too short to use the index
+     */
+    public IntList query(String query) {
+        RowBitSet rows = new RowBitSet();
+        if (query(query, rows) < 0)
+            return null;
+        IntList result = new IntList();
+        for (int row : rows.toArray())
+            result.add(row);
+        return result;
+    }
+
+    /**
+     * Adds all retained rows whose tag or message contains a string to a set. The candidate blocks are looked up
+     * at once, but verified in chunks with the store's lock released in between; rows appended meanwhile are not
+     * checked and rows evicted meanwhile are skipped.
+     * @param query String to look for
+     * @param target Set that receives the matching rows
+     * @return Returns the end row of the rows that got checked, or -1 if the query is too short to use the index
+     */
+    public int query(String query, RowBitSet target) {
+        if (query.length() < 3)
+            return -1;
+
+        int[] blocks;
+        int endRow;
+        synchronized (store) {
+            blocks = candidateBlocks(query);
+            endRow = store.getEndRow();
+        }
+        for (int i = 0; i < blocks.length; ) {
+            synchronized (store) {
+                int firstRow = store.getFirstRow();
+                int chunkEnd = Math.min(blocks.length, i + CHUNK_BLOCKS);
+                for (; i < chunkEnd; i++) {
+                    int from = Math.max(blocks[i] << BLOCK_SHIFT, firstRow);
+                    int to = Math.min((blocks[i] + 1) << BLOCK_SHIFT, endRow);
+                    for (int row = from; row < to; row++) {
+                        if (store.contains(row, query))
+                            target.set(row);
+                    }
+                }
+            }
+        }
+        return endRow;
+    }
+
+    /**
+     * @return Returns the approximate memory held by the posting lists
+     */
+    public long getMemoryBytes() {
+        synchronized (store) {
+            return bytes + keys.length * 8L + postings.length * 4L;
+        }
+    }
+
+    private int[] candidateBlocks(String query) {
+        // Look up each distinct trigram once
+        Postings[] lists = new Postings[query.length() - 2];
+        int count = 0;
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            Postings p = get(key(query.charAt(i), query.charAt(i + 1), query.charAt(i + 2)));
+            if (p != null)
+                trim(p);
+            if (p == null || p.isEmpty())
+                return new int[0];
+            boolean duplicate = false;
+            for (int j = 0; j < count; j++)
+                duplicate |= lists[j] == p;
+            if (!duplicate)
+                lists[count++] = p;
+        }
+
+        // Start with the shortest list and intersect it with the others
+        Arrays.sort(lists, 0, count, SHORTEST_FIRST);
+        int[] blocks = lists[0].decode();
+        int n = blocks.length;
+        for (int l = 1; l < count && n > 0; l++)
+            n = lists[l].retainAll(blocks, n);
+        return Arrays.copyOf(blocks, n);
+    }
+
+    /**
+     * Trims the next few lists of the map and forgets the trigrams that no retained row contains anymore
+     */
+    private void sweep() {
+        int mask = postings.length - 1;
+        for (int n = 0; n < SWEEP_SLOTS; n++) {
+            Postings p = postings[sweepSlot];
+            sweepSlot = (sweepSlot + 1) & mask;
+            if (p != null)
+                trim(p);
+        }
+        if (emptyCount > size / 2)
+            rehash(postings.length);
+    }
+
+    private void trim(Postings p) {
+        if (p.isEmpty())
+            return;
+        bytes -= p.trim(firstBlock);
+        if (p.isEmpty())
+            emptyCount++;
+    }
+
+    private long[] getTagTrigrams(int tagId) {
+        if (tagId >= tagTrigrams.length)
+            tagTrigrams = Arrays.copyOf(tagTrigrams, Math.max(tagTrigrams.length * 2, tagId + 1));
+        long[] trigrams = tagTrigrams[tagId];
+        if (trigrams == null) {
+            String tag = store.getTagById(tagId);
+            trigrams = new long[Math.max(0, tag.length() - 2)];
+            for (int i = 0; i < trigrams.length; i++)
+                trigrams[i] = key(tag.charAt(i), tag.charAt(i + 1), tag.charAt(i + 2));
+            tagTrigrams[tagId] = trigrams;
+        }
+        return trigrams;
+    }
+
+    private static long key(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    private Postings get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); postings[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return postings[i];
+        }
+        return null;
+    }
+
+    private void add(long key, int block) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        for (; postings[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                Postings p = postings[i];
+                if (p.needsRoom())
+                    trim(p);
+                if (p.isEmpty())
+                    emptyCount--;
+                bytes += p.add(block);
+                return;
+            }
+        }
+        Postings p = new Postings();
+        bytes += p.add(block) + 32;
+        keys[i] = key;
+        postings[i] = p;
+        if (++size * 2 > keys.length)
+            rehash(keys.length * 2);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Postings[] oldPostings = postings;
+        // Shrink again once most trigrams have been forgotten
+        while (capacity > 1024 && (size - emptyCount) * 4 < capacity)
+            capacity /= 2;
+        keys = new long[capacity];
+        postings = new Postings[capacity];
+        size = 0;
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Postings p = oldPostings[j];
+            if (p == null)
+                continue;
+            if (p.isEmpty()) {
+                bytes -= p.data.length - 4 + 32;
+                continue;
+            }
+            int i = slot(oldKeys[j], mask);
+            while (postings[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            postings[i] = p;
+            size++;
+        }
+        emptyCount = 0;
+        sweepSlot = 0;
+    }
+
+    /**
+     * Ascending block numbers, stored as varint deltas
+     */
+    private static final class Postings {
+
+        byte[] data = new byte[4];
+        int length;
+        // Byte offset of the first retained entry and the block value that precedes it
+        int start;
+        int startBase = -1;
+        int last = -1;
+
+        boolean isEmpty() {
+            return start == length;
+        }
+
+        /**
+         * @return Returns whether the next entry may not fit without reusing trimmed space or growing
+         */
+        boolean needsRoom() {
+            return length + 5 > data.length;
+        }
+
+        /**
+         * @return Returns the number of bytes the list grew by
+         */
+        int add(int block) {
+            if (block == last)
+                return 0;
+            int grownBy = 0;
+            if (length + 5 > data.length) {
+                if (start > length / 2) {
+                    // Reuse the space of trimmed entries before growing
+                    System.arraycopy(data, start, data, 0, length - start);
+                    length -= start;
+                    start = 0;
+                }
+                if (length + 5 > data.length) {
+                    grownBy = data.length;
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+            }
+            int delta = block - last;
+            while (delta >= 0x80) {
+                data[length++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            last = block;
+            return grownBy;
+        }
+
+        /**
+         * Drops all entries below the passed block
+         * @return Returns the number of bytes released
+         */
+        int trim(int firstBlock) {
+            int p = start;
+            int value = startBase;
+            while (p < length) {
+                int delta = 0;
+                int shift = 0;
+                int q = p;
+                byte b;
+                do {
+                    b = data[q++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                if (value + delta >= firstBlock)
+                    break;
+                value += delta;
+                p = q;
+            }
+            start = p;
+            startBase = value;
+            if (start == length) {
+                // Start over so the next block is encoded relative to nothing
+                length = start = 0;
+                startBase = last = -1;
+                if (data.length > 64) {
+                    int released = data.length - 4;
+                    data = new byte[4];
+                    return released;
+                }
+            }
+            return 0;
+        }
+
+        int[] decode() {
+            int[] blocks = new int[length - start];
+            int n = 0;
+            int value = startBase;
+            for (int p = start; p < length; ) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[p++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value += delta;
+                blocks[n++] = value;
+            }
+            return Arrays.copyOf(blocks, n);
+        }
+
+        /**
+         * Keeps only the blocks that are also contained in this list
+         * @param blocks Ascending blocks, modified in place
+         * @param n Number of valid blocks
+         * @return Returns the number of remaining blocks
+         */
+        int retainAll(int[] blocks, int n) {
+            int kept = 0;
+            int i = 0;
+            int value = startBase;
+            for (int p = start; p < length && i < n; ) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[p++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value += delta;
+                while (i < n && blocks[i] < value)
+                    i++;
+                if (i < n && blocks[i] == value)
+                    blocks[kept++] = blocks[i++];
+            }
+            return kept;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package dev.lexip.logcat.filter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import dev.lexip.logcat.parse.LogBuffer;
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.session.SessionReader;
+import dev.lexip.logcat.session.SessionWriter;
+import dev.lexip.logcat.store.LevelIndex;
+import dev.lexip.logcat.store.LogStore;
+import dev.lexip.logcat.store.TimeIndex;
+import dev.lexip.logcat.store.TrigramIndex;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FilterEngine}
+ */
+public class FilterEngineTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private LogStore store;
+    private FilterEngine engine;
+    private final List<FilterResult> results = new ArrayList<>();
+    private CountDownLatch delivered;
+
+    @Before
+    public void setUp() {
+        store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        int tag = store.internTag("Tag");
+        for (int i = 0; i < 50_000; i++) {
+            String message = (i % 10 == 0 ? "needle " : "hay ") + i;
+            store.append(i, 1, 1, i % 2 == 0 ? LogEntry.LEVEL_ERROR : LogEntry.LEVEL_DEBUG, tag, message, 0, message.length(), 0);
+        }
+        delivered = new CountDownLatch(1);
+        engine = new FilterEngine(store, new LevelIndex(store), new TrigramIndex(store), DIRECT, new FilterEngine.Callback() {
+            @Override
+            public void onFilterResult(FilterResult result) {
+                synchronized (results) {
+                    results.add(result);
+                }
+                delivered.countDown();
+            }
+        }, 50);
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void onlyTheLatestSubmissionIsPublished() throws InterruptedException {
+        engine.submit(new FilterQuery(FilterQuery.ALL_LEVELS, "n"));
+        engine.submit(new FilterQuery(FilterQuery.ALL_LEVELS, "ne"));
+        engine.submit(new FilterQuery(FilterQuery.levelBit(LogEntry.LEVEL_ERROR), "needle"));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+
+        assertEquals(1, results.size());
+        FilterResult result = results.get(0);
+        assertEquals(new FilterQuery(FilterQuery.levelBit(LogEntry.LEVEL_ERROR), "needle"), result.getQuery());
+        assertEquals(store.getEndRow(), result.getEndRow());
+        assertEquals(5000, result.getRows().length);
+        for (int row : result.getRows()) {
+            assertEquals(0, row % 10);
+        }
+    }
+
+    @Test
+    public void levelFilterSelectsWholeLevels() throws InterruptedException {
+        engine.submitNow(new FilterQuery(FilterQuery.levelBit(LogEntry.LEVEL_DEBUG), ""));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+        int[] rows = results.get(0).getRows();
+        assertEquals(25_000, rows.length);
+        for (int i = 1; i < rows.length; i++)
+            assertTrue(rows[i - 1] < rows[i]);
+        assertTrue(results.get(0).getElapsedNanos() > 0);
+    }
+
+    @Test
+    public void shortTextIsScannedAndExtendedByNewRows() throws InterruptedException {
+        engine.submitNow(new FilterQuery(FilterQuery.ALL_LEVELS, "e "));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(5000, results.get(0).getRows().length);
+
+        // Same text with other levels and a few new rows, only the new rows get scanned
+        for (int i = 0; i < 10; i++)
+            store.append(0, 1, 1, LogEntry.LEVEL_WARN, -1, "needle", 0, 6, 0);
+        store.append(0, 1, 1, LogEntry.LEVEL_WARN, -1, "needle x", 0, 8, 0);
+        delivered = new CountDownLatch(1);
+        engine.submitNow(new FilterQuery(FilterQuery.levelBit(LogEntry.LEVEL_WARN), "e "));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(new int[]{50_010}, results.get(1).getRows());
+    }
+
+    @Test
+    public void processFilterKeepsRowsOfItsPids() throws InterruptedException {
+        int tag = store.internTag("Tag");
+        store.append(0, 7, 7, LogEntry.LEVEL_ERROR, tag, "needle other app", 0, 16, 0);
+        engine.submitNow(new FilterQuery(FilterQuery.ALL_LEVELS, "needle", new int[]{7, 9}));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(new int[]{50_000}, results.get(0).getRows());
+        assertTrue(results.get(0).getQuery().matches(store, 50_000));
+        assertFalse(results.get(0).getQuery().matches(store, 0));
+    }
+
+    @Test
+    public void bufferFilterKeepsRowsOfItsBuffersAndUntaggedRows() throws InterruptedException {
+        int tag = store.internTag("Tag");
+        store.append(0, 1, 1, LogEntry.LEVEL_ERROR, tag, "needle crash", 0, 12, 0, LogBuffer.CRASH);
+        store.append(0, 1, 1, LogEntry.LEVEL_ERROR, tag, "needle main", 0, 11, 0, LogBuffer.MAIN);
+        FilterQuery query = new FilterQuery(FilterQuery.ALL_LEVELS, "needle", null, Long.MIN_VALUE, Long.MAX_VALUE,
+                LogBuffer.bit(LogBuffer.CRASH));
+        engine.submitNow(query);
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+        int[] rows = results.get(0).getRows();
+        // The rows appended without a buffer pass, like rows without a level pass the level filter
+        assertEquals(5001, rows.length);
+        assertEquals(50_000, rows[rows.length - 1]);
+        assertTrue(query.matches(store, 50_000));
+        assertFalse(query.matches(store, 50_001));
+    }
+
+    @Test
+    public void timeRangeKeepsRowsOfItsSpan() throws InterruptedException {
+        engine.shutdown();
+        engine = new FilterEngine(store, new LevelIndex(store), new TrigramIndex(store), new TimeIndex(store), DIRECT, new FilterEngine.Callback() {
+            @Override
+            public void onFilterResult(FilterResult result) {
+                results.add(result);
+                delivered.countDown();
+            }
+        }, 50);
+        FilterQuery query = new FilterQuery(FilterQuery.levelBit(LogEntry.LEVEL_ERROR), "needle", null, 12_345, 23_456);
+        engine.submitNow(query);
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+        int[] rows = results.get(0).getRows();
+        assertEquals((23_450 - 12_350) / 10 + 1, rows.length);
+        assertEquals(12_350, rows[0]);
+        assertEquals(23_450, rows[rows.length - 1]);
+        for (int row : rows)
+            assertTrue(query.matches(store, row));
+        assertFalse(query.matches(store, 12_340));
+    }
+
+    @Test
+    public void pageInReadsTheRowsClosestToTheEndRow() throws Exception {
+        File root = Files.createTempDirectory("sessions").toFile();
+        try {
+            LogStore small = new LogStore(1000, Long.MAX_VALUE);
+            SessionWriter writer = new SessionWriter(small, root, 64 * 1024, Long.MAX_VALUE, Long.MAX_VALUE);
+            int tag = small.internTag("Tag");
+            for (int i = 0; i < 10_000; i++) {
+                String message = (i % 10 == 0 ? "needle " : "hay ") + i;
+                small.append(i, 1, 1, LogEntry.LEVEL_INFO, tag, message, 0, message.length(), 0);
+            }
+            writer.close();
+            SessionReader reader = new SessionReader(writer.getSessionDir());
+
+            final int[][] page = new int[1][];
+            final CountDownLatch paged = new CountDownLatch(1);
+            engine.pageIn(reader, new FilterQuery(FilterQuery.ALL_LEVELS, "needle"), 9000, 50, 2000, new FilterEngine.PageCallback() {
+                @Override
+                public void onPage(FilterQuery query, int endRow, int[] rows) {
+                    assertEquals(9000, endRow);
+                    page[0] = rows;
+                    paged.countDown();
+                }
+            });
+            assertTrue(paged.await(5, TimeUnit.SECONDS));
+            reader.close();
+
+            assertEquals(50, page[0].length);
+            for (int i = 0; i < 50; i++)
+                assertEquals(8500 + 10 * i, page[0][i]);
+        }
+        finally {
+            File[] sessions = root.listFiles();
+            for (File session : sessions != null ? sessions : new File[0]) {
+                File[] files = session.listFiles();
+                for (File file : files != null ? files : new File[0])
+                    file.delete();
+                session.delete();
+            }
+            root.delete();
+        }
+    }
+}
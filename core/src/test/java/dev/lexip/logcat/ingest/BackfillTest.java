@@ -0,0 +1,115 @@
+package dev.lexip.logcat.ingest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.TimeZone;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+import dev.lexip.logcat.store.LogStore;
+import dev.lexip.logcat.store.TraceCoalescer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Backfill}
+ */
+public class BackfillTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static byte[] readCapture(int copies) throws IOException {
+        InputStream in = BackfillTest.class.getResourceAsStream("/logcat-capture.txt");
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+            capture.write(buffer, 0, n);
+        in.close();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < copies; i++)
+            capture.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static LogStore loadSequentially(byte[] dump) {
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        TraceCoalescer coalescer = new TraceCoalescer(store);
+        LogParser parser = new LogParser(UTC, 2021);
+        LogEntry entry = new LogEntry();
+        for (String line : new String(dump, RawLine.UTF_8).split("\n")) {
+            parser.parse(line, entry);
+            coalescer.append(entry);
+        }
+        coalescer.flush();
+        return store;
+    }
+
+    @Test
+    public void parallelLoadMatchesSequentialIngestion() throws Exception {
+        byte[] dump = readCapture(300);
+        LogStore expected = loadSequentially(dump);
+
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        Backfill backfill = new Backfill(4, UTC, 2021);
+        int lines = backfill.load(new ByteArrayInputStream(dump), new TraceCoalescer(store), store);
+
+        assertEquals(expected.size(), store.size());
+        assertEquals(store.size(), backfill.getRows());
+        assertTrue(lines >= store.size());
+        for (int row = 0; row < store.size(); row++) {
+            assertEquals(expected.getTime(row), store.getTime(row));
+            assertEquals(expected.getTag(row), store.getTag(row));
+            assertEquals(expected.getMessage(row), store.getMessage(row));
+            assertEquals(expected.getFlags(row), store.getFlags(row));
+        }
+        assertEquals(store.getTime(store.getEndRow() - 1), backfill.getTail().getLastTimeMillis());
+        System.out.println("Backfill: " + lines + " lines, read " + backfill.getReadNanos() / 1000 + " us, parse "
+                + backfill.getParseNanos() / 1000 + " us, load " + backfill.getLoadNanos() / 1000 + " us");
+    }
+
+    @Test
+    public void tailSkipsWhatGotLoaded() throws Exception {
+        String dump = "--------- beginning of main\n"
+                + "05-23 11:50:59.000  10  10 I A: old\r\n"
+                + "05-23 11:51:00.000  10  10 I A: first\n"
+                + "05-23 11:51:00.000  11  11 I B: second\n";
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        Backfill backfill = new Backfill(2, UTC, 2021);
+        backfill.load(new ByteArrayInputStream(dump.getBytes("UTF-8")), new TraceCoalescer(store), store);
+        assertEquals(4, store.size());
+        assertEquals("old", store.getMessage(1));
+
+        TailOverlap overlap = backfill.getTail();
+        overlap.restart();
+        LogParser parser = new LogParser(UTC, 2021);
+        LogEntry entry = new LogEntry();
+        String[] tail = {
+                "--------- beginning of main",
+                "05-23 11:50:59.000  10  10 I A: old",
+                "05-23 11:51:00.000  10  10 I A: first",
+                "05-23 11:51:00.000  11  11 I B: second",
+                "05-23 11:51:00.000  12  12 I C: same millisecond, but new",
+                "05-23 11:51:01.000  10  10 I A: newer",
+                "05-23 11:51:00.000  11  11 I B: second",
+        };
+        boolean[] skipped = new boolean[tail.length];
+        for (int i = 0; i < tail.length; i++) {
+            parser.parse(tail[i], entry);
+            skipped[i] = overlap.skip(entry);
+        }
+        assertArrayEquals(new boolean[]{true, true, true, true, false, false, false}, skipped);
+    }
+
+    @Test
+    public void emptyDump() throws Exception {
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        Backfill backfill = new Backfill(4, UTC, 2021);
+        assertEquals(0, backfill.load(new ByteArrayInputStream(new byte[0]), new TraceCoalescer(store), store));
+        assertEquals(0, backfill.getTail().getLastTimeMillis());
+    }
+}
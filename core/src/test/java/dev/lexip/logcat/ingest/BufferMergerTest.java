@@ -0,0 +1,108 @@
+package dev.lexip.logcat.ingest;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import dev.lexip.logcat.parse.LogBuffer;
+import dev.lexip.logcat.parse.LogEntry;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BufferMerger}
+ */
+public class BufferMergerTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    // 05-23 11:50:59.000 in 2021
+    private static final long BASE = 1621770659000L;
+    private static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * @param millis Milliseconds after BASE, below 1000
+     */
+    private static String line(int millis, String message) {
+        return String.format("05-23 11:50:59.%03d  1000  1001 I Tag: %s", millis, message);
+    }
+
+    private static LineRingBuffer[] rings(int count) {
+        LineRingBuffer[] rings = new LineRingBuffer[count];
+        for (int i = 0; i < count; i++)
+            rings[i] = new LineRingBuffer(64);
+        return rings;
+    }
+
+    @Test
+    public void linesOfAllBuffersComeOutInTimeOrder() {
+        LineRingBuffer[] rings = rings(3);
+        rings[0].offer(line(10, "a"));
+        rings[0].offer(line(40, "d"));
+        rings[1].offer(line(20, "b"));
+        rings[1].offer(line(50, "e"));
+        rings[2].offer(line(30, "c"));
+        rings[2].offer(line(60, "f"));
+        BufferMerger merger = new BufferMerger(rings, new byte[]{LogBuffer.MAIN, LogBuffer.SYSTEM, LogBuffer.CRASH},
+                50, UTC, 2021);
+        assertEquals(6, merger.size());
+
+        String[] messages = {"a", "b", "c", "d"};
+        byte[] buffers = {LogBuffer.MAIN, LogBuffer.SYSTEM, LogBuffer.CRASH, LogBuffer.MAIN};
+        for (int i = 0; i < messages.length; i++) {
+            LogEntry entry = merger.next(BASE);
+            assertNotNull(entry);
+            assertEquals(messages[i], entry.getMessage());
+            assertEquals(buffers[i], entry.getBuffer());
+        }
+        // The main buffer ran dry, so the others wait for the window as it may still deliver older lines
+        assertNull(merger.next(BASE + 50 + 49));
+        LogEntry entry = merger.next(BASE + 50 + 50);
+        assertEquals("e", entry.getMessage());
+        assertEquals(LogBuffer.SYSTEM, entry.getBuffer());
+        assertNull(merger.next(BASE + 60 + 49));
+        assertEquals("f", merger.next(BASE + 60 + 50).getMessage());
+        assertNull(merger.next(NEVER));
+        assertEquals(0, merger.size());
+    }
+
+    @Test
+    public void lateLineOfAQuietBufferIsMergedInWithinTheWindow() {
+        LineRingBuffer[] rings = rings(2);
+        BufferMerger merger = new BufferMerger(rings, new byte[]{LogBuffer.MAIN, LogBuffer.SYSTEM}, 50, UTC, 2021);
+        rings[0].offer(line(100, "busy"));
+        assertNull(merger.next(BASE + 120));
+        rings[1].offer(line(90, "quiet"));
+        assertEquals("quiet", merger.next(BASE + 120).getMessage());
+        assertEquals("busy", merger.next(BASE + 150).getMessage());
+    }
+
+    @Test
+    public void continuationsFollowTheirReport() {
+        LineRingBuffer[] rings = rings(2);
+        rings[0].offer(line(100, "report"));
+        rings[0].offer("\tat com.example.Foo.bar(Foo.java:12)");
+        rings[0].offer(line(200, "later"));
+        rings[1].offer(line(100, "same time"));
+        rings[1].offer(line(300, "end"));
+        BufferMerger merger = new BufferMerger(rings, new byte[]{LogBuffer.CRASH, LogBuffer.MAIN}, 50, UTC, 2021);
+
+        assertEquals("report", merger.next(NEVER).getMessage());
+        LogEntry continuation = merger.next(NEVER);
+        assertEquals(LogEntry.KIND_CONTINUATION, continuation.getKind());
+        assertEquals(LogBuffer.CRASH, continuation.getBuffer());
+        assertEquals("same time", merger.next(NEVER).getMessage());
+        assertEquals("later", merger.next(NEVER).getMessage());
+        assertEquals("end", merger.next(NEVER).getMessage());
+    }
+
+    @Test
+    public void singleSourceDoesNotWait() {
+        LineRingBuffer[] rings = rings(1);
+        BufferMerger merger = new BufferMerger(rings, new byte[]{LogBuffer.DEFAULT}, 50, UTC, 2021);
+        rings[0].offer(line(100, "now"));
+        LogEntry entry = merger.next(BASE);
+        assertEquals("now", entry.getMessage());
+        assertEquals(BASE + 100, entry.getTimeMillis());
+        assertEquals(LogBuffer.DEFAULT, entry.getBuffer());
+    }
+}
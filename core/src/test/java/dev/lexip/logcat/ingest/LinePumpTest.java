@@ -0,0 +1,255 @@
+package dev.lexip.logcat.ingest;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import dev.lexip.logcat.parse.DecodedLine;
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LinePump}, {@link LineScanner} and {@link BinaryLogReader}
+ */
+public class LinePumpTest {
+
+    private static byte[] readCapture() throws IOException {
+        InputStream in = LinePumpTest.class.getResourceAsStream("/logcat-capture.txt");
+        assertNotNull(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) > 0)
+            out.write(chunk, 0, n);
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static List<String> pump(byte[] bytes, SourceFilter rawFilter, boolean binary) throws Exception {
+        LineRingBuffer buffer = new LineRingBuffer(1 << 16);
+        LinePump pump = new LinePump(buffer, new OverloadPolicy(OverloadPolicy.MODE_BLOCK), rawFilter);
+        if (binary)
+            pump.pumpBinary(new ByteArrayInputStream(bytes));
+        else
+            pump.pumpText(new ByteArrayInputStream(bytes));
+        List<String> lines = new ArrayList<>();
+        CharSequence line;
+        while ((line = buffer.poll()) != null)
+            lines.add(line.toString());
+        return lines;
+    }
+
+    private static List<String> readLines(byte[] bytes) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), RawLine.UTF_8));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null)
+            lines.add(line);
+        return lines;
+    }
+
+    @Test
+    public void scannerSplitsLinesAcrossChunks() throws IOException {
+        byte[] bytes = "first\r\nsecond line that is longer than a chunk\n\nlast".getBytes(RawLine.UTF_8);
+        LineScanner scanner = new LineScanner(new ByteArrayInputStream(bytes), 4);
+        List<String> lines = new ArrayList<>();
+        while (scanner.next())
+            lines.add(new String(scanner.getData(), scanner.getLineStart(), scanner.getLineEnd() - scanner.getLineStart(), RawLine.UTF_8));
+        assertEquals(4, lines.size());
+        assertEquals("first", lines.get(0));
+        assertEquals("second line that is longer than a chunk", lines.get(1));
+        assertEquals("", lines.get(2));
+        assertEquals("last", lines.get(3));
+        assertEquals(bytes.length, scanner.getBytesRead());
+    }
+
+    @Test
+    public void textPathMatchesReadLine() throws Exception {
+        byte[] capture = readCapture();
+        assertEquals(readLines(capture), pump(capture, null, false));
+    }
+
+    @Test
+    public void rawLineFindsHeaderFields() {
+        RawLine line = new RawLine();
+        byte[] bytes = "05-23 11:50:59.123  1234  1256 W Tag     : msg: x".getBytes(RawLine.UTF_8);
+        line.set(bytes, 0, bytes.length);
+        assertEquals(LogEntry.LEVEL_WARN, line.level);
+        assertEquals("Tag", new String(bytes, line.tagStart, line.tagEnd - line.tagStart, RawLine.UTF_8));
+        assertEquals(1234, line.pid());
+
+        bytes = "05-23 11:50:59.123 E/Other( 4711): hello".getBytes(RawLine.UTF_8);
+        line.set(bytes, 0, bytes.length);
+        assertEquals(LogEntry.LEVEL_ERROR, line.level);
+        assertEquals("Other", new String(bytes, line.tagStart, line.tagEnd - line.tagStart, RawLine.UTF_8));
+        assertEquals(4711, line.pid());
+
+        bytes = "--------- beginning of main".getBytes(RawLine.UTF_8);
+        line.set(bytes, 0, bytes.length);
+        assertEquals(LogEntry.LEVEL_UNKNOWN, line.level);
+        assertEquals(-1, line.pid());
+    }
+
+    @Test
+    public void rawFilterDropsLinesBeforeDecoding() throws Exception {
+        byte[] capture = readCapture();
+        List<String> lines = pump(capture, new SourceFilter(LogEntry.LEVEL_WARN, 6120, null), false);
+        int expected = 0;
+        RawLine raw = new RawLine();
+        for (String line : readLines(capture)) {
+            byte[] bytes = line.getBytes(RawLine.UTF_8);
+            raw.set(bytes, 0, bytes.length);
+            byte level = raw.level;
+            if (level == LogEntry.LEVEL_UNKNOWN || (level >= LogEntry.LEVEL_WARN && line.substring(18, 25).trim().equals("6120")))
+                expected++;
+        }
+        assertEquals(expected, lines.size());
+        assertTrue(lines.contains("05-23 11:51:04.894  6120  6120 E AndroidRuntime: FATAL EXCEPTION: main"));
+    }
+
+    private static void entry(ByteBuffer out, int headerBytes, int logId, int pid, long millis, int priority, String tag, String message) {
+        byte[] tagBytes = tag.getBytes(RawLine.UTF_8);
+        byte[] messageBytes = message.getBytes(RawLine.UTF_8);
+        int payload = 1 + tagBytes.length + 1 + messageBytes.length + 1;
+        out.putShort((short) payload);
+        out.putShort((short) (headerBytes == 20 ? 0 : headerBytes));
+        out.putInt(pid);
+        out.putInt(pid + 1);
+        out.putInt((int) (millis / 1000));
+        out.putInt((int) (millis % 1000) * 1_000_000);
+        if (headerBytes >= 24)
+            out.putInt(logId);
+        if (headerBytes >= 28)
+            out.putInt(10123);
+        out.put((byte) priority).put(tagBytes).put((byte) 0).put(messageBytes).put((byte) 0);
+    }
+
+    @Test
+    public void binaryEntriesBecomeThreadtimeLines() throws Exception {
+        TimeZone defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        try {
+            ByteBuffer out = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+            long millis = 1621770659123L; // 2021-05-23 11:50:59.123 UTC
+            entry(out, 20, 0, 1234, millis, LogEntry.LEVEL_DEBUG, "Tag", "version 1");
+            entry(out, 28, 2, 1234, millis, LogEntry.LEVEL_INFO, "Events", "binary payload");
+            entry(out, 28, 0, 1234, millis, LogEntry.LEVEL_ERROR, "AndroidRuntime", "java.lang.RuntimeException: x\n\tat a.b.C.d(C.java:1)\n");
+            entry(out, 24, 0, 42, millis, LogEntry.LEVEL_VERBOSE, "Other", "filtered");
+            byte[] bytes = new byte[out.position()];
+            out.flip();
+            out.get(bytes);
+
+            List<String> lines = pump(bytes, new SourceFilter(LogEntry.LEVEL_DEBUG, -1, null), true);
+            assertEquals(3, lines.size());
+            assertEquals("05-23 11:50:59.123  1234  1235 D Tag: version 1", lines.get(0));
+            assertEquals("05-23 11:50:59.123  1234  1235 E AndroidRuntime: java.lang.RuntimeException: x", lines.get(1));
+            assertEquals("05-23 11:50:59.123  1234  1235 E AndroidRuntime: \tat a.b.C.d(C.java:1)", lines.get(2));
+        }
+        finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    @Test
+    public void binaryEntriesAreNotParsedAgain() throws Exception {
+        ByteBuffer out = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        long millis = 1621770659123L;
+        entry(out, 28, 0, 1234, millis, LogEntry.LEVEL_WARN, "\u00dcnicode", "first\nsecond: x");
+        LineRingBuffer buffer = new LineRingBuffer(16);
+        new LinePump(buffer, new OverloadPolicy(OverloadPolicy.MODE_BLOCK), null)
+                .pumpBinary(new ByteArrayInputStream(out.array(), 0, out.position()));
+
+        LogParser parser = new LogParser();
+        LogEntry entry = new LogEntry();
+        CharSequence line = buffer.poll();
+        assertTrue(line instanceof DecodedLine);
+        assertEquals(LogEntry.KIND_ENTRY, parser.parse(line, entry));
+        assertEquals(millis, entry.getTimeMillis());
+        assertEquals(1234, entry.getPid());
+        assertEquals(1235, entry.getTid());
+        assertEquals(LogEntry.LEVEL_WARN, entry.getLevel());
+        assertEquals("\u00dcnicode", entry.getTag());
+        assertEquals("first", entry.getMessage());
+        assertEquals(LogEntry.KIND_ENTRY, parser.parse(buffer.poll(), entry));
+        assertEquals("second: x", entry.getMessage());
+        assertNull(buffer.poll());
+    }
+
+    @Test(expected = IOException.class)
+    public void textIsNoBinaryStream() throws Exception {
+        pump("05-23 11:50:59.123  1  1 D Tag: x\n".getBytes(RawLine.UTF_8), null, true);
+    }
+
+    /**
+     * Compares the bytes/s of the former BufferedReader.readLine() path with the byte-level pump, both feeding
+     * the capture into a ring buffer that a second thread drains
+     */
+    @Test
+    public void throughput() throws Exception {
+        byte[] capture = readCapture();
+        ByteArrayOutputStream repeated = new ByteArrayOutputStream();
+        while (repeated.size() < 16 * 1024 * 1024)
+            repeated.write(capture);
+        final byte[] bytes = repeated.toByteArray();
+        SourceFilter warnings = new SourceFilter(LogEntry.LEVEL_WARN, -1, null);
+
+        for (int round = 0; round < 3; round++) { // The first rounds are the warm-up
+            long readLine = measure(bytes, false, null);
+            long pumped = measure(bytes, true, null);
+            long filtered = measure(bytes, true, warnings);
+            if (round == 2) {
+                System.out.println("Ingest: readLine " + readLine / (1024 * 1024) + " MB/s, byte pump " + pumped / (1024 * 1024)
+                        + " MB/s, byte pump with W filter " + filtered / (1024 * 1024) + " MB/s");
+            }
+        }
+    }
+
+    private static long measure(byte[] bytes, boolean bytePath, SourceFilter filter) throws Exception {
+        final LineRingBuffer buffer = new LineRingBuffer(16384);
+        OverloadPolicy policy = new OverloadPolicy(OverloadPolicy.MODE_BLOCK);
+        final boolean[] done = new boolean[1];
+        Thread drainer = new Thread() {
+            @Override
+            public void run() {
+                while (true) {
+                    if (buffer.poll() == null) {
+                        synchronized (done) {
+                            if (done[0] && buffer.size() == 0)
+                                return;
+                        }
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        drainer.start();
+        long start = System.nanoTime();
+        if (bytePath)
+            new LinePump(buffer, policy, filter).pumpText(new ByteArrayInputStream(bytes));
+        else {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), RawLine.UTF_8));
+            String line;
+            // Block mode admits every line
+            while ((line = reader.readLine()) != null)
+                policy.putAdmitted(buffer, line);
+        }
+        synchronized (done) {
+            done[0] = true;
+        }
+        drainer.join();
+        long elapsed = System.nanoTime() - start;
+        return bytes.length * 1_000_000_000L / elapsed;
+    }
+}
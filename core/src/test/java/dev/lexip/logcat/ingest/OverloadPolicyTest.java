@@ -0,0 +1,105 @@
+package dev.lexip.logcat.ingest;
+
+import org.junit.Test;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link OverloadPolicy}
+ */
+public class OverloadPolicyTest {
+
+    private static String line(char level, String tag) {
+        return "05-23 11:50:59.123  1234  1256 " + level + " " + tag + ": message";
+    }
+
+    private final RawLine raw = new RawLine();
+
+    /**
+     * Hands a line to the policy the way the reader thread does, before it is decoded
+     */
+    private void put(OverloadPolicy policy, LineRingBuffer buffer, String line) throws InterruptedException {
+        byte[] bytes = line.getBytes(RawLine.UTF_8);
+        raw.set(bytes, 0, bytes.length);
+        if (policy.admit(buffer, raw.level, raw.data, raw.tagStart, raw.tagEnd))
+            policy.putAdmitted(buffer, line);
+    }
+
+    private int tagHash(String line) {
+        byte[] bytes = line.getBytes(RawLine.UTF_8);
+        raw.set(bytes, 0, bytes.length);
+        return RawLine.tagHash(raw.data, raw.tagStart, raw.tagEnd);
+    }
+
+    @Test
+    public void tagsHashAlikeInAllFormats() {
+        int hash = tagHash(line('D', "Tag"));
+        assertEquals(hash, tagHash("D/Tag( 12): other"));
+        assertEquals(hash, tagHash("05-23 11:50:59.123 W/Tag( 4711): hello"));
+        // Padding of the threadtime format is not part of the tag
+        assertEquals(hash, tagHash("05-23 11:50:59.123  1234  1256 I Tag     : padded"));
+        assertNotEquals(hash, tagHash(line('D', "Other")));
+    }
+
+    @Test
+    public void dropsByPriorityAndReportsTheDrops() throws InterruptedException {
+        LineRingBuffer buffer = new LineRingBuffer(16);
+        OverloadPolicy policy = new OverloadPolicy(OverloadPolicy.MODE_DROP_BY_PRIORITY);
+        for (int i = 0; i < 8; i++)
+            put(policy, buffer, line('I', "Fill"));
+
+        // Half full: VERBOSE goes, DEBUG stays and brings the report of the drops along
+        put(policy, buffer, line('V', "Noise"));
+        put(policy, buffer, line('V', "Noise"));
+        put(policy, buffer, line('D', "Debug"));
+        for (int i = 0; i < 3; i++)
+            put(policy, buffer, line('I', "Fill"));
+        // 13 of 16 queued: DEBUG goes as well, ERROR always stays
+        put(policy, buffer, line('D', "Debug"));
+        put(policy, buffer, line('E', "Crash"));
+
+        assertEquals(3, policy.getDroppedTotal());
+        for (int i = 0; i < 8; i++)
+            buffer.poll();
+        assertEquals("--------- 2 lines dropped (V:2)", buffer.poll());
+        assertEquals(line('D', "Debug"), buffer.poll());
+        for (int i = 0; i < 3; i++)
+            buffer.poll();
+        assertEquals("--------- 1 lines dropped (D:1)", buffer.poll());
+        assertEquals(line('E', "Crash"), buffer.poll());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void blockModeKeepsEverything() throws InterruptedException {
+        LineRingBuffer buffer = new LineRingBuffer(16);
+        OverloadPolicy policy = new OverloadPolicy(OverloadPolicy.MODE_BLOCK);
+        for (int i = 0; i < 16; i++)
+            put(policy, buffer, line('V', "Noise"));
+        assertEquals(16, buffer.size());
+        assertEquals(0, policy.getDroppedTotal());
+    }
+
+    @Test
+    public void noisyTagsAreSampled() throws InterruptedException {
+        LineRingBuffer buffer = new LineRingBuffer(4096);
+        OverloadPolicy policy = new OverloadPolicy(OverloadPolicy.MODE_SAMPLE_TAGS);
+        for (int i = 0; i < 2048; i++)
+            put(policy, buffer, line('I', "Fill" + (i % 64)));
+        int before = buffer.size();
+        for (int i = 0; i < 1000; i++) {
+            put(policy, buffer, line('D', "Chatty"));
+            if (i % 100 == 0)
+                put(policy, buffer, line('D', "Quiet"));
+        }
+        put(policy, buffer, line('E', "Chatty"));
+
+        // The first 200 lines of the window pass, then every 10th
+        int chatty = 200 + 80;
+        assertEquals(1000 - chatty, policy.getDroppedTotal());
+        // The quiet tag, one marker and the error get through as well
+        assertTrue(buffer.size() - before >= chatty + 10 + 1);
+    }
+}
@@ -0,0 +1,74 @@
+package dev.lexip.logcat.ingest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SourceFilter} and {@link LogcatReader}
+ */
+public class SourceFilterTest {
+
+    private static int levelBit(byte level) {
+        return 1 << level;
+    }
+
+    @Test
+    public void noneReadsEverything() {
+        assertEquals(Arrays.asList("logcat", "-v", "threadtime"), SourceFilter.NONE.toCommand(null));
+    }
+
+    @Test
+    public void minLevelOfMask() {
+        assertEquals(LogEntry.LEVEL_WARN, SourceFilter.minLevelOf(levelBit(LogEntry.LEVEL_WARN) | levelBit(LogEntry.LEVEL_FATAL)));
+        assertEquals(LogEntry.LEVEL_VERBOSE, SourceFilter.minLevelOf(levelBit(LogEntry.LEVEL_VERBOSE) | levelBit(LogEntry.LEVEL_ERROR)));
+        assertEquals(LogEntry.LEVEL_FATAL, SourceFilter.minLevelOf(1));
+    }
+
+    @Test
+    public void allArguments() {
+        SourceFilter filter = new SourceFilter(LogEntry.LEVEL_WARN, 1234, new String[]{"main", "crash"});
+        assertEquals(Arrays.asList("logcat", "-v", "threadtime", "-b", "main", "-b", "crash", "-T", "05-23 11:50:59.123",
+                "--pid=1234", "*:W"), filter.toCommand("05-23 11:50:59.123"));
+        assertEquals(Arrays.asList("logcat", "-v", "threadtime", "*:E"),
+                new SourceFilter(LogEntry.LEVEL_ERROR, -1, null).toCommand(null));
+        assertEquals(Arrays.asList("logcat", "-B", "*:E"),
+                new SourceFilter(LogEntry.LEVEL_ERROR, -1, null).toCommand(null, true));
+        assertEquals(Arrays.asList("logcat", "-d", "-t", "5000", "-v", "threadtime", "*:E"),
+                new SourceFilter(LogEntry.LEVEL_ERROR, -1, null).toDumpCommand(5000));
+        assertEquals(Arrays.asList("logcat", "-d", "-v", "threadtime"), SourceFilter.NONE.toDumpCommand(0));
+    }
+
+    @Test
+    public void equality() {
+        assertEquals(new SourceFilter(LogEntry.LEVEL_WARN, 42, new String[]{"main"}),
+                new SourceFilter(LogEntry.LEVEL_WARN, 42, new String[]{"main"}));
+        assertNotEquals(new SourceFilter(LogEntry.LEVEL_WARN, 42, null), new SourceFilter(LogEntry.LEVEL_WARN, 43, null));
+        assertNotEquals(SourceFilter.NONE, new SourceFilter(LogEntry.LEVEL_DEBUG, -1, null));
+    }
+
+    @Test
+    public void readerRestartsWithANewCommand() throws InterruptedException {
+        LineRingBuffer buffer = new LineRingBuffer(16);
+        LogcatReader reader = new LogcatReader(buffer, new OverloadPolicy(OverloadPolicy.MODE_BLOCK), new LogcatReader.Listener() {
+            @Override
+            public void onStopped(IOException error) {
+            }
+        });
+        reader.start(Arrays.asList("sleep", "10"));
+        reader.start(Arrays.asList("printf", "a\\nb\\n"));
+        assertEquals(Arrays.asList("printf", "a\\nb\\n"), reader.getCommand());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (buffer.size() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        reader.stop();
+        assertEquals("a", buffer.poll());
+        assertEquals("b", buffer.poll());
+        assertNull(buffer.poll());
+    }
+}
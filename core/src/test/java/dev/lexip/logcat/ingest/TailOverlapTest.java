@@ -0,0 +1,74 @@
+package dev.lexip.logcat.ingest;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TailOverlap}
+ */
+public class TailOverlapTest {
+
+    private final LogParser parser = new LogParser(TimeZone.getTimeZone("UTC"), 2021);
+    private final LogEntry entry = new LogEntry();
+
+    private void store(TailOverlap overlap, String line) {
+        parser.parse(line, entry);
+        overlap.noteStored(entry);
+    }
+
+    private boolean skip(TailOverlap overlap, String line) {
+        parser.parse(line, entry);
+        return overlap.skip(entry);
+    }
+
+    @Test
+    public void restartSkipsTheStoredLinesOfTheLastMillisecond() {
+        TailOverlap overlap = new TailOverlap();
+        store(overlap, "05-23 11:50:59.000  10  10 I A: old");
+        store(overlap, "05-23 11:51:00.000  10  10 I A: first");
+        store(overlap, "05-23 11:51:00.000  10  10 I A: first");
+        assertFalse(overlap.isSkipping());
+
+        overlap.restart();
+        assertTrue(overlap.isSkipping());
+        assertTrue(skip(overlap, "--------- beginning of system"));
+        assertTrue(skip(overlap, "05-23 11:51:00.000  10  10 I A: first"));
+        // A line the old filter did not let through is new, even at the same millisecond
+        assertFalse(skip(overlap, "05-23 11:51:00.000  10  10 D A: first"));
+        assertTrue(skip(overlap, "05-23 11:51:00.000  10  10 I A: first"));
+        assertFalse(skip(overlap, "05-23 11:51:00.000  10  10 I A: first"));
+        assertFalse(skip(overlap, "05-23 11:51:01.000  10  10 I A: newer"));
+        assertFalse(overlap.isSkipping());
+        assertFalse(skip(overlap, "05-23 11:51:00.000  10  10 I A: first"));
+    }
+
+    @Test
+    public void linesStoredWhileSkippingCountForTheNextRestart() {
+        TailOverlap overlap = new TailOverlap();
+        store(overlap, "05-23 11:51:00.000  10  10 I A: first");
+        overlap.restart();
+        assertTrue(skip(overlap, "05-23 11:51:00.000  10  10 I A: first"));
+        assertFalse(skip(overlap, "05-23 11:51:00.000  11  11 W B: second"));
+        store(overlap, "05-23 11:51:00.000  11  11 W B: second");
+
+        overlap.restart();
+        assertTrue(skip(overlap, "05-23 11:51:00.000  10  10 I A: first"));
+        assertTrue(skip(overlap, "05-23 11:51:00.000  11  11 W B: second"));
+        assertTrue(overlap.isSkipping());
+    }
+
+    @Test
+    public void nothingStored() {
+        TailOverlap overlap = new TailOverlap();
+        overlap.restart();
+        assertEquals(0, overlap.getLastTimeMillis());
+        assertFalse(overlap.isSkipping());
+        assertFalse(skip(overlap, "05-23 11:51:00.000  10  10 I A: first"));
+    }
+}
@@ -0,0 +1,88 @@
+package dev.lexip.logcat.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PipelineMetrics} and {@link LatencyHistogram}
+ */
+public class PipelineMetricsTest {
+
+    private static final long FRAME = 16_666_667L;
+
+    @Test
+    public void percentilesAreWithinTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(50));
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getMeanNanos());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+        long p50 = histogram.getPercentileNanos(50);
+        assertTrue(p50 >= 500_000 && p50 < 1_000_000);
+        assertEquals(1_000_000, histogram.getPercentileNanos(99));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void skippedFramesAreCounted() {
+        PipelineMetrics metrics = new PipelineMetrics(FRAME);
+        long t = 1_000_000_000L;
+        metrics.onFrame(t);
+        metrics.onFrame(t += FRAME);
+        metrics.onFrame(t += FRAME + 3_000_000L); // Jitter
+        assertEquals(0, metrics.getDroppedFrames());
+        metrics.onFrame(t += 4 * FRAME);
+        assertEquals(3, metrics.getDroppedFrames());
+
+        // A pause is no jank
+        metrics.onFramesStopped();
+        metrics.onFrame(t + 100 * FRAME);
+        assertEquals(3, metrics.getDroppedFrames());
+        assertEquals(5, metrics.getFrames());
+    }
+
+    @Test
+    public void ratesAndReport() {
+        PipelineMetrics metrics = new PipelineMetrics(FRAME);
+        metrics.sample(1_000_000_000L, 0, 0, 0, 0, 0);
+        metrics.onProcessed(500);
+        metrics.onRendered(250);
+        metrics.onDisplayed(10_000, 10_040);
+        metrics.onFiltered(3_000_000L);
+        metrics.sample(1_500_000_000L, 1000, 12, 7, 2048, 1024);
+
+        StringBuilder sb = new StringBuilder();
+        metrics.appendReport(sb);
+        String report = sb.toString();
+        assertTrue(report, report.contains("read       2000 lines/s (1000)"));
+        assertTrue(report, report.contains("processed  1000 lines/s (500)"));
+        assertTrue(report, report.contains("rendered   500 rows/s (250)"));
+        assertTrue(report, report.contains("queue      12 (max 12)"));
+        assertTrue(report, report.contains("dropped    7 lines"));
+        assertTrue(report, report.contains("max 40 ms (1)"));
+        assertTrue(report, report.contains("memory     2 KB store, 1 KB indexes"));
+        assertTrue(report, report.contains("startup    backfill 0 lines in -, first screen -, live -"));
+    }
+
+    @Test
+    public void startupMilestones() {
+        PipelineMetrics metrics = new PipelineMetrics(FRAME);
+        metrics.onBackfilled(1000, 80_000_000L);
+        assertFalse(metrics.hasFirstScreen());
+        metrics.onFirstScreen(120_000_000L);
+        metrics.onFirstScreen(500_000_000L);
+        metrics.onLive(150_000_000L);
+        metrics.onLive(900_000_000L);
+
+        assertTrue(metrics.hasFirstScreen());
+        assertEquals(120_000_000L, metrics.getFirstScreenNanos());
+        assertEquals(150_000_000L, metrics.getLiveNanos());
+        StringBuilder sb = new StringBuilder();
+        metrics.appendReport(sb);
+        assertTrue(sb.toString(), sb.toString().contains("startup    backfill 1000 lines in 80 ms, first screen 120 ms, live 150 ms"));
+    }
+}
@@ -0,0 +1,219 @@
+package dev.lexip.logcat.parse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LogParser}
+ */
+public class LogParserTest {
+
+    private LogParser parser;
+    private LogEntry entry;
+
+    @Before
+    public void setUp() {
+        parser = new LogParser(TimeZone.getTimeZone("UTC"), 2021);
+        entry = new LogEntry();
+    }
+
+    @Test
+    public void threadtime_isParsed() {
+        String line = "05-23 11:50:59.123  1234  1256 D ActivityManager: Start proc 4321:com.example/u0a12";
+        assertEquals(LogEntry.KIND_ENTRY, parser.parse(line, entry));
+        assertEquals(1621770659123L, entry.getTimeMillis());
+        assertEquals(1234, entry.getPid());
+        assertEquals(1256, entry.getTid());
+        assertEquals(LogEntry.LEVEL_DEBUG, entry.getLevel());
+        assertEquals("ActivityManager", entry.getTag());
+        assertEquals("Start proc 4321:com.example/u0a12", entry.getMessage());
+    }
+
+    @Test
+    public void threadtime_paddedTagIsTrimmed() {
+        parser.parse("05-23 11:50:59.123   987   987 W Tag     : padded", entry);
+        assertEquals("Tag", entry.getTag());
+        assertEquals("padded", entry.getMessage());
+        assertEquals(LogEntry.LEVEL_WARN, entry.getLevel());
+    }
+
+    @Test
+    public void threadtime_emptyMessage() {
+        assertEquals(LogEntry.KIND_ENTRY, parser.parse("05-23 11:50:59.123  1  1 I Tag:", entry));
+        assertEquals("Tag", entry.getTag());
+        assertEquals("", entry.getMessage());
+    }
+
+    @Test
+    public void threadtime_withYearAndMicroseconds() {
+        parser.parse("2020-01-02 03:04:05.678901  10  11 E Tag: boom", entry);
+        assertEquals(1577934245678L, entry.getTimeMillis());
+        assertEquals(LogEntry.LEVEL_ERROR, entry.getLevel());
+        assertEquals("boom", entry.getMessage());
+    }
+
+    @Test
+    public void threadtime_tabbedStackFrame() {
+        String line = "05-23 11:50:59.123  1234  1234 E AndroidRuntime: \tat dev.lexip.logcat.MainActivity.onCreate(MainActivity.java:42)";
+        assertEquals(LogEntry.KIND_ENTRY, parser.parse(line, entry));
+        assertEquals("AndroidRuntime", entry.getTag());
+        assertEquals("\tat dev.lexip.logcat.MainActivity.onCreate(MainActivity.java:42)", entry.getMessage());
+    }
+
+    @Test
+    public void time_isParsed() {
+        assertEquals(LogEntry.KIND_ENTRY, parser.parse("05-23 11:50:59.123 I/Tag( 4711): hello", entry));
+        assertEquals(4711, entry.getPid());
+        assertEquals(-1, entry.getTid());
+        assertEquals("Tag", entry.getTag());
+        assertEquals("hello", entry.getMessage());
+    }
+
+    @Test
+    public void brief_isParsed() {
+        assertEquals(LogEntry.KIND_ENTRY, parser.parse("W/Some Tag(  815): careful: nested colon", entry));
+        assertEquals(LogEntry.LEVEL_WARN, entry.getLevel());
+        assertEquals(815, entry.getPid());
+        assertEquals(0, entry.getTimeMillis());
+        assertEquals("Some Tag", entry.getTag());
+        assertEquals("careful: nested colon", entry.getMessage());
+    }
+
+    @Test
+    public void long_messageLinesInheritTheHeader() {
+        assertEquals(LogEntry.KIND_SKIP, parser.parse("[ 05-23 11:50:59.123  1234: 1256 E/Crash ]", entry));
+
+        assertEquals(LogEntry.KIND_ENTRY, parser.parse("first line", entry));
+        assertEquals(1234, entry.getPid());
+        assertEquals(1256, entry.getTid());
+        assertEquals(LogEntry.LEVEL_ERROR, entry.getLevel());
+        assertEquals("Crash", entry.getTag());
+        assertEquals("first line", entry.getMessage());
+
+        assertEquals(LogEntry.KIND_ENTRY, parser.parse("\tat a.b.C.d(C.java:1)", entry));
+        assertEquals("Crash", entry.getTag());
+
+        assertEquals(LogEntry.KIND_SKIP, parser.parse("", entry));
+        assertEquals(LogEntry.KIND_CONTINUATION, parser.parse("orphan", entry));
+    }
+
+    @Test
+    public void long_hexThreadId() {
+        parser.parse("[ 05-23 11:50:59.123  1234:0x4d2 I/Tag ]", entry);
+        parser.parse("message", entry);
+        assertEquals(1234, entry.getTid());
+    }
+
+    @Test
+    public void beginningOfMarker() {
+        assertEquals(LogEntry.KIND_MARKER, parser.parse("--------- beginning of crash", entry));
+        assertEquals("beginning of crash", entry.getMessage());
+        assertEquals(LogEntry.LEVEL_UNKNOWN, entry.getLevel());
+    }
+
+    @Test
+    public void continuationLines() {
+        assertEquals(LogEntry.KIND_CONTINUATION, parser.parse("\tat java.lang.Thread.run(Thread.java:923)", entry));
+        assertEquals("\tat java.lang.Thread.run(Thread.java:923)", entry.getMessage());
+        assertEquals(LogEntry.KIND_CONTINUATION, parser.parse("Caused by: java.io.IOException", entry));
+        assertEquals(-1, entry.getPid());
+    }
+
+    @Test
+    public void timestampWithoutFractionIsAContinuation() {
+        // Cut off right before the fraction's separator, with and without the year
+        for (String line : new String[]{"05-12 10:11:12", "2021-05-12 10:11:12", "[ 05-12 10:11:12"}) {
+            assertEquals(line, LogEntry.KIND_CONTINUATION, parser.parse(line, entry));
+            assertEquals(line, line, entry.getMessage());
+        }
+    }
+
+    @Test
+    public void malformedLines() {
+        String[] lines = {
+                "0",
+                "05-23 11:5",
+                "05-23 11:50:59.123",
+                "05-23 11:50:59.  1 2 D Tag: x",
+                "05-23 11:50:59.123  abc  1256 D Tag: x",
+                "05-23 11:50:59.123  1234  1256 Q Tag: x",
+                "05-23 11:50:59.123  1234  1256 D Tag without separator",
+                "13-40 11:50:59.123  1234  1256 D Tag: x",
+                "[ broken",
+                "X/",
+                "-",
+                "- not a marker",
+        };
+        for (String line : lines) {
+            assertEquals(line, LogEntry.KIND_CONTINUATION, parser.parse(line, entry));
+            assertEquals(line, line, entry.getMessage());
+            assertEquals(line, LogEntry.LEVEL_UNKNOWN, entry.getLevel());
+            assertEquals(line, -1, entry.getPid());
+        }
+    }
+
+    @Test
+    public void entryIsReused() {
+        parser.parse("05-23 11:50:59.123  1234  1256 D Tag: x", entry);
+        parser.parse("plain", entry);
+        assertEquals(LogEntry.KIND_CONTINUATION, entry.getKind());
+        assertEquals(0, entry.getTimeMillis());
+        assertEquals("", entry.getTag());
+    }
+
+    @Test
+    public void timestampIsFormattedBack() {
+        LogTime logTime = new LogTime(TimeZone.getTimeZone("Europe/Berlin"));
+        LogParser berlin = new LogParser(TimeZone.getTimeZone("Europe/Berlin"), 2021);
+        for (String timestamp : new String[]{"01-01 00:00:00.000", "02-28 23:59:59.999", "05-23 11:50:59.123", "12-31 12:00:00.007"}) {
+            berlin.parse(timestamp + "  1  1 D Tag: x", entry);
+            StringBuilder sb = new StringBuilder();
+            logTime.appendTimestamp(sb, entry.getTimeMillis());
+            assertEquals(timestamp, sb.toString());
+        }
+    }
+
+    @Test
+    public void timeOfDayIsParsed() {
+        LogTime logTime = new LogTime(TimeZone.getTimeZone("Europe/Berlin"));
+        LogParser berlin = new LogParser(TimeZone.getTimeZone("Europe/Berlin"), 2021);
+        berlin.parse("05-23 11:50:59.123  1  1 D Tag: x", entry);
+        long now = entry.getTimeMillis();
+        assertEquals(now, logTime.parseTimeOfDay(" 11:50:59.123 ", now + 3_600_000));
+        assertEquals(now - 59_123, logTime.parseTimeOfDay("11:50", now));
+        assertEquals(now - 123 + 100, logTime.parseTimeOfDay("11:50:59.1", now));
+        // Shortly after midnight, a late evening time means the day before
+        assertEquals(now + 12 * 3_600_000L + 1, logTime.parseTimeOfDay("23:50:59.124", now + 13 * 3_600_000L));
+        for (String invalid : new String[]{"", "11", "24:00", "11:60", "11:50:", "11:50.5", "11:50:59.1234", "x"})
+            assertEquals(invalid, -1, logTime.parseTimeOfDay(invalid, now));
+    }
+
+    @Test
+    public void throughput() {
+        String[] lines = {
+                "05-23 11:50:59.123  1234  1256 D ActivityManager: Start proc 4321:com.example/u0a12 for activity",
+                "05-23 11:50:59.124   815   900 I chatty  : uid=1000(system) Binder:815_3 expire 3 lines",
+                "05-23 11:51:00.001  1234  1234 E AndroidRuntime: \tat android.os.Looper.loop(Looper.java:223)",
+                "05-23 11:51:00.002  2222  2233 W Tag     : short",
+        };
+        int count = 1_000_000;
+        long chars = 0;
+        for (int i = 0; i < 100_000; i++) // Warm-up
+            parser.parse(lines[i & 3], entry);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            parser.parse(lines[i & 3], entry);
+            chars += entry.getMessageEnd();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("LogParser: " + (count * 1_000_000_000L / elapsed) + " lines/s, "
+                + (elapsed / count) + " ns/line");
+        assertTrue(chars > 0);
+    }
+}
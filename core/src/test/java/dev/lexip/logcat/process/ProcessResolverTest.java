@@ -0,0 +1,149 @@
+package dev.lexip.logcat.process;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.store.LogStore;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProcessResolver} and {@link ProcSource}
+ */
+public class ProcessResolverTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final HashMap<Integer, String> names = new HashMap<>();
+    private final HashMap<Integer, Long> startTimes = new HashMap<>();
+    private int lookUps;
+    private int changes;
+    private LogStore store;
+    private ProcessResolver resolver;
+
+    @Before
+    public void setUp() {
+        store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        ProcessResolver.Source source = new ProcessResolver.Source() {
+            @Override
+            public String readName(int pid) {
+                lookUps++;
+                return names.get(pid);
+            }
+
+            @Override
+            public long readStartTime(int pid) {
+                Long time = startTimes.get(pid);
+                return time == null ? -1 : time;
+            }
+        };
+        resolver = new ProcessResolver(store, source, 3, DIRECT, DIRECT, new ProcessResolver.Listener() {
+            @Override
+            public void onProcessesChanged() {
+                changes++;
+            }
+        });
+    }
+
+    private void append(int pid, String tag, String message) {
+        store.append(0, pid, pid, LogEntry.LEVEL_INFO, store.internTag(tag), message, 0, message.length(), 0);
+    }
+
+    private void run(int pid, String name, long startTime) {
+        names.put(pid, name);
+        startTimes.put(pid, startTime);
+    }
+
+    @Test
+    public void resolvesEachPidOnce() {
+        run(100, "com.example", 1);
+        run(200, "system_server", 1);
+        for (int i = 0; i < 100; i++) {
+            append(100, "App", "line " + i);
+            append(200, "System", "line " + i);
+        }
+        resolver.requestScan();
+        resolver.requestScan();
+
+        assertEquals("com.example", resolver.getName(100));
+        assertEquals("system_server", resolver.getName(200));
+        assertEquals(2, lookUps);
+        assertEquals(1, changes);
+        assertArrayEquals(new int[]{100}, resolver.findPids("EXAMPLE"));
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        for (int pid = 1; pid <= 10; pid++) {
+            run(pid, "process" + pid, 1);
+            append(pid, "Tag", "line");
+        }
+        resolver.requestScan();
+
+        assertEquals(3, resolver.size());
+        assertNull(resolver.getName(1));
+        assertEquals("process10", resolver.getName(10));
+    }
+
+    @Test
+    public void processStartReplacesTheNameOfAReusedPid() {
+        run(100, "com.old", 1);
+        append(100, "App", "line");
+        resolver.requestScan();
+        assertEquals("com.old", resolver.getName(100));
+
+        // The new process is hidden from the source, the name comes from the ActivityManager line
+        names.remove(100);
+        startTimes.remove(100);
+        append(500, "ActivityManager", "Start proc 100:com.new/u0a12 for activity {com.new/com.new.Main}");
+        append(100, "App", "line");
+        resolver.requestScan();
+
+        assertEquals("com.new", resolver.getName(100));
+        assertEquals(2, changes);
+    }
+
+    @Test
+    public void procSourceReadsNameAndStartTime() throws IOException {
+        File root = folder.newFolder("proc");
+        write(new File(root, "42/cmdline"), "com.example:remote\0--flag\0");
+        write(new File(root, "42/stat"), "42 (le (odd) name) S 1 42 0 0 -1 4194560 100 0 0 0 5 3 0 0 20 0 12 0 987654 123 456\n");
+        write(new File(root, "7/cmdline"), "");
+        write(new File(root, "7/comm"), "kworker/0:1\n");
+
+        ProcSource source = new ProcSource(root.getPath());
+        assertEquals("com.example:remote", source.readName(42));
+        assertEquals(987654, source.readStartTime(42));
+        assertEquals("kworker/0:1", source.readName(7));
+        assertEquals(-1, source.readStartTime(7));
+        assertNull(source.readName(99));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package dev.lexip.logcat.session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.store.LogStore;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SessionWriter} and {@link SessionReader}
+ */
+public class SessionReaderTest {
+
+    private File root;
+    private LogStore store;
+    private int tag;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("sessions").toFile();
+        // Small store, so most rows are only on disk
+        store = new LogStore(1000, Long.MAX_VALUE);
+        tag = store.internTag("T\u00e4g");
+    }
+
+    @After
+    public void tearDown() {
+        delete(root);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    private void append(int count) {
+        for (int i = 0; i < count; i++) {
+            int row = store.getEndRow();
+            String message = "message " + row + " \u2603";
+            store.append(1000L * row, 10, 11, LogEntry.LEVEL_INFO, tag, message, 0, message.length(), 0);
+        }
+    }
+
+    @Test
+    public void evictedRowsAreReadBack() throws IOException {
+        SessionWriter writer = new SessionWriter(store, root, 64 * 1024, Long.MAX_VALUE, Long.MAX_VALUE);
+        append(10_000);
+        writer.close();
+        assertNull(writer.getError());
+        assertTrue(writer.getSessionDir().listFiles().length > 2);
+
+        SessionReader reader = new SessionReader(writer.getSessionDir());
+        SessionRecord record = new SessionRecord();
+        assertEquals(0, reader.getFirstRow());
+        for (int row = 0; row < 10_000; row++) {
+            assertTrue(reader.read(row, record));
+            assertEquals(row, record.getRow());
+            assertEquals(1000L * row, record.getTimeMillis());
+            assertEquals(10, record.getPid());
+            assertEquals(11, record.getTid());
+            assertEquals(LogEntry.LEVEL_INFO, record.getLevel());
+            assertEquals("T\u00e4g", record.getTag());
+            assertEquals("message " + row + " \u2603", record.getMessage());
+        }
+        // Random access and rows that were never written
+        assertTrue(reader.read(4321, record));
+        assertEquals("message 4321 \u2603", record.getMessage());
+        assertFalse(reader.read(10_000, record));
+        reader.close();
+    }
+
+    @Test
+    public void growingSegmentIsRemapped() throws IOException {
+        SessionWriter writer = new SessionWriter(store, root, 8L * 1024 * 1024, Long.MAX_VALUE, Long.MAX_VALUE);
+        SessionReader reader = new SessionReader(writer.getSessionDir());
+        SessionRecord record = new SessionRecord();
+        append(100);
+        writer.flush();
+        assertTrue(reader.read(99, record));
+        assertFalse(reader.read(150, record));
+        append(100);
+        writer.flush();
+        assertTrue(reader.read(150, record));
+        assertEquals(150_000L, record.getTimeMillis());
+        writer.close();
+        reader.close();
+    }
+
+    @Test
+    public void findRowByTime() throws IOException {
+        SessionWriter writer = new SessionWriter(store, root, 64 * 1024, Long.MAX_VALUE, Long.MAX_VALUE);
+        append(5000);
+        writer.close();
+
+        SessionReader reader = new SessionReader(writer.getSessionDir());
+        assertEquals(0, reader.findRow(0));
+        assertEquals(1234, reader.findRow(1_234_000L));
+        assertEquals(1235, reader.findRow(1_234_001L));
+        assertEquals(-1, reader.findRow(5_000_000L));
+        reader.close();
+    }
+
+    @Test
+    public void oldSegmentsArePruned() throws IOException {
+        SessionWriter writer = new SessionWriter(store, root, 64 * 1024, 256 * 1024, Long.MAX_VALUE);
+        SessionReader reader = new SessionReader(writer.getSessionDir());
+        append(20_000);
+        writer.close();
+
+        long total = 0;
+        for (File file : writer.getSessionDir().listFiles()) {
+            if (file.getName().endsWith(".seg"))
+                total += file.length();
+        }
+        assertTrue(total <= 256 * 1024 + 64 * 1024);
+        int firstRow = reader.getFirstRow();
+        assertTrue(firstRow > 0);
+        SessionRecord record = new SessionRecord();
+        assertFalse(reader.read(0, record));
+        assertTrue(reader.read(firstRow, record));
+        assertTrue(reader.read(19_999, record));
+        reader.close();
+    }
+
+    @Test
+    public void vanishedSessionStopsTheWriter() throws IOException {
+        SessionWriter writer = new SessionWriter(store, root, 64 * 1024, Long.MAX_VALUE, Long.MAX_VALUE);
+        append(100);
+        // Closing the segment cannot write its index anymore, nor open the next segment
+        delete(writer.getSessionDir());
+        append(10_000);
+        writer.flush();
+        writer.close();
+        assertNotNull(writer.getError());
+        assertEquals(10_100, store.getEndRow());
+    }
+}
@@ -0,0 +1,107 @@
+package dev.lexip.logcat.store;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LogStore}
+ */
+public class LogStoreTest {
+
+    private final LogParser parser = new LogParser(TimeZone.getTimeZone("UTC"), 2021);
+    private final LogEntry entry = new LogEntry();
+
+    private int append(LogStore store, String line) {
+        parser.parse(line, entry);
+        return store.append(entry);
+    }
+
+    @Test
+    public void columnsAreStored() {
+        LogStore store = new LogStore(1000, Long.MAX_VALUE);
+        int row = append(store, "05-23 11:50:59.123  1234  1256 W Tag: hello world");
+        assertEquals(0, row);
+        assertEquals(1621770659123L, store.getTime(row));
+        assertEquals(1234, store.getPid(row));
+        assertEquals(1256, store.getTid(row));
+        assertEquals(LogEntry.LEVEL_WARN, store.getLevel(row));
+        assertEquals("Tag", store.getTag(row));
+        assertEquals("hello world", store.getMessage(row));
+        assertTrue(store.contains(row, "lo wo"));
+        assertTrue(store.contains(row, "Ta"));
+        assertFalse(store.contains(row, "world!"));
+    }
+
+    @Test
+    public void tagsAreInterned() {
+        LogStore store = new LogStore(1000, Long.MAX_VALUE);
+        int a = append(store, "05-23 11:50:59.123  1  1 I Tag: a");
+        int b = append(store, "05-23 11:50:59.123  1  1 I Other: b");
+        int c = append(store, "05-23 11:50:59.123  1  1 I Tag: c");
+        assertEquals(store.getTagId(a), store.getTagId(c));
+        assertNotEquals(store.getTagId(a), store.getTagId(b));
+    }
+
+    @Test
+    public void flagsOfSpecialLines() {
+        LogStore store = new LogStore(1000, Long.MAX_VALUE);
+        int header = append(store, "05-23 11:50:59.123  1  2 E AndroidRuntime: java.lang.IllegalStateException: boom");
+        int frame = append(store, "05-23 11:50:59.123  1  2 E AndroidRuntime: \tat a.b.C.d(C.java:1)");
+        int continuation = append(store, "plain text");
+        int marker = append(store, "--------- beginning of crash");
+
+        assertEquals(LogStore.FLAG_EXCEPTION, store.getFlags(header));
+        assertEquals(LogStore.FLAG_FRAME, store.getFlags(frame));
+        assertEquals("at a.b.C.d(C.java:1)", store.getMessage(frame));
+        assertEquals(LogStore.FLAG_CONTINUATION, store.getFlags(continuation));
+        assertEquals(LogEntry.LEVEL_ERROR, store.getLevel(continuation));
+        assertEquals(2, store.getTid(continuation));
+        assertEquals(LogStore.FLAG_MARKER, store.getFlags(marker));
+        assertEquals("beginning of crash", store.getMessage(marker));
+    }
+
+    @Test
+    public void oldestSegmentsAreEvictedByRows() {
+        LogStore store = new LogStore(LogStore.SEGMENT_ROWS * 2, Long.MAX_VALUE);
+        for (int i = 0; i < LogStore.SEGMENT_ROWS * 5 + 7; i++)
+            store.append(i, i, i, LogEntry.LEVEL_INFO, -1, "message " + i, 0, ("message " + i).length(), 0);
+
+        assertTrue(store.size() <= LogStore.SEGMENT_ROWS * 2);
+        assertEquals(LogStore.SEGMENT_ROWS * 5 + 7, store.getEndRow());
+        assertEquals(0, store.getFirstRow() % LogStore.SEGMENT_ROWS);
+        assertFalse(store.isRetained(store.getFirstRow() - 1));
+        int first = store.getFirstRow();
+        assertEquals(first, store.getPid(first));
+        assertEquals("message " + first, store.getMessage(first));
+        int last = store.getEndRow() - 1;
+        assertEquals("message " + last, store.getMessage(last));
+    }
+
+    @Test
+    public void oldestSegmentsAreEvictedByMemory() {
+        LogStore store = new LogStore(Integer.MAX_VALUE, 4L * 1024 * 1024);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            sb.append('x');
+        for (int i = 0; i < 100_000; i++)
+            store.append(i, 1, 1, LogEntry.LEVEL_DEBUG, -1, sb, 0, sb.length(), 0);
+
+        assertTrue(store.getMemoryBytes() <= 4L * 1024 * 1024 + 4 * LogStore.SEGMENT_ROWS * 1000);
+        assertTrue(store.getFirstRow() > 0);
+        assertEquals(1000, store.getMessage(store.getEndRow() - 1).length());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void evictedRowsAreNotReadable() {
+        LogStore store = new LogStore(LogStore.SEGMENT_ROWS, Long.MAX_VALUE);
+        for (int i = 0; i < LogStore.SEGMENT_ROWS * 3; i++)
+            store.append(i, 1, 1, LogEntry.LEVEL_DEBUG, -1, "x", 0, 1, 0);
+        store.getTime(0);
+    }
+}
@@ -0,0 +1,103 @@
+package dev.lexip.logcat.store;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RepeatCollapser}
+ */
+public class RepeatCollapserTest {
+
+    private final LogParser parser = new LogParser(TimeZone.getTimeZone("UTC"), 2021);
+    private final LogEntry entry = new LogEntry();
+    private LogStore store;
+
+    @Before
+    public void setUp() {
+        store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    private int append(RepeatCollapser collapser, String line) {
+        parser.parse(line, entry);
+        return collapser.append(entry);
+    }
+
+    @Test
+    public void consecutiveRepeatsBecomeOneRow() {
+        RepeatCollapser collapser = new RepeatCollapser(store, RepeatCollapser.WINDOW_CONSECUTIVE);
+        append(collapser, "05-23 11:50:59.000  100  101 D Wifi: scan done");
+        append(collapser, "05-23 11:50:59.500  100  102 D Wifi: scan done");
+        append(collapser, "05-23 11:51:00.000  100  101 D Wifi: scan done");
+        append(collapser, "05-23 11:51:00.100  100  101 I Wifi: connected");
+        append(collapser, "05-23 11:51:00.200  100  101 D Wifi: scan done");
+
+        assertEquals(3, store.size());
+        assertEquals(3, store.getOccurrences(0));
+        assertEquals(store.getTime(0) + 1000, store.getLastTime(0));
+        // The repeat after another line is outside of the window
+        assertEquals(1, store.getOccurrences(2));
+        assertEquals(2, collapser.getCollapsedCount());
+    }
+
+    @Test
+    public void windowFoldsAlternatingRepeats() {
+        RepeatCollapser collapser = new RepeatCollapser(store, RepeatCollapser.WINDOW_DEFAULT);
+        for (int i = 0; i < 10; i++) {
+            append(collapser, "05-23 11:50:59.000  100  100 D Sensor: poll");
+            append(collapser, "05-23 11:50:59.000  200  200 V Gps: fix");
+        }
+
+        assertEquals(2, store.size());
+        assertEquals(10, store.getOccurrences(0));
+        assertEquals(10, store.getOccurrences(1));
+    }
+
+    @Test
+    public void differentReportsStaySeparate() {
+        RepeatCollapser collapser = new RepeatCollapser(store, RepeatCollapser.WINDOW_DEFAULT);
+        append(collapser, "05-23 11:50:59.000  100  100 D Tag: message");
+        append(collapser, "05-23 11:50:59.000  101  101 D Tag: message");
+        append(collapser, "05-23 11:50:59.000  100  100 I Tag: message");
+        append(collapser, "05-23 11:50:59.000  100  100 D Other: message");
+        append(collapser, "05-23 11:50:59.000  100  100 D Tag: message!");
+        append(collapser, "05-23 11:50:59.000  100  100 D Tag: \tat a.b.C.d(C.java:1)");
+        append(collapser, "05-23 11:50:59.000  100  100 D Tag: \tat a.b.C.d(C.java:1)");
+
+        assertEquals(7, store.size());
+        assertEquals(0, collapser.getCollapsedCount());
+    }
+
+    @Test
+    public void disabledWindowAppendsEverything() {
+        RepeatCollapser collapser = new RepeatCollapser(store, 0);
+        append(collapser, "05-23 11:50:59.000  100  100 D Tag: message");
+        append(collapser, "05-23 11:50:59.000  100  100 D Tag: message");
+        assertEquals(2, store.size());
+
+        collapser.setWindow(RepeatCollapser.WINDOW_CONSECUTIVE);
+        append(collapser, "05-23 11:50:59.000  100  100 D Tag: message");
+        append(collapser, "05-23 11:50:59.000  100  100 D Tag: message");
+        assertEquals(3, store.size());
+        assertEquals(2, store.getOccurrences(2));
+    }
+
+    @Test
+    public void repeatedMessagesShareTheirText() {
+        for (int i = 0; i < 1000; i++)
+            store.append(i, 1, 1, LogEntry.LEVEL_INFO, -1, i % 2 == 0 ? "same message" : "other message " + (i % 10), 0,
+                    i % 2 == 0 ? 12 : 15, 0);
+
+        assertEquals(1000, store.size());
+        assertEquals("same message", store.getMessage(998));
+        assertEquals("other message 9", store.getMessage(999));
+        assertTrue(store.contains(500, "same"));
+        assertEquals(store.messageStart(0), store.messageStart(998));
+    }
+}
@@ -0,0 +1,65 @@
+package dev.lexip.logcat.store;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RowBitSet}
+ */
+public class RowBitSetTest {
+
+    private static int[] toArray(BitSet bits) {
+        return bits.stream().toArray();
+    }
+
+    @Test
+    public void matchesJavaBitSet() {
+        Random random = new Random(7);
+        RowBitSet a = new RowBitSet();
+        RowBitSet b = new RowBitSet();
+        BitSet expectedA = new BitSet();
+        BitSet expectedB = new BitSet();
+        for (int i = 0; i < 5000; i++) {
+            int row = 1000 + random.nextInt(100_000);
+            a.set(row);
+            expectedA.set(row);
+            row = random.nextInt(60_000);
+            b.set(row);
+            expectedB.set(row);
+        }
+        assertArrayEquals(toArray(expectedA), a.toArray());
+        assertTrue(a.get(expectedA.nextSetBit(0)));
+        assertFalse(a.get(expectedA.nextClearBit(1000)));
+
+        RowBitSet union = new RowBitSet();
+        union.or(a);
+        union.or(b);
+        BitSet expectedUnion = (BitSet) expectedA.clone();
+        expectedUnion.or(expectedB);
+        assertArrayEquals(toArray(expectedUnion), union.toArray());
+
+        a.and(b);
+        expectedA.and(expectedB);
+        assertArrayEquals(toArray(expectedA), a.toArray());
+        assertEquals(expectedA.cardinality(), a.cardinality());
+    }
+
+    @Test
+    public void removeBelow() {
+        RowBitSet rows = new RowBitSet();
+        for (int row = 0; row < 1000; row += 3)
+            rows.set(row);
+        rows.removeBelow(100);
+        int[] remaining = rows.toArray();
+        assertEquals(102, remaining[0]);
+        assertEquals(999, remaining[remaining.length - 1]);
+        rows.removeBelow(5000);
+        assertTrue(rows.isEmpty());
+        rows.set(7000);
+        assertArrayEquals(new int[]{7000}, rows.toArray());
+    }
+}
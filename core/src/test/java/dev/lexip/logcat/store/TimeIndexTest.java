@@ -0,0 +1,93 @@
+package dev.lexip.logcat.store;
+
+import org.junit.Test;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TimeIndex}
+ */
+public class TimeIndexTest {
+
+    private static final long BASE = 1_621_770_659_000L;
+    private static final int ALL_LEVELS = (1 << (LogEntry.LEVEL_FATAL + 1)) - 1;
+
+    private static int append(LogStore store, long time, byte level) {
+        int tag = store.internTag("Tag");
+        return store.append(time, 1, 1, level, tag, "message", 0, 7, 0);
+    }
+
+    @Test
+    public void countsLinesPerSecondAndLevel() {
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        TimeIndex index = new TimeIndex(store);
+        append(store, BASE + 100, LogEntry.LEVEL_INFO);
+        append(store, BASE + 900, LogEntry.LEVEL_ERROR);
+        append(store, BASE + 2_000, LogEntry.LEVEL_ERROR);
+        // Late line of the first second and a marker without a time count in the newest second
+        append(store, BASE + 500, LogEntry.LEVEL_INFO);
+        append(store, 0, LogEntry.LEVEL_UNKNOWN);
+
+        long second = BASE / 1000;
+        assertEquals(second, index.getFirstSecond());
+        assertEquals(second + 2, index.getLastSecond());
+        assertEquals(1, index.count(second, LogEntry.LEVEL_INFO));
+        assertEquals(1, index.count(second, LogEntry.LEVEL_ERROR));
+        assertEquals(0, index.count(second + 1, LogEntry.LEVEL_ERROR));
+        assertEquals(1, index.count(second + 2, LogEntry.LEVEL_INFO));
+        assertEquals(1, index.count(second + 2, LogEntry.LEVEL_UNKNOWN));
+    }
+
+    @Test
+    public void findsRowsByTime() {
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        append(store, BASE + 100, LogEntry.LEVEL_INFO);
+        append(store, BASE + 900, LogEntry.LEVEL_INFO);
+        append(store, BASE + 5_000, LogEntry.LEVEL_INFO);
+        append(store, BASE + 5_001, LogEntry.LEVEL_INFO);
+        // Existing rows are indexed as well
+        TimeIndex index = new TimeIndex(store);
+
+        assertEquals(0, index.findRow(0));
+        assertEquals(0, index.findRow(BASE + 100));
+        assertEquals(1, index.findRow(BASE + 101));
+        assertEquals(2, index.findRow(BASE + 901));
+        assertEquals(2, index.findRow(BASE + 3_000));
+        assertEquals(3, index.findRow(BASE + 5_001));
+        assertEquals(4, index.findRow(BASE + 5_002));
+        assertEquals(4, index.findRow(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void histogramSumsSecondsIntoBins() {
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        TimeIndex index = new TimeIndex(store);
+        for (int s = 0; s < 10; s++) {
+            for (int i = 0; i <= s; i++)
+                append(store, BASE + s * 1000 + i, i == 0 ? LogEntry.LEVEL_ERROR : LogEntry.LEVEL_DEBUG);
+        }
+        // Folded repeats count as lines of the second they arrived in
+        store.addOccurrence(0, BASE + 9_500);
+
+        int[] bins = new int[4];
+        int max = index.histogram(BASE / 1000, 3, ALL_LEVELS, bins);
+        assertArrayEquals(new int[]{1 + 2 + 3, 4 + 5 + 6, 7 + 8 + 9, 10 + 1}, bins);
+        assertEquals(24, max);
+        index.histogram(BASE / 1000, 3, 1 << LogEntry.LEVEL_ERROR, bins);
+        assertArrayEquals(new int[]{3, 3, 3, 2}, bins);
+    }
+
+    @Test
+    public void evictedSecondsLeaveTheIndex() {
+        LogStore store = new LogStore(LogStore.SEGMENT_ROWS * 2, Long.MAX_VALUE);
+        TimeIndex index = new TimeIndex(store);
+        for (int i = 0; i < LogStore.SEGMENT_ROWS * 10; i++)
+            append(store, BASE + i * 10L, LogEntry.LEVEL_INFO);
+        assertTrue(store.getFirstRow() > 0);
+        assertEquals(store.getFirstRow(), index.findRow(0));
+        assertEquals((BASE + store.getFirstRow() * 10L) / 1000, index.getFirstSecond());
+        assertTrue(index.getMemoryBytes() < 64 * 1024);
+    }
+}
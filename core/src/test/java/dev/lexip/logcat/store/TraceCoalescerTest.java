@@ -0,0 +1,130 @@
+package dev.lexip.logcat.store;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import dev.lexip.logcat.parse.LogEntry;
+import dev.lexip.logcat.parse.LogParser;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TraceCoalescer}
+ */
+public class TraceCoalescerTest {
+
+    private final LogParser parser = new LogParser(TimeZone.getTimeZone("UTC"), 2021);
+    private final LogEntry entry = new LogEntry();
+    private LogStore store;
+    private TraceCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        coalescer = new TraceCoalescer(store);
+    }
+
+    private void append(String line) {
+        parser.parse(line, entry);
+        coalescer.append(entry);
+    }
+
+    private void crash(int pid, String detail) {
+        append("05-23 11:50:59.123  " + pid + "  " + pid + " E AndroidRuntime: FATAL EXCEPTION: main");
+        append("05-23 11:50:59.123  " + pid + "  " + pid + " E AndroidRuntime: Process: com.example, PID: " + pid);
+        append("05-23 11:50:59.123  " + pid + "  " + pid + " E AndroidRuntime: java.lang.IllegalStateException: " + detail);
+        append("05-23 11:50:59.123  " + pid + "  " + pid + " E AndroidRuntime: \tat com.example.Main.onCreate(Main.java:42)");
+        append("05-23 11:50:59.123  " + pid + "  " + pid + " E AndroidRuntime: Caused by: java.io.IOException: " + detail);
+        append("05-23 11:50:59.123  " + pid + "  " + pid + " E AndroidRuntime: \t... 11 more");
+    }
+
+    @Test
+    public void traceBecomesOneRow() {
+        append("05-23 11:50:59.000   10   10 I Other: before");
+        crash(1234, "boom");
+        append("05-23 11:51:00.000 1234 1234 I ActivityManager: after");
+        coalescer.flush();
+
+        assertEquals(3, store.size());
+        int trace = 1;
+        assertEquals(LogStore.FLAG_TRACE | LogStore.FLAG_EXCEPTION, store.getFlags(trace));
+        assertEquals("AndroidRuntime", store.getTag(trace));
+        assertEquals(1234, store.getPid(trace));
+        assertEquals(LogEntry.LEVEL_ERROR, store.getLevel(trace));
+        assertEquals("FATAL EXCEPTION: main\nProcess: com.example, PID: 1234\njava.lang.IllegalStateException: boom\n"
+                + "\tat com.example.Main.onCreate(Main.java:42)\nCaused by: java.io.IOException: boom\n\t... 11 more", store.getMessage(trace));
+        assertEquals("after", store.getMessage(2));
+    }
+
+    @Test
+    public void interleavedThreadsPassThrough() {
+        append("05-23 11:50:59.123  1  1 E Crash: java.lang.RuntimeException: x");
+        append("05-23 11:50:59.123  2  2 I Other: unrelated");
+        append("05-23 11:50:59.123  1  1 E Crash: \tat a.b.C.d(C.java:1)");
+        coalescer.flush();
+
+        assertEquals(2, store.size());
+        assertEquals("unrelated", store.getMessage(0));
+        assertEquals("java.lang.RuntimeException: x\n\tat a.b.C.d(C.java:1)", store.getMessage(1));
+    }
+
+    @Test
+    public void headerWithoutFramesStaysARegularLine() {
+        append("05-23 11:50:59.123  1  1 W Net: onError: timeout");
+        append("05-23 11:50:59.124  1  1 W Net: retrying");
+        coalescer.flush();
+
+        assertEquals(2, store.size());
+        assertEquals("onError: timeout", store.getMessage(0));
+        assertEquals(0, store.getFlags(0) & LogStore.FLAG_TRACE);
+        assertEquals("Net", store.getTag(0));
+        assertFalse(coalescer.flushIdle(System.nanoTime()));
+    }
+
+    @Test
+    public void headerShapes() {
+        String[] headers = {"FATAL EXCEPTION: main", "java.lang.IllegalStateException: boom", "java.lang.OutOfMemoryError",
+                "kotlin.NotImplementedError: An operation is not implemented.", "a.b.Outer$InnerException: x",
+                "java.lang.Throwable: here", "Caused by: java.io.IOException: x"};
+        for (String header : headers)
+            assertTrue(header, TraceCoalescer.isHeader(header, 0, header.length()));
+        String[] lines = {"onError: timeout", "IOException: no qualified name", "Error: 3", "Got java.io.IOException: x",
+                "java.io.IOException happened", "com.example.ErrorHandler: ready", "EXCEPTION in frame", ".Exception: x"};
+        for (String line : lines)
+            assertFalse(line, TraceCoalescer.isHeader(line, 0, line.length()));
+    }
+
+    @Test
+    public void headerWithoutFramesIsReleasedByTheNextLine() {
+        append("05-23 11:50:59.123  1  1 W Net: java.net.SocketTimeoutException: timeout");
+        append("05-23 11:50:59.124  1  1 W Net: java.io.IOException: retrying");
+        assertEquals(1, store.size());
+        append("05-23 11:50:59.125  1  1 W Net: giving up");
+        assertEquals(3, store.size());
+        assertEquals("java.io.IOException: retrying", store.getMessage(1));
+        assertEquals(0, store.getFlags(1) & LogStore.FLAG_TRACE);
+    }
+
+    @Test
+    public void crashLoopCostsOneRow() {
+        for (int i = 0; i < 5000; i++)
+            crash(1000 + i, "detail " + i);
+        coalescer.flush();
+
+        assertEquals(1, store.size());
+        assertEquals(5000, store.getOccurrences(0));
+        assertEquals(4999, coalescer.getFoldedCount());
+    }
+
+    @Test
+    public void idleGroupsAreFlushed() throws InterruptedException {
+        crash(1, "boom");
+        assertEquals(0, store.size());
+        assertFalse(coalescer.flushIdle(System.nanoTime()));
+        Thread.sleep(60);
+        assertTrue(coalescer.flushIdle(System.nanoTime()));
+        assertEquals(1, store.size());
+    }
+}
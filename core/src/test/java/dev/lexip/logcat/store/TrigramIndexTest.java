@@ -0,0 +1,133 @@
+package dev.lexip.logcat.store;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import dev.lexip.logcat.parse.LogEntry;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TrigramIndex}
+ */
+public class TrigramIndexTest {
+
+    private static final String[] WORDS = {"binder", "activity", "start", "proc", "gc", "freed", "wifi", "scan",
+            "Exception", "null", "timeout", "window", "focus", "0x7f", "uid", "pid", "AlarmManager", "boom"};
+    private static final String[] TAGS = {"ActivityManager", "WifiService", "art", "chatty", "AndroidRuntime"};
+
+    private static void fill(LogStore store, int count, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            int words = 1 + random.nextInt(8);
+            for (int w = 0; w < words; w++)
+                sb.append(WORDS[random.nextInt(WORDS.length)]).append(w % 3 == 0 ? ' ' : '_').append(random.nextInt(100));
+            String tag = TAGS[random.nextInt(TAGS.length)];
+            int tagId = store.internTag(tag);
+            store.append(i, 1, 1, LogEntry.LEVEL_INFO, tagId, sb, 0, sb.length(), 0);
+        }
+    }
+
+    private static IntList scan(LogStore store, String query) {
+        IntList result = new IntList();
+        for (int row = store.getFirstRow(); row < store.getEndRow(); row++) {
+            if (store.contains(row, query))
+                result.add(row);
+        }
+        return result;
+    }
+
+    private static void assertSameRows(IntList expected, IntList actual) {
+        assertArrayEquals(expected.toArray(), actual.toArray());
+    }
+
+    @Test
+    public void queriesMatchAFullScan() {
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        TrigramIndex index = new TrigramIndex(store);
+        fill(store, 20_000, 1);
+        for (String query : new String[]{"activity", "tivity_4", "Manager", "WifiS", "boom 1", "xyz", "Exception_9", "0x7f"})
+            assertSameRows(scan(store, query), index.query(query));
+    }
+
+    @Test
+    public void shortQueriesAreNotIndexed() {
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        assertNull(new TrigramIndex(store).query("gc"));
+    }
+
+    @Test
+    public void queryReportsTheRowsItChecked() {
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        TrigramIndex index = new TrigramIndex(store);
+        fill(store, 1000, 2);
+        RowBitSet rows = new RowBitSet();
+        assertEquals(store.getEndRow(), index.query("freed", rows));
+        assertEquals(-1, index.query("gc", rows));
+    }
+
+    @Test
+    public void existingRowsAreIndexed() {
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        fill(store, 1000, 2);
+        TrigramIndex index = new TrigramIndex(store);
+        assertSameRows(scan(store, "freed"), index.query("freed"));
+    }
+
+    @Test
+    public void evictedRowsLeaveTheIndex() {
+        LogStore store = new LogStore(LogStore.SEGMENT_ROWS * 2, Long.MAX_VALUE);
+        TrigramIndex index = new TrigramIndex(store);
+        fill(store, LogStore.SEGMENT_ROWS * 10, 3);
+        assertTrue(store.getFirstRow() > 0);
+        for (String query : new String[]{"timeout", "scan_5", "chatty"}) {
+            IntList rows = index.query(query);
+            assertSameRows(scan(store, query), rows);
+            assertTrue(rows.isEmpty() || rows.get(0) >= store.getFirstRow());
+        }
+    }
+
+    @Test
+    public void evictedTrigramsAreForgottenWhileAppending() {
+        LogStore store = new LogStore(LogStore.SEGMENT_ROWS * 2, Long.MAX_VALUE);
+        TrigramIndex index = new TrigramIndex(store);
+        fill(store, LogStore.SEGMENT_ROWS * 2, 4);
+        int tagId = store.internTag("Other");
+        for (int i = 0; i < LogStore.SEGMENT_ROWS * 20; i++) {
+            String message = "qqq " + (i % 100);
+            store.append(i, 1, 1, LogEntry.LEVEL_INFO, tagId, message, 0, message.length(), 0);
+        }
+        assertTrue(index.query("timeout").isEmpty());
+        // About what an index over the retained rows alone takes
+        long fresh = new TrigramIndex(store).getMemoryBytes();
+        assertTrue(index.getMemoryBytes() + " vs " + fresh, index.getMemoryBytes() < fresh * 2);
+    }
+
+    @Test
+    public void queryLatency() {
+        LogStore store = new LogStore(Integer.MAX_VALUE, Long.MAX_VALUE);
+        TrigramIndex index = new TrigramIndex(store);
+        fill(store, 200_000, 4);
+
+        // Best of a few runs, the first ones mostly measure the JIT
+        IntList indexed = null;
+        IntList scanned = null;
+        long indexNanos = Long.MAX_VALUE;
+        long scanNanos = Long.MAX_VALUE;
+        for (int run = 0; run < 10; run++) {
+            long start = System.nanoTime();
+            indexed = index.query("AlarmManager_42");
+            indexNanos = Math.min(indexNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            scanned = scan(store, "AlarmManager_42");
+            scanNanos = Math.min(scanNanos, System.nanoTime() - start);
+        }
+
+        System.out.println("TrigramIndex: " + indexed.size() + " of " + store.size() + " rows in " + indexNanos / 1000 + " us (scan: "
+                + scanNanos / 1000 + " us), index memory " + index.getMemoryBytes() / 1024 + " KB");
+        assertSameRows(scanned, indexed);
+    }
+}